@@ -0,0 +1,183 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads bits from an input stream, most significant bit first, in the same
+ * order BitOutputStream writes them. Bits are buffered in a 64-bit register so
+ * callers can look ahead several bits at once without allocating.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class BitReader {
+	private static final int BUFFER_SIZE = 1 << 16; // bytes read from the
+	                                                // stream at a time
+
+	private final InputStream inputStream_; // the underlying stream, or null
+	                                        // when reading from a buffer
+	private final byte[] array_; // the array that stream bytes are read into
+	private final ByteBuffer buffer_; // bytes not yet moved into the register
+	private int position_; // next byte to move into the register
+	private int limit_; // index after the last valid byte in the buffer
+	private boolean streamEnded_; // true once the stream has returned -1
+
+	private long register_; // buffered bits, the newest in the low end
+	private int count_; // number of valid bits in the register
+
+	/**
+	 * @param inputStream
+	 *          stream that the bits are read from
+	 */
+	public BitReader ( InputStream inputStream ) {
+		inputStream_ = inputStream;
+		array_ = new byte[BUFFER_SIZE];
+		buffer_ = ByteBuffer.wrap(array_);
+	}
+
+	/**
+	 * Reads the bits straight out of an array
+	 *
+	 * @param buffer
+	 *          array that holds the bits
+	 * @param offset
+	 *          index of the first byte to read
+	 * @param length
+	 *          number of bytes to read
+	 */
+	public BitReader ( byte[] buffer, int offset, int length ) {
+		this(ByteBuffer.wrap(buffer,offset,length));
+	}
+
+	/**
+	 * Reads the bits straight out of a buffer, such as a slice of a mapped file,
+	 * from its position to its limit. The buffer's position is not changed.
+	 *
+	 * @param buffer
+	 *          buffer that holds the bits
+	 */
+	public BitReader ( ByteBuffer buffer ) {
+		inputStream_ = null;
+		array_ = null;
+		buffer_ = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		position_ = buffer.position();
+		limit_ = buffer.limit();
+		streamEnded_ = true;
+	}
+
+	/**
+	 * Tops the register up so that it holds at least 57 bits, or every bit left
+	 * in the stream
+	 *
+	 * @throws IOException
+	 */
+	public void fill () throws IOException {
+		while ( count_ <= 56 ) {
+			if ( limit_ - position_ >= 8 ) { // moves up to 7 bytes in at once
+				int bytes = Math.min(7,(64 - count_) >>> 3);
+				long word = buffer_.getLong(position_);
+				register_ = (register_ << (bytes * 8)) | (word >>> (64 - bytes * 8));
+				position_ += bytes;
+				count_ += bytes * 8;
+			} else if ( position_ < limit_ ) {
+				register_ = (register_ << 8) | (buffer_.get(position_++) & 0xFF);
+				count_ += 8;
+			} else {
+				if ( streamEnded_ ) {
+					return;
+				}
+				limit_ = inputStream_.read(array_);
+				position_ = 0;
+				if ( limit_ <= 0 ) {
+					limit_ = 0;
+					streamEnded_ = true;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether at least n more bits can be read
+	 *
+	 * @param n
+	 *          number of bits (at most 57)
+	 * @return true if n bits are left in the stream
+	 * @throws IOException
+	 */
+	public boolean hasBits ( int n ) throws IOException {
+		if ( count_ < n ) {
+			fill();
+		}
+		return count_ >= n;
+	}
+
+	/**
+	 * Gets the number of bits that are buffered and can be skipped without
+	 * reading from the stream
+	 *
+	 * @return the number of buffered bits
+	 */
+	public int available () {
+		return count_;
+	}
+
+	/**
+	 * Looks at the next n bits without consuming them. Bits past the end of the
+	 * stream read as zero.
+	 *
+	 * @param n
+	 *          number of bits (1 to 32)
+	 * @return the next n bits, right-aligned
+	 * @throws IOException
+	 */
+	public int peek ( int n ) throws IOException {
+		if ( count_ < n ) {
+			fill();
+			if ( count_ < n ) { // pads the end of the stream with zeros
+				return (int) ((register_ << (n - count_)) & ((1L << n) - 1));
+			}
+		}
+		return (int) ((register_ >>> (count_ - n)) & ((1L << n) - 1));
+	}
+
+	/**
+	 * Consumes bits that have already been looked at with peek
+	 *
+	 * @param n
+	 *          number of bits, no more than available()
+	 */
+	public void skip ( int n ) {
+		count_ -= n;
+	}
+
+	/**
+	 * Reads the next n bits
+	 *
+	 * @param n
+	 *          number of bits (1 to 32)
+	 * @return the bits, right-aligned
+	 * @throws IOException
+	 *           if fewer than n bits are left
+	 */
+	public int readBits ( int n ) throws IOException {
+		if ( !hasBits(n) ) {
+			throw new EOFException("Unexpected end of compressed data");
+		}
+		int bits = peek(n);
+		count_ -= n;
+		return bits;
+	}
+
+	/**
+	 * Closes the underlying stream
+	 *
+	 * @throws IOException
+	 */
+	public void close () throws IOException {
+		if ( inputStream_ != null ) {
+			inputStream_.close();
+		}
+	}
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes bits to an output stream, most significant bit first, in the same
+ * order BitOutputStream writes them. Codes are passed as primitive values and
+ * collected in a 64-bit register, which is stored into the buffer a whole
+ * word at a time, so nothing is allocated and there is no per-byte work in
+ * the common case.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class BitWriter {
+	private static final int BUFFER_SIZE = 1 << 16; // bytes written to the
+	                                                // stream at a time; a
+	                                                // multiple of 8
+
+	private final OutputStream outputStream_; // the underlying stream, or null
+	                                          // when writing into an array
+	private final byte[] buffer_; // whole words waiting to be written
+	private final ByteBuffer words_; // view of buffer_ for storing words
+	private int position_; // next free byte of the buffer
+
+	private long register_; // pending bits, the newest in the low end
+	private int free_; // number of bits that still fit in the register
+
+	/**
+	 * @param outputStream
+	 *          stream that the bits are written to
+	 */
+	public BitWriter ( OutputStream outputStream ) {
+		outputStream_ = outputStream;
+		buffer_ = new byte[BUFFER_SIZE];
+		words_ = ByteBuffer.wrap(buffer_);
+		free_ = 64;
+	}
+
+	/**
+	 * Writes the bits straight into an array that is big enough to hold them
+	 *
+	 * @param buffer
+	 *          array that the bits are written to
+	 * @param offset
+	 *          index of the first byte to write
+	 */
+	public BitWriter ( byte[] buffer, int offset ) {
+		outputStream_ = null;
+		buffer_ = buffer;
+		words_ = ByteBuffer.wrap(buffer_);
+		position_ = offset;
+		free_ = 64;
+	}
+
+	/**
+	 * Writes the low n bits of a value
+	 *
+	 * @param bits
+	 *          the bits, right-aligned
+	 * @param n
+	 *          number of bits (0 to 64)
+	 * @throws IOException
+	 */
+	public void writeBits ( long bits, int n ) throws IOException {
+		if ( n == 64 ) { // a 64-bit shift would do nothing
+			writeBits(bits >>> 32,32);
+			n = 32;
+		}
+		bits &= (1L << n) - 1;
+		if ( n < free_ ) { // the common case: the bits fit in the register
+			register_ = (register_ << n) | bits;
+			free_ -= n;
+		} else { // fills the register, stores it, and keeps the rest of the bits
+			int rest = n - free_;
+			storeWord((register_ << free_) | (bits >>> rest));
+			register_ = bits; // only the low rest bits count
+			free_ = 64 - rest;
+		}
+	}
+
+	/**
+	 * Writes the code of every byte in a range of a buffer. This is the encoder's
+	 * inner loop: the register is kept in local variables and the codes are
+	 * looked up in primitive arrays, so nothing is allocated per byte.
+	 *
+	 * @param data
+	 *          buffer holding the bytes to encode
+	 * @param start
+	 *          index of the first byte
+	 * @param end
+	 *          index after the last byte
+	 * @param codes
+	 *          the code of each byte value, right-aligned with no stray high bits
+	 * @param lengths
+	 *          the length of each byte value's code, at most 63
+	 * @throws IOException
+	 */
+	public void writeSymbols ( ByteBuffer data, int start, int end, long[] codes,
+	                           int[] lengths ) throws IOException {
+		writeSymbols(data,start,end,1,codes,lengths);
+	}
+
+	/**
+	 * Writes the code of every step-th byte in a range of a buffer, such as one
+	 * stream of an interleaved block
+	 *
+	 * @param data
+	 *          buffer holding the bytes to encode
+	 * @param start
+	 *          index of the first byte
+	 * @param end
+	 *          index after the last byte of the range
+	 * @param step
+	 *          distance between the bytes written, at least 1
+	 * @param codes
+	 *          the code of each byte value, right-aligned with no stray high bits
+	 * @param lengths
+	 *          the length of each byte value's code, at most 63
+	 * @throws IOException
+	 */
+	public void writeSymbols ( ByteBuffer data, int start, int end, int step,
+	                           long[] codes, int[] lengths ) throws IOException {
+		long register = register_;
+		int free = free_;
+		for ( int i = start ; i < end ; i += step ) {
+			int symbol = data.get(i) & 0xFF;
+			long code = codes[symbol];
+			int n = lengths[symbol];
+			if ( n < free ) {
+				register = (register << n) | code;
+				free -= n;
+			} else {
+				int rest = n - free;
+				storeWord((register << free) | (code >>> rest));
+				register = code;
+				free = 64 - rest;
+			}
+		}
+		register_ = register;
+		free_ = free;
+	}
+
+	/**
+	 * Stores a full register in the buffer
+	 *
+	 * @param word
+	 *          the 64 bits to store
+	 * @throws IOException
+	 */
+	private void storeWord ( long word ) throws IOException {
+		if ( position_ + 8 > buffer_.length && outputStream_ != null ) {
+			outputStream_.write(buffer_,0,position_);
+			position_ = 0;
+		}
+		words_.putLong(position_,word);
+		position_ += 8;
+	}
+
+	/**
+	 * Gets the index after the last byte written when writing into an array.
+	 * Only up to date after flush.
+	 *
+	 * @return the position in the array
+	 */
+	public int getPosition () {
+		return position_;
+	}
+
+	/**
+	 * Pads the last partial byte with zeros and writes everything buffered to the
+	 * stream
+	 *
+	 * @throws IOException
+	 */
+	public void flush () throws IOException {
+		int count = 64 - free_; // bits pending in the register
+		if ( count > 0 ) {
+			if ( outputStream_ != null && position_ + 8 > buffer_.length ) {
+				outputStream_.write(buffer_,0,position_);
+				position_ = 0;
+			}
+			long word = register_ << free_; // left-aligns the pending bits
+			for ( int i = 0 ; i < (count + 7) / 8 ; i++ ) {
+				buffer_[position_++] = (byte) (word >>> (56 - 8 * i));
+			}
+			register_ = 0;
+			free_ = 64;
+		}
+		if ( outputStream_ != null ) {
+			outputStream_.write(buffer_,0,position_);
+			position_ = 0;
+			outputStream_.flush();
+		}
+	}
+
+	/**
+	 * Flushes and closes the underlying stream
+	 *
+	 * @throws IOException
+	 */
+	public void close () throws IOException {
+		flush();
+		if ( outputStream_ != null ) {
+			outputStream_.close();
+		}
+	}
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Uncompresses blocks written by BlockEncoder. Stored blocks are copied,
+ * interleaved blocks have their streams decoded together, and blocks coded
+ * with a trained table are decoded with the registered CodeTable of the same
+ * ID. The time spent in each stage is added to the current HuffMetrics, if
+ * metrics are on. A BlockDecoder remembers the checksum of the last block it
+ * read, so each thread needs its own.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class BlockDecoder {
+	private int checksum_; // the stored checksum of the last block read
+
+	/**
+	 * Decodes a block's payload
+	 *
+	 * @param type
+	 *          the block type
+	 * @param payload
+	 *          array holding the payload
+	 * @param offset
+	 *          index of the first byte of the payload
+	 * @param length
+	 *          number of bytes in the payload
+	 * @param buffer
+	 *          array that the block's bytes are written to
+	 * @param bufferOffset
+	 *          index of the block's first byte in buffer
+	 * @param rawLength
+	 *          number of bytes in the block
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the block type is unknown or the payload is corrupt
+	 */
+	public void decode ( int type, byte[] payload, int offset, int length,
+	                     byte[] buffer, int bufferOffset, int rawLength )
+	    throws IOException {
+		decode(type,ByteBuffer.wrap(payload,offset,length),
+		       ByteBuffer.wrap(buffer,bufferOffset,rawLength),rawLength);
+	}
+
+	/**
+	 * Decodes a block's payload from one buffer into another without copying
+	 * either, so they can be regions of mapped files
+	 *
+	 * @param type
+	 *          the block type
+	 * @param payload
+	 *          buffer holding the payload between its position and limit
+	 * @param buffer
+	 *          buffer that the block's bytes are written to, starting at its
+	 *          position, which is moved past them
+	 * @param rawLength
+	 *          number of bytes in the block
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the block type is unknown or the payload is corrupt
+	 */
+	public void decode ( int type, ByteBuffer payload, ByteBuffer buffer,
+	                     int rawLength ) throws IOException {
+		HuffMetrics metrics = HuffMetrics.current();
+		int payloadLength = payload.remaining();
+		decode(type,payload,buffer,rawLength,metrics);
+		if ( metrics != null ) {
+			metrics.blockDecoded(type,rawLength,payloadLength);
+		}
+	}
+
+	/**
+	 * Decodes a block's payload, timing each stage
+	 *
+	 * @param type
+	 *          the block type
+	 * @param payload
+	 *          buffer holding the payload between its position and limit
+	 * @param buffer
+	 *          buffer that the block's bytes are written to
+	 * @param rawLength
+	 *          number of bytes in the block
+	 * @param metrics
+	 *          where to add the time of each stage, or null
+	 * @throws IOException
+	 */
+	private void decode ( int type, ByteBuffer payload, ByteBuffer buffer,
+	                      int rawLength, HuffMetrics metrics ) throws IOException {
+		long time = metrics == null ? 0 : System.nanoTime();
+		if ( type == HuffConstants.BLOCK_TABLE ) {
+			if ( payload.remaining() < HuffConstants.TABLE_ID_SIZE ) {
+				throw new IllegalArgumentException("Corrupt block header");
+			}
+			int start = payload.position();
+			int id = 0;
+			for ( int i = 0 ; i < HuffConstants.TABLE_ID_SIZE ; i++ ) {
+				id = (id << 8) | (payload.get(start + i) & 0xFF);
+			}
+			ByteBuffer coded = payload.duplicate();
+			coded.position(start + HuffConstants.TABLE_ID_SIZE);
+			TableDecoder decoder = CodeTable.get(id).getDecoder();
+			if ( metrics != null ) {
+				time = metrics.time(HuffMetrics.HEADER,time);
+			}
+			decoder.decode(new BitReader(coded),buffer,rawLength);
+			if ( metrics != null ) {
+				metrics.time(HuffMetrics.CODE,time);
+			}
+			return;
+		}
+		if ( type == HuffConstants.BLOCK_STORED ) { // just copied
+			if ( payload.remaining() != rawLength ) {
+				throw new IllegalArgumentException("Corrupt block header");
+			}
+			buffer.put(payload.duplicate());
+			if ( metrics != null ) {
+				metrics.time(HuffMetrics.CODE,time);
+			}
+			return;
+		}
+		if ( type == HuffConstants.BLOCK_INTERLEAVED ) {
+			decodeInterleaved(payload,buffer,rawLength,metrics,time);
+			return;
+		}
+		if ( type != HuffConstants.BLOCK_HUFFMAN ) {
+			throw new IllegalArgumentException("Unknown block type " + type);
+		}
+		BitReader inputStream = new BitReader(payload);
+		CanonicalCode canonicalCode =
+		    new CanonicalCode(inputStream,HuffConstants.BLOCK_ALPHABET_SIZE);
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.HEADER,time);
+		}
+		TableDecoder decoder = canonicalCode.getDecoder(-1);
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.BUILD,time);
+		}
+		decoder.decode(inputStream,buffer,rawLength);
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CODE,time);
+		}
+	}
+
+	/**
+	 * Decodes an interleaved block: reads the code lengths and the jump table,
+	 * and then decodes the streams together
+	 *
+	 * @param payload
+	 *          buffer holding the payload between its position and limit
+	 * @param buffer
+	 *          buffer that the block's bytes are written to
+	 * @param rawLength
+	 *          number of bytes in the block
+	 * @param metrics
+	 *          where to add the time of each stage, or null
+	 * @param time
+	 *          when the block was started, if metrics is not null
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the payload is corrupt
+	 */
+	private static void decodeInterleaved ( ByteBuffer payload, ByteBuffer buffer,
+	                                        int rawLength, HuffMetrics metrics,
+	                                        long time ) throws IOException {
+		CanonicalCode canonicalCode =
+		    new CanonicalCode(new BitReader(payload),
+		                      HuffConstants.BLOCK_ALPHABET_SIZE);
+		int position = payload.position() + (canonicalCode.getHeaderBits() + 7)
+		    / 8;
+		if ( payload.limit() - position < HuffConstants.JUMP_TABLE_SIZE ) {
+			throw new IllegalArgumentException("Corrupt block header");
+		}
+		ByteBuffer jumpTable = payload.duplicate(); // reads big-endian whatever
+		                                            // the payload's order
+		BitReader[] streams = new BitReader[HuffConstants.INTERLEAVED_STREAMS];
+		int streamStart = position + HuffConstants.JUMP_TABLE_SIZE;
+		for ( int stream = 0 ; stream < streams.length ; stream++ ) {
+			long streamEnd = payload.limit(); // the last stream runs to the end
+			if ( stream < streams.length - 1 ) {
+				streamEnd = streamStart + (jumpTable.getInt(position + 4 * stream)
+				    & 0xFFFFFFFFL);
+			}
+			if ( streamEnd > payload.limit() ) {
+				throw new IllegalArgumentException("Corrupt block header");
+			}
+			ByteBuffer bits = payload.duplicate();
+			bits.limit((int) streamEnd).position(streamStart);
+			streams[stream] = new BitReader(bits);
+			streamStart = (int) streamEnd;
+		}
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.HEADER,time);
+		}
+		TableDecoder decoder = canonicalCode.getDecoder(-1);
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.BUILD,time);
+		}
+		decoder.decode(streams[0],streams[1],streams[2],streams[3],buffer,
+		               rawLength);
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CODE,time);
+		}
+	}
+
+	/**
+	 * Checks a decoded block against its stored checksum
+	 *
+	 * @param checksum
+	 *          the CRC-32C stored after the block's payload
+	 * @param block
+	 *          buffer holding the decoded block between its position and limit
+	 * @throws IllegalArgumentException
+	 *           if the checksums differ
+	 */
+	public static void check ( int checksum, ByteBuffer block ) {
+		HuffMetrics metrics = HuffMetrics.current();
+		long time = metrics == null ? 0 : System.nanoTime();
+		int actual = Crc32c.of(block);
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CHECKSUM,time);
+		}
+		if ( actual != checksum ) {
+			throw new IllegalArgumentException("Corrupt compressed data: block checksum mismatch");
+		}
+	}
+
+	/**
+	 * Reads one block from a compressed file and decodes it, checking it
+	 * against its checksum if the file has checksums
+	 *
+	 * @param index
+	 *          the file's block index
+	 * @param channel
+	 *          the compressed file
+	 * @param block
+	 *          the block's number
+	 * @param scratch
+	 *          array to read the block into, replaced by a bigger one if needed
+	 * @param buffer
+	 *          array that receives the block's bytes, at least as long as the
+	 *          block
+	 * @return the array the block was read into
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the block does not match the index or is corrupt
+	 */
+	public byte[] read ( BlockIndex index, FileChannel channel, int block,
+	                     byte[] scratch, byte[] buffer ) throws IOException {
+		int payloadLength = index.getPayloadLength(block);
+		int size = HuffConstants.BLOCK_HEADER_SIZE + payloadLength
+		    + (index.hasChecksums() ? HuffConstants.CHECKSUM_SIZE : 0);
+		if ( scratch.length < size ) {
+			scratch = new byte[size];
+		}
+		ByteBuffer entry = ByteBuffer.wrap(scratch,0,size);
+		HuffMetrics metrics = HuffMetrics.current();
+		long time = metrics == null ? 0 : System.nanoTime();
+		BlockIndex.readFully(channel,entry,index.getOffset(block));
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.READ,time);
+		}
+
+		int type = scratch[0] & 0xFF;
+		if ( entry.getInt(1) != index.getLength(block)
+		    || entry.getInt(5) != payloadLength ) {
+			throw new IllegalArgumentException("Block " + block
+			    + " does not match the block index");
+		}
+		decode(type,scratch,HuffConstants.BLOCK_HEADER_SIZE,payloadLength,buffer,0,
+		       index.getLength(block));
+		if ( index.hasChecksums() ) {
+			checksum_ = entry.getInt(HuffConstants.BLOCK_HEADER_SIZE + payloadLength);
+			check(checksum_,ByteBuffer.wrap(buffer,0,index.getLength(block)));
+		}
+		return scratch;
+	}
+
+	/**
+	 * Gets the stored checksum of the last block read
+	 *
+	 * @return the block's CRC-32C
+	 */
+	public int getChecksum () {
+		return checksum_;
+	}
+}
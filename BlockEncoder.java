@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses one block of bytes at a time. Each block gets its own frequency
+ * count and code, and is turned into a payload made of the code lengths
+ * followed by the coded bytes. The Huffman code lengths are worked out
+ * directly by HuffmanCode, without building a tree. No code is longer than
+ * the encoder's limit: when the Huffman code is too deep, the lengths are
+ * worked out again with LengthLimitedCode. Blocks can instead be coded with
+ * a trained CodeTable, whose payload is just the table's ID and the coded
+ * bytes. A block that coding would not make smaller, such as already
+ * compressed data, is stored as it is, so no payload is ever longer than its
+ * block. An encoder can also deal the coded bytes of each large enough block
+ * into INTERLEAVED_STREAMS separate bit streams, which costs a few bytes but
+ * lets the decoder work on the streams together instead of waiting for each
+ * code to end before the next can start. The payload array is reused from
+ * block to block.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class BlockEncoder {
+	private static final int MIN_INTERLEAVED_LENGTH = 1 << 12; // smaller blocks
+	                                                           // keep a single
+	                                                           // stream
+
+	private final FrequencyCounter counter_; // counts the bytes of each block
+	private final int maxCodeLength_; // longest code allowed
+	private final boolean interleaved_; // splits blocks into several streams
+	private final int[] streamLengths_; // byte length of each stream of the
+	                                    // last interleaved block
+	private byte[] payload_; // the last encoded payload
+	private int payloadLength_; // number of bytes of payload_ in use
+	private int type_; // the block type of the last payload
+	private int checksum_; // the CRC-32C of the last block
+
+	/**
+	 * Limits codes to the default length
+	 */
+	public BlockEncoder () {
+		this(HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+	}
+
+	/**
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 */
+	public BlockEncoder ( int maxCodeLength ) {
+		this(maxCodeLength,false);
+	}
+
+	/**
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 * @param interleaved
+	 *          true to code blocks of at least 4 KB as interleaved streams
+	 */
+	public BlockEncoder ( int maxCodeLength, boolean interleaved ) {
+		checkMaxCodeLength(maxCodeLength);
+		maxCodeLength_ = maxCodeLength;
+		interleaved_ = interleaved;
+		counter_ = new FrequencyCounter();
+		streamLengths_ = new int[HuffConstants.INTERLEAVED_STREAMS];
+		payload_ = new byte[0];
+	}
+
+	/**
+	 * Encodes a block
+	 *
+	 * @param data
+	 *          array holding the block
+	 * @param offset
+	 *          index of the first byte of the block
+	 * @param length
+	 *          number of bytes in the block, at least 1
+	 * @return the length of the payload
+	 * @throws IOException
+	 */
+	public int encode ( byte[] data, int offset, int length ) throws IOException {
+		return encode(ByteBuffer.wrap(data,offset,length));
+	}
+
+	/**
+	 * Encodes the bytes between a buffer's position and limit, reading them in
+	 * place so the buffer can be a region of a mapped file. The buffer's
+	 * position is not changed.
+	 *
+	 * @param data
+	 *          buffer holding at least 1 byte
+	 * @return the length of the payload
+	 * @throws IOException
+	 */
+	public int encode ( ByteBuffer data ) throws IOException {
+		return encode(data,(CodeTable) null);
+	}
+
+	/**
+	 * Encodes the bytes between a buffer's position and limit with a trained
+	 * table, which saves building a code and storing its lengths. If the table
+	 * would make the block bigger than it is, the block gets its own code
+	 * instead. The buffer's position is not changed.
+	 *
+	 * @param data
+	 *          buffer holding at least 1 byte
+	 * @param table
+	 *          the table to use, or null to give the block its own code
+	 * @return the length of the payload
+	 * @throws IOException
+	 */
+	public int encode ( ByteBuffer data, CodeTable table ) throws IOException {
+		HuffMetrics metrics = HuffMetrics.current();
+		if ( metrics == null ) {
+			return encode(data,counter_.count(data),table,null);
+		}
+		long time = System.nanoTime();
+		int[] frequencies = counter_.count(data);
+		metrics.time(HuffMetrics.COUNT,time);
+		encode(data,frequencies,table,metrics);
+		metrics.blockEncoded(type_,data.remaining(),payloadLength_,
+		                     entropyBits(frequencies,data.remaining()));
+		return payloadLength_;
+	}
+
+	/**
+	 * Encodes a counted block with a trained table, or with its own code if the
+	 * table would not make it smaller
+	 *
+	 * @param data
+	 *          buffer holding the block between its position and limit
+	 * @param frequencies
+	 *          how often each byte value occurs in the block
+	 * @param table
+	 *          the table to use, or null to give the block its own code
+	 * @param metrics
+	 *          where to add the time of each stage, or null
+	 * @return the length of the payload
+	 * @throws IOException
+	 */
+	private int encode ( ByteBuffer data, int[] frequencies, CodeTable table,
+	                     HuffMetrics metrics ) throws IOException {
+		if ( table == null ) {
+			return encode(data,frequencies,metrics);
+		}
+		int start = data.position();
+		int end = data.limit();
+		long[] codes = table.getCode().getCodes();
+		int[] lengths = table.getCode().getLengths();
+		long bits = 0;
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			bits += (long) frequencies[symbol] * lengths[symbol];
+		}
+		if ( HuffConstants.TABLE_ID_SIZE + (bits + 7) / 8 >= end - start ) {
+			return encode(data,frequencies,metrics); // the data does not look like
+			                                         // the samples
+		}
+
+		long time = metrics == null ? 0 : System.nanoTime();
+		checksum_ = Crc32c.of(data);
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.CHECKSUM,time);
+		}
+		type_ = HuffConstants.BLOCK_TABLE;
+		payloadLength_ = HuffConstants.TABLE_ID_SIZE + (int) ((bits + 7) / 8);
+		if ( payload_.length < payloadLength_ ) {
+			payload_ = new byte[payloadLength_];
+		}
+		int id = table.getId();
+		for ( int i = 0 ; i < HuffConstants.TABLE_ID_SIZE ; i++ ) {
+			payload_[i] = (byte) (id >>> (24 - 8 * i));
+		}
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.HEADER,time);
+		}
+		BitWriter outputStream =
+		    new BitWriter(payload_,HuffConstants.TABLE_ID_SIZE);
+		outputStream.writeSymbols(data,start,end,codes,lengths);
+		outputStream.flush();
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CODE,time);
+		}
+		return payloadLength_;
+	}
+
+	/**
+	 * Encodes a block with its own code, or stores it if that would not make it
+	 * smaller
+	 *
+	 * @param data
+	 *          buffer holding the block between its position and limit
+	 * @param frequencies
+	 *          how often each byte value occurs in the block
+	 * @param metrics
+	 *          where to add the time of each stage, or null
+	 * @return the length of the payload
+	 * @throws IOException
+	 */
+	private int encode ( ByteBuffer data, int[] frequencies, HuffMetrics metrics )
+	    throws IOException {
+		int start = data.position();
+		int end = data.limit();
+		long time = metrics == null ? 0 : System.nanoTime();
+		checksum_ = Crc32c.of(data);
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.CHECKSUM,time);
+		}
+		if ( !worthCoding(frequencies,end - start) ) { // saves building a code
+			return store(data,metrics,time);
+		}
+
+		CanonicalCode canonicalCode =
+		    new CanonicalCode(HuffmanCode.lengths(frequencies));
+		for ( int length : canonicalCode.getLengths() ) {
+			if ( length > maxCodeLength_ ) { // the tree is too deep
+				canonicalCode =
+				    new CanonicalCode(LengthLimitedCode.lengths(frequencies,
+				                                                maxCodeLength_));
+				break;
+			}
+		}
+		long[] codes = canonicalCode.getCodes();
+		int[] lengths = canonicalCode.getLengths();
+
+		if ( interleaved_ && end - start >= MIN_INTERLEAVED_LENGTH ) {
+			return encodeInterleaved(data,canonicalCode,metrics,time);
+		}
+		long bits = canonicalCode.getHeaderBits();
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			bits += (long) frequencies[symbol] * lengths[symbol];
+		}
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.BUILD,time);
+		}
+		if ( (bits + 7) / 8 >= end - start ) { // the code is too close to 8 bits
+			return store(data,metrics,time);
+		}
+		type_ = HuffConstants.BLOCK_HUFFMAN;
+		payloadLength_ = (int) ((bits + 7) / 8); // the exact size of the payload
+		if ( payload_.length < payloadLength_ ) {
+			payload_ = new byte[payloadLength_];
+		}
+
+		BitWriter outputStream = new BitWriter(payload_,0);
+		canonicalCode.write(outputStream);
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.HEADER,time);
+		}
+		outputStream.writeSymbols(data,start,end,codes,lengths);
+		outputStream.flush();
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CODE,time);
+		}
+		return payloadLength_;
+	}
+
+	/**
+	 * Encodes a block as interleaved streams: byte i of the block goes to
+	 * stream i % INTERLEAVED_STREAMS. Each stream is padded to a whole byte, so
+	 * the jump table can give its length in bytes.
+	 *
+	 * @param data
+	 *          buffer holding the block between its position and limit
+	 * @param canonicalCode
+	 *          the block's code
+	 * @param metrics
+	 *          where to add the time of each stage, or null
+	 * @param time
+	 *          when the current stage started, if metrics is not null
+	 * @return the length of the payload
+	 * @throws IOException
+	 */
+	private int encodeInterleaved ( ByteBuffer data, CanonicalCode canonicalCode,
+	                                HuffMetrics metrics, long time )
+	    throws IOException {
+		int start = data.position();
+		int end = data.limit();
+		long[] codes = canonicalCode.getCodes();
+		int[] lengths = canonicalCode.getLengths();
+		int streams = HuffConstants.INTERLEAVED_STREAMS;
+		long size = (canonicalCode.getHeaderBits() + 7) / 8
+		    + HuffConstants.JUMP_TABLE_SIZE;
+		for ( int stream = 0 ; stream < streams ; stream++ ) {
+			long bits = 0;
+			for ( int i = start + stream ; i < end ; i += streams ) {
+				bits += lengths[data.get(i) & 0xFF];
+			}
+			streamLengths_[stream] = (int) ((bits + 7) / 8);
+			size += streamLengths_[stream];
+		}
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.BUILD,time);
+		}
+		if ( size >= end - start ) { // the code is too close to 8 bits
+			return store(data,metrics,time);
+		}
+		type_ = HuffConstants.BLOCK_INTERLEAVED;
+		payloadLength_ = (int) size;
+		if ( payload_.length < payloadLength_ ) {
+			payload_ = new byte[payloadLength_];
+		}
+
+		BitWriter outputStream = new BitWriter(payload_,0);
+		canonicalCode.write(outputStream);
+		outputStream.flush();
+		int position = outputStream.getPosition();
+		for ( int stream = 0 ; stream < streams - 1 ; stream++ ) {
+			int length = streamLengths_[stream];
+			for ( int i = 0 ; i < 4 ; i++ ) {
+				payload_[position++] = (byte) (length >>> (24 - 8 * i));
+			}
+		}
+		if ( metrics != null ) {
+			time = metrics.time(HuffMetrics.HEADER,time);
+		}
+		for ( int stream = 0 ; stream < streams ; stream++ ) {
+			outputStream = new BitWriter(payload_,position);
+			outputStream.writeSymbols(data,start + stream,end,streams,codes,lengths);
+			outputStream.flush();
+			position += streamLengths_[stream];
+		}
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CODE,time);
+		}
+		return payloadLength_;
+	}
+
+	/**
+	 * Stores a block as it is
+	 *
+	 * @param data
+	 *          buffer holding the block between its position and limit
+	 * @param metrics
+	 *          where to add the time of the copy, or null
+	 * @param time
+	 *          when the copy starts, if metrics is not null
+	 * @return the length of the payload
+	 */
+	private int store ( ByteBuffer data, HuffMetrics metrics, long time ) {
+		type_ = HuffConstants.BLOCK_STORED;
+		payloadLength_ = data.remaining();
+		if ( payload_.length < payloadLength_ ) {
+			payload_ = new byte[payloadLength_];
+		}
+		data.duplicate().get(payload_,0,payloadLength_);
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.CODE,time);
+		}
+		return payloadLength_;
+	}
+
+	/**
+	 * Checks if coding a block could make it smaller, using the block's entropy
+	 * as the least number of bits any code could spend on it. This is cheaper
+	 * than building the code, and is enough to catch blocks that are random or
+	 * already compressed.
+	 *
+	 * @param frequencies
+	 *          how often each byte value occurs in the block
+	 * @param length
+	 *          number of bytes in the block
+	 * @return false if even the best code and its lengths would take at least
+	 *         as many bytes as the block
+	 */
+	private static boolean worthCoding ( int[] frequencies, int length ) {
+		int used = 0;
+		for ( int frequency : frequencies ) {
+			if ( frequency > 0 ) {
+				used++;
+			}
+		}
+		long headerBits = HuffConstants.BLOCK_ALPHABET_SIZE + (long) used
+		    * HuffConstants.CODE_LENGTH_BITS;
+		if ( headerBits >= 8L * length ) { // a tiny block
+			return false;
+		}
+		return headerBits + entropyBits(frequencies,length) < 8.0 * length;
+	}
+
+	/**
+	 * Works out the entropy of a block, the least number of bits any code for
+	 * its bytes, taken one at a time, could spend on them
+	 *
+	 * @param frequencies
+	 *          how often each byte value occurs in the block
+	 * @param length
+	 *          number of bytes in the block
+	 * @return the entropy in bits
+	 */
+	static double entropyBits ( int[] frequencies, int length ) {
+		double sum = 0; // the sum of f * ln(f)
+		for ( int frequency : frequencies ) {
+			if ( frequency > 0 ) {
+				sum += frequency * Math.log(frequency);
+			}
+		}
+		return (length * Math.log(length) - sum) / Math.log(2);
+	}
+
+	/**
+	 * Gets the payload of the last block encoded
+	 *
+	 * @return an array whose first getPayloadLength() bytes are the payload
+	 */
+	public byte[] getPayload () {
+		return payload_;
+	}
+
+	/**
+	 * Gets the length of the last block's payload
+	 *
+	 * @return the number of bytes in the payload
+	 */
+	public int getPayloadLength () {
+		return payloadLength_;
+	}
+
+	/**
+	 * Gets the block type of the last payload
+	 *
+	 * @return BLOCK_HUFFMAN, BLOCK_TABLE, BLOCK_STORED or BLOCK_INTERLEAVED
+	 */
+	public int getType () {
+		return type_;
+	}
+
+	/**
+	 * Gets the checksum of the last block encoded
+	 *
+	 * @return the CRC-32C of the block's bytes
+	 */
+	public int getChecksum () {
+		return checksum_;
+	}
+
+	/**
+	 * Checks that a code length limit can be used for blocks
+	 *
+	 * @param maxCodeLength
+	 *          the limit
+	 * @throws IllegalArgumentException
+	 *           if 256 symbols do not fit in codes that long, or codes that long
+	 *           cannot be stored
+	 */
+	public static void checkMaxCodeLength ( int maxCodeLength ) {
+		if ( maxCodeLength < HuffConstants.BITS_PER_CHARACTER
+		    || maxCodeLength > CanonicalCode.MAX_CODE_LENGTH ) {
+			throw new IllegalArgumentException("Code length limit must be between "
+			    + HuffConstants.BITS_PER_CHARACTER + " and "
+			    + CanonicalCode.MAX_CODE_LENGTH);
+		}
+	}
+
+	/**
+	 * Gets the largest payload a block can have in a stream being read. Blocks
+	 * are stored when coding would not make them smaller, so payloads written
+	 * now are never longer than their blocks, but streams written before
+	 * stored blocks existed can have a Huffman payload as long as the block
+	 * plus its code lengths.
+	 *
+	 * @param length
+	 *          number of bytes in the block
+	 * @return the largest possible payload length
+	 */
+	public static int maxPayloadLength ( int length ) {
+		return length + (HuffConstants.BLOCK_ALPHABET_SIZE
+		    * (1 + HuffConstants.CODE_LENGTH_BITS) + 7) / 8;
+	}
+
+	/**
+	 * Builds a Huffman coding tree. The tree is the canonical form of the code,
+	 * so the same frequencies always give the same tree.
+	 *
+	 * @param frequencies
+	 *          how often each symbol occurs
+	 * @return the coding tree for the symbols that occur at least once
+	 */
+	public static CodingTree buildCodingTree ( int[] frequencies ) {
+		return new CanonicalCode(HuffmanCode.lengths(frequencies)).getCodingTree();
+	}
+}
@@ -0,0 +1,372 @@
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The index at the end of a block-format stream. It records where each block
+ * starts in the compressed stream and how big it is before and after
+ * compression, so blocks can be found and decoded independently.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class BlockIndex {
+	private long[] offsets_; // where each block starts in the compressed stream
+	private int[] payloadLengths_; // each block's payload length
+	private int[] lengths_; // each block's uncompressed length
+	private long[] positions_; // where each block starts in the uncompressed
+	                           // data, plus the total length at the end
+	private int count_; // number of blocks
+	private boolean checksums_; // true if the blocks and stream have checksums
+	private int checksum_; // the CRC-32C of the whole uncompressed stream
+
+	public BlockIndex () {
+		offsets_ = new long[16];
+		payloadLengths_ = new int[16];
+		lengths_ = new int[16];
+		positions_ = new long[17];
+	}
+
+	/**
+	 * Adds an entry for the next block
+	 *
+	 * @param offset
+	 *          where the block starts in the compressed stream
+	 * @param payloadLength
+	 *          number of bytes in the block's payload
+	 * @param length
+	 *          number of uncompressed bytes in the block
+	 */
+	public void add ( long offset, int payloadLength, int length ) {
+		if ( count_ == offsets_.length ) {
+			offsets_ = Arrays.copyOf(offsets_,count_ * 2);
+			payloadLengths_ = Arrays.copyOf(payloadLengths_,count_ * 2);
+			lengths_ = Arrays.copyOf(lengths_,count_ * 2);
+			positions_ = Arrays.copyOf(positions_,count_ * 2 + 1);
+		}
+		offsets_[count_] = offset;
+		payloadLengths_[count_] = payloadLength;
+		lengths_[count_] = length;
+		positions_[count_ + 1] = positions_[count_] + length;
+		count_++;
+	}
+
+	/**
+	 * Removes every entry so the index can be filled again
+	 */
+	public void clear () {
+		count_ = 0;
+		checksums_ = false;
+		checksum_ = 0;
+	}
+
+	/**
+	 * Gets the number of blocks
+	 *
+	 * @return the number of blocks
+	 */
+	public int getBlockCount () {
+		return count_;
+	}
+
+	/**
+	 * Gets where a block starts in the compressed stream
+	 *
+	 * @param block
+	 *          the block's number
+	 * @return the offset of the block's type byte
+	 */
+	public long getOffset ( int block ) {
+		return offsets_[block];
+	}
+
+	/**
+	 * Gets the length of a block's payload
+	 *
+	 * @param block
+	 *          the block's number
+	 * @return the number of bytes in the payload
+	 */
+	public int getPayloadLength ( int block ) {
+		return payloadLengths_[block];
+	}
+
+	/**
+	 * Gets the uncompressed length of a block
+	 *
+	 * @param block
+	 *          the block's number
+	 * @return the number of uncompressed bytes in the block
+	 */
+	public int getLength ( int block ) {
+		return lengths_[block];
+	}
+
+	/**
+	 * Gets where a block starts in the uncompressed data
+	 *
+	 * @param block
+	 *          the block's number
+	 * @return the offset of the block's first uncompressed byte
+	 */
+	public long getPosition ( int block ) {
+		return positions_[block];
+	}
+
+	/**
+	 * Gets the length of the uncompressed data
+	 *
+	 * @return the total of the blocks' uncompressed lengths
+	 */
+	public long getUncompressedLength () {
+		return positions_[count_];
+	}
+
+	/**
+	 * Checks if the blocks and the stream have checksums
+	 *
+	 * @return true if each block is followed by its checksum
+	 */
+	public boolean hasChecksums () {
+		return checksums_;
+	}
+
+	/**
+	 * Gets the checksum of the whole stream. Only set if hasChecksums().
+	 *
+	 * @return the CRC-32C of the uncompressed data
+	 */
+	public int getChecksum () {
+		return checksum_;
+	}
+
+	/**
+	 * Finds the block that holds a byte of the uncompressed data
+	 *
+	 * @param position
+	 *          offset in the uncompressed data, less than getUncompressedLength()
+	 * @return the number of the block that holds it
+	 */
+	public int findBlock ( long position ) {
+		int low = 0;
+		int high = count_ - 1;
+		while ( low < high ) { // finds the last block starting at or before
+		                       // position
+			int middle = (low + high + 1) >>> 1;
+			if ( positions_[middle] <= position ) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Writes the index and its trailer
+	 *
+	 * @param outputStream
+	 *          the compressed stream
+	 * @param indexOffset
+	 *          where the index starts in the compressed stream
+	 * @throws IOException
+	 */
+	public void write ( DataOutputStream outputStream, long indexOffset )
+	    throws IOException {
+		for ( int block = 0 ; block < count_ ; block++ ) {
+			outputStream.writeLong(offsets_[block]);
+			outputStream.writeInt(payloadLengths_[block]);
+			outputStream.writeInt(lengths_[block]);
+		}
+		outputStream.writeInt(count_);
+		outputStream.writeLong(indexOffset);
+		outputStream.writeInt(HuffConstants.MAGIC_WORD);
+	}
+
+	/**
+	 * Writes the index and its trailer into a buffer, starting at its position,
+	 * which is moved past them
+	 *
+	 * @param buffer
+	 *          a big-endian buffer holding the compressed stream
+	 * @param indexOffset
+	 *          where the index starts in the compressed stream
+	 * @throws java.nio.BufferOverflowException
+	 *           if the buffer is too small
+	 */
+	public void write ( ByteBuffer buffer, long indexOffset ) {
+		for ( int block = 0 ; block < count_ ; block++ ) {
+			buffer.putLong(offsets_[block]);
+			buffer.putInt(payloadLengths_[block]);
+			buffer.putInt(lengths_[block]);
+		}
+		buffer.putInt(count_);
+		buffer.putLong(indexOffset);
+		buffer.putInt(HuffConstants.MAGIC_WORD);
+	}
+
+	/**
+	 * Reads the index from the end of a compressed file
+	 *
+	 * @param channel
+	 *          the compressed file
+	 * @return the index, or null if the file is not in the block format or has
+	 *         no index
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the index is corrupt
+	 */
+	public static BlockIndex read ( FileChannel channel ) throws IOException {
+		long size = channel.size();
+		if ( size < HuffConstants.STREAM_HEADER_SIZE + 1
+		    + HuffConstants.INDEX_TRAILER_SIZE ) {
+			return null;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HuffConstants.STREAM_HEADER_SIZE);
+		readFully(channel,header,0);
+		if ( header.getInt(0) != HuffConstants.MAGIC_WORD
+		    || (header.get(4) & 0xFF) != (HuffConstants.VERSION_FLAG
+		        | HuffConstants.FORMAT_BLOCKS)
+		    || (header.get(5) & HuffConstants.FLAG_INDEX) == 0 ) {
+			return null;
+		}
+
+		ByteBuffer trailer = ByteBuffer.allocate(HuffConstants.INDEX_TRAILER_SIZE);
+		readFully(channel,trailer,size - HuffConstants.INDEX_TRAILER_SIZE);
+		int count = trailer.getInt(0);
+		long indexOffset = trailer.getLong(4);
+		if ( trailer.getInt(12) != HuffConstants.MAGIC_WORD || count < 0
+		    || indexOffset < HuffConstants.STREAM_HEADER_SIZE
+		    || indexOffset + (long) count * HuffConstants.INDEX_ENTRY_SIZE
+		        + HuffConstants.INDEX_TRAILER_SIZE != size ) {
+			throw new IllegalArgumentException("Corrupt block index");
+		}
+
+		BlockIndex index = new BlockIndex();
+		int checksumSize = 0; // bytes after each block's payload
+		if ( (header.get(5) & HuffConstants.FLAG_CHECKSUM) != 0 ) {
+			if ( indexOffset < HuffConstants.STREAM_HEADER_SIZE + 1
+			    + HuffConstants.CHECKSUM_SIZE ) {
+				throw new IllegalArgumentException("Corrupt block index");
+			}
+			ByteBuffer checksum = ByteBuffer.allocate(HuffConstants.CHECKSUM_SIZE);
+			readFully(channel,checksum,indexOffset - HuffConstants.CHECKSUM_SIZE);
+			index.checksums_ = true;
+			index.checksum_ = checksum.getInt(0); // just before the index
+			checksumSize = HuffConstants.CHECKSUM_SIZE;
+		}
+
+		ByteBuffer entries =
+		    ByteBuffer.allocate(count * HuffConstants.INDEX_ENTRY_SIZE);
+		readFully(channel,entries,indexOffset);
+		entries.flip();
+		for ( int block = 0 ; block < count ; block++ ) {
+			long offset = entries.getLong();
+			int payloadLength = entries.getInt();
+			int length = entries.getInt();
+			if ( offset < HuffConstants.STREAM_HEADER_SIZE || payloadLength < 1
+			    || offset + HuffConstants.BLOCK_HEADER_SIZE + payloadLength
+			        + checksumSize > indexOffset
+			    || length < 1 || length > HuffConstants.MAX_BLOCK_SIZE ) {
+				throw new IllegalArgumentException("Corrupt block index");
+			}
+			index.add(offset,payloadLength,length);
+		}
+		return index;
+	}
+
+	/**
+	 * Gets the index of a compressed file, reading it from the end of the file
+	 * or, for a file written without one, building it from the block headers
+	 *
+	 * @param channel
+	 *          the compressed file
+	 * @return the index, or null if the file is not in the block format
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the index or a block header is corrupt
+	 */
+	public static BlockIndex load ( FileChannel channel ) throws IOException {
+		BlockIndex index = read(channel);
+		return index != null ? index : scan(channel);
+	}
+
+	/**
+	 * Builds the index of a compressed file by skipping from block header to
+	 * block header, so no payload is read. Streams that fit in one block are
+	 * written without an index, which would only repeat the block's header.
+	 *
+	 * @param channel
+	 *          the compressed file
+	 * @return the index, or null if the file is not in the block format
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if a block header is corrupt
+	 */
+	public static BlockIndex scan ( FileChannel channel ) throws IOException {
+		if ( channel.size() < HuffConstants.STREAM_HEADER_SIZE + 1 ) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HuffConstants.STREAM_HEADER_SIZE);
+		readFully(channel,header,0);
+		if ( header.getInt(0) != HuffConstants.MAGIC_WORD
+		    || (header.get(4) & 0xFF) != (HuffConstants.VERSION_FLAG
+		        | HuffConstants.FORMAT_BLOCKS) ) {
+			return null;
+		}
+		int flags = header.get(5) & 0xFF;
+		HuffCodec.checkFlags(flags);
+		boolean checksums = (flags & HuffConstants.FLAG_CHECKSUM) != 0;
+		int checksumSize = checksums ? HuffConstants.CHECKSUM_SIZE : 0;
+
+		BlockIndex index = new BlockIndex();
+		long offset = HuffConstants.STREAM_HEADER_SIZE;
+		ByteBuffer blockHeader = ByteBuffer.allocate(HuffConstants.BLOCK_HEADER_SIZE);
+		while ( true ) {
+			blockHeader.clear().limit(1);
+			readFully(channel,blockHeader,offset);
+			if ( blockHeader.get(0) == HuffConstants.BLOCK_END ) {
+				break;
+			}
+			blockHeader.limit(HuffConstants.BLOCK_HEADER_SIZE);
+			readFully(channel,blockHeader,offset + 1);
+			int length = blockHeader.getInt(1);
+			int payloadLength = blockHeader.getInt(5);
+			HuffCodec.checkBlockHeader(length,payloadLength);
+			index.add(offset,payloadLength,length);
+			offset += HuffConstants.BLOCK_HEADER_SIZE + payloadLength + checksumSize;
+		}
+		if ( checksums ) { // the stream's checksum follows the end marker
+			ByteBuffer checksum = ByteBuffer.allocate(HuffConstants.CHECKSUM_SIZE);
+			readFully(channel,checksum,offset + 1);
+			index.checksums_ = true;
+			index.checksum_ = checksum.getInt(0);
+		}
+		return index;
+	}
+
+	/**
+	 * Fills a buffer from a file, starting at a given position
+	 *
+	 * @param channel
+	 *          the file
+	 * @param buffer
+	 *          the buffer to fill
+	 * @param position
+	 *          where in the file to start reading
+	 * @throws IOException
+	 */
+	public static void readFully ( FileChannel channel, ByteBuffer buffer,
+	                               long position ) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			int read = channel.read(buffer,position);
+			if ( read < 0 ) {
+				throw new EOFException("Unexpected end of compressed file");
+			}
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a compressed stream in the block format: the magic number, the
+ * format version and flags, then one entry per block with its checksum, then
+ * an end marker followed by the checksum of the whole stream and the block
+ * index.
+ *
+ * A writer can also be opened on an existing compressed file to append blocks
+ * to it. The blocks already there are left as they are; only the end marker,
+ * the stream checksum and the index after them are written again.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class BlockStreamWriter {
+	private static final int BUFFER_SIZE = 1 << 16; // bytes buffered before
+	                                                // the stream is written
+
+	private final DataOutputStream outputStream_; // the compressed stream
+	private final BufferedOutputStream buffer_; // under outputStream_; takes
+	                                            // the payloads, since
+	                                            // DataOutputStream.write holds
+	                                            // a monitor that pins virtual
+	                                            // threads while it blocks
+	private final BlockIndex index_; // where each block was written
+	private long position_; // number of bytes written so far
+	private int checksum_; // the CRC-32C of the uncompressed data so far
+	private final boolean checksums_; // writes the checksums, which a stream
+	                                  // being appended to may not have
+
+	/**
+	 * Writes the stream header
+	 *
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @throws IOException
+	 */
+	public BlockStreamWriter ( OutputStream outputStream ) throws IOException {
+		buffer_ = new BufferedOutputStream(outputStream,BUFFER_SIZE);
+		outputStream_ = new DataOutputStream(buffer_);
+		outputStream_.writeInt(HuffConstants.MAGIC_WORD); // writes the magic number
+		outputStream_.writeByte(HuffConstants.VERSION_FLAG
+		    | HuffConstants.FORMAT_BLOCKS); // writes the format version
+		outputStream_.writeByte(HuffConstants.FLAG_INDEX
+		    | HuffConstants.FLAG_CHECKSUM); // says that an index follows the
+		                                    // blocks and that they have checksums
+		index_ = new BlockIndex();
+		position_ = HuffConstants.STREAM_HEADER_SIZE;
+		checksums_ = true;
+	}
+
+	/**
+	 * Carries on a stream that already has blocks
+	 *
+	 * @param outputStream
+	 *          the stream, positioned where the end marker was
+	 * @param index
+	 *          the blocks already in the stream
+	 * @param position
+	 *          where the end marker was
+	 * @param checksum
+	 *          the CRC-32C of the uncompressed data already in the stream
+	 * @param checksums
+	 *          true if the stream has checksums
+	 */
+	private BlockStreamWriter ( OutputStream outputStream, BlockIndex index,
+	                            long position, int checksum, boolean checksums ) {
+		buffer_ = new BufferedOutputStream(outputStream,BUFFER_SIZE);
+		outputStream_ = new DataOutputStream(buffer_);
+		index_ = index;
+		position_ = position;
+		checksum_ = checksum;
+		checksums_ = checksums;
+	}
+
+	/**
+	 * Opens a compressed file to append blocks to it. The end of the blocks is
+	 * found from the block index, or by skipping from block header to block
+	 * header if the file has none, so no payload is read. The file is given an
+	 * index if it had none, and the channel is left where the next block goes.
+	 * An empty file gets a new stream header.
+	 *
+	 * @param channel
+	 *          the compressed file, open for reading and writing
+	 * @return the writer
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the file is not in the block format or is corrupt
+	 */
+	public static BlockStreamWriter append ( FileChannel channel )
+	    throws IOException {
+		long size = channel.size();
+		if ( size == 0 ) {
+			channel.position(0);
+			return new BlockStreamWriter(Channels.newOutputStream(channel));
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HuffConstants.STREAM_HEADER_SIZE);
+		if ( size < HuffConstants.STREAM_HEADER_SIZE + 1 ) {
+			throw new IllegalArgumentException("Please enter a file that has already been compressed");
+		}
+		BlockIndex.readFully(channel,header,0);
+		if ( header.getInt(0) != HuffConstants.MAGIC_WORD ) {
+			throw new IllegalArgumentException("Please enter a file that has already been compressed");
+		}
+		if ( (header.get(4) & 0xFF) != (HuffConstants.VERSION_FLAG
+		    | HuffConstants.FORMAT_BLOCKS) ) {
+			throw new IllegalArgumentException("Only the block format can be appended to");
+		}
+		int flags = header.get(5) & 0xFF;
+		HuffCodec.checkFlags(flags);
+		boolean checksums = (flags & HuffConstants.FLAG_CHECKSUM) != 0;
+		int checksumSize = checksums ? HuffConstants.CHECKSUM_SIZE : 0;
+
+		BlockIndex index;
+		long tail; // where the stream would end without an index
+		if ( (flags & HuffConstants.FLAG_INDEX) != 0 ) {
+			index = BlockIndex.read(channel);
+			if ( index == null ) { // too short to hold the index it claims
+				throw new IllegalArgumentException("Corrupt block index");
+			}
+			tail = size - HuffConstants.INDEX_TRAILER_SIZE
+			    - (long) index.getBlockCount() * HuffConstants.INDEX_ENTRY_SIZE;
+		} else {
+			index = BlockIndex.scan(channel);
+			tail = size;
+		}
+		int count = index.getBlockCount();
+		long end; // where the end marker is, just after the last block
+		end = count == 0 ? HuffConstants.STREAM_HEADER_SIZE
+		    : index.getOffset(count - 1) + HuffConstants.BLOCK_HEADER_SIZE
+		        + index.getPayloadLength(count - 1) + checksumSize;
+
+		ByteBuffer marker = ByteBuffer.allocate(1 + checksumSize);
+		if ( end + 1 + checksumSize != tail ) {
+			throw new IllegalArgumentException("Corrupt compressed data: blocks do not end where the index starts");
+		}
+		BlockIndex.readFully(channel,marker,end);
+		if ( marker.get(0) != HuffConstants.BLOCK_END ) {
+			throw new IllegalArgumentException("Corrupt compressed data: missing end marker");
+		}
+		if ( (flags & HuffConstants.FLAG_INDEX) == 0 ) {
+			// finish() writes an index, so the header has to say so
+			header.put(5,(byte) (flags | HuffConstants.FLAG_INDEX)).position(5);
+			channel.write(header,5);
+		}
+		channel.position(end);
+		return new BlockStreamWriter(Channels.newOutputStream(channel),index,end,
+		                             checksums ? marker.getInt(1) : 0,checksums);
+	}
+
+	/**
+	 * Gets where the next block will be written in the compressed stream
+	 *
+	 * @return the number of bytes before it
+	 */
+	public long getPosition () {
+		return position_;
+	}
+
+	/**
+	 * Writes one block
+	 *
+	 * @param type
+	 *          the block type
+	 * @param length
+	 *          number of uncompressed bytes in the block
+	 * @param checksum
+	 *          the CRC-32C of the block's uncompressed bytes
+	 * @param payload
+	 *          array holding the block's payload
+	 * @param payloadLength
+	 *          number of bytes in the payload
+	 * @throws IOException
+	 */
+	public void writeBlock ( int type, int length, int checksum, byte[] payload,
+	                         int payloadLength ) throws IOException {
+		outputStream_.writeByte(type);
+		outputStream_.writeInt(length);
+		outputStream_.writeInt(payloadLength);
+		buffer_.write(payload,0,payloadLength);
+		if ( checksums_ ) {
+			outputStream_.writeInt(checksum);
+		}
+		index_.add(position_,payloadLength,length);
+		position_ += HuffConstants.BLOCK_HEADER_SIZE + payloadLength
+		    + (checksums_ ? HuffConstants.CHECKSUM_SIZE : 0);
+		checksum_ = Crc32c.combine(checksum_,checksum,length);
+	}
+
+	/**
+	 * Writes the end marker, the stream's checksum and the block index and
+	 * flushes the stream, which is left open
+	 *
+	 * @throws IOException
+	 */
+	public void finish () throws IOException {
+		outputStream_.writeByte(HuffConstants.BLOCK_END);
+		if ( checksums_ ) {
+			outputStream_.writeInt(checksum_);
+		}
+		index_.write(outputStream_,position_ + 1
+		    + (checksums_ ? HuffConstants.CHECKSUM_SIZE : 0));
+		outputStream_.flush();
+	}
+}
@@ -0,0 +1,220 @@
+import java.io.IOException;
+
+/**
+ * A prefix code described only by the length of each symbol's code. Codes are
+ * assigned canonically: shorter codes come first, and codes of the same length
+ * are given out in symbol order. The compressor and decompressor both derive
+ * the same codes from the lengths, so only the lengths need to be stored.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class CanonicalCode {
+	/**
+	 * Longest code that can be stored in a header.
+	 */
+	public static final int MAX_CODE_LENGTH =
+	    (1 << HuffConstants.CODE_LENGTH_BITS) - 1;
+
+	private final int[] lengths_; // code length of each symbol, 0 if unused
+	private final long[] codes_; // code of each symbol, right-aligned
+
+	/**
+	 * @param lengths
+	 *          the code length of each symbol, 0 for symbols that are not used
+	 */
+	public CanonicalCode ( int[] lengths ) {
+		lengths_ = lengths.clone();
+		codes_ = assignCodes(lengths_);
+	}
+
+	/**
+	 * Takes the code lengths from the depth of each leaf in a coding tree
+	 *
+	 * @param codingTree
+	 *          a coding tree whose characters are all less than alphabetSize
+	 * @param alphabetSize
+	 *          number of symbols
+	 */
+	public CanonicalCode ( CodingTree codingTree, int alphabetSize ) {
+		lengths_ = new int[alphabetSize];
+		codingTree.getEncodings(new long[alphabetSize],lengths_);
+		int used = 0;
+		for ( int symbol = 0 ; symbol < alphabetSize ; symbol++ ) {
+			if ( lengths_[symbol] > 0 ) {
+				used++;
+			}
+		}
+		if ( used == 0 ) { // a tree with a single leaf still needs a 1-bit code
+			for ( char character : codingTree.getEncodings().keySet() ) {
+				lengths_[character] = 1;
+			}
+		}
+		codes_ = assignCodes(lengths_);
+	}
+
+	/**
+	 * Reads the code lengths from a header
+	 *
+	 * @param inputStream
+	 *          bit reader positioned at the header
+	 * @param alphabetSize
+	 *          number of symbols
+	 * @throws IOException
+	 */
+	public CanonicalCode ( BitReader inputStream, int alphabetSize )
+	    throws IOException {
+		lengths_ = new int[alphabetSize];
+		for ( int symbol = 0 ; symbol < alphabetSize ; symbol++ ) {
+			if ( inputStream.readBits(1) == 1 ) { // the symbol is used
+				lengths_[symbol] =
+				    inputStream.readBits(HuffConstants.CODE_LENGTH_BITS);
+				if ( lengths_[symbol] == 0 ) {
+					throw new IllegalArgumentException("Corrupt code length header");
+				}
+			}
+		}
+		codes_ = assignCodes(lengths_);
+	}
+
+	/**
+	 * Writes the code lengths as a header: one bit per symbol saying whether it
+	 * is used, followed by the code length of each used symbol. The header never
+	 * takes more than alphabetSize * (1 + CODE_LENGTH_BITS) bits, whatever the
+	 * shape of the tree.
+	 *
+	 * @param outputStream
+	 *          stream that the header is written to
+	 * @throws IOException
+	 */
+	public void write ( BitWriter outputStream ) throws IOException {
+		for ( int symbol = 0 ; symbol < lengths_.length ; symbol++ ) {
+			if ( lengths_[symbol] > 0 ) {
+				outputStream.writeBits(1,1);
+				outputStream.writeBits(lengths_[symbol],
+				                       HuffConstants.CODE_LENGTH_BITS);
+			} else {
+				outputStream.writeBits(0,1);
+			}
+		}
+	}
+
+	/**
+	 * Gets the size of the header that write produces
+	 *
+	 * @return the number of bits in the header
+	 */
+	public int getHeaderBits () {
+		int bits = lengths_.length;
+		for ( int symbol = 0 ; symbol < lengths_.length ; symbol++ ) {
+			if ( lengths_[symbol] > 0 ) {
+				bits += HuffConstants.CODE_LENGTH_BITS;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Gets the code of each symbol
+	 *
+	 * @return codes indexed by symbol, right-aligned
+	 */
+	public long[] getCodes () {
+		return codes_;
+	}
+
+	/**
+	 * Gets the code length of each symbol
+	 *
+	 * @return lengths indexed by symbol, 0 for unused symbols
+	 */
+	public int[] getLengths () {
+		return lengths_;
+	}
+
+	/**
+	 * Builds the coding tree for this code, with one trie node per node of the
+	 * tree
+	 *
+	 * @return a coding tree whose leaves are the used symbols
+	 */
+	public CodingTree getCodingTree () {
+		Trie<BitString,Character> characterTree = new Trie<BitString,Character>();
+		for ( int symbol = 0 ; symbol < lengths_.length ; symbol++ ) {
+			int length = lengths_[symbol];
+			if ( length == 0 ) {
+				continue;
+			}
+			Node<Character> node = characterTree.getRoot();
+			for ( int bit = length - 1 ; bit > 0 ; bit-- ) { // walks the path,
+			                                                 // adding the nodes
+			                                                 // it is missing
+				BitString step =
+				    ((codes_[symbol] >>> bit) & 1) == 0 ? BitString.ZERO : BitString.ONE;
+				Node<Character> child = characterTree.getChild(node,step);
+				if ( child == null ) {
+					Trie<BitString,Character> subtree = new Trie<BitString,Character>();
+					characterTree.attach(node,subtree,step);
+					child = subtree.getRoot();
+				}
+				node = child;
+			}
+			characterTree.attach(node,new Trie<BitString,Character>((char) symbol),
+			                     (codes_[symbol] & 1) == 0 ? BitString.ZERO
+			                         : BitString.ONE);
+		}
+		return new CodingTree(characterTree);
+	}
+
+	/**
+	 * Builds a table decoder for this code
+	 *
+	 * @param eofSymbol
+	 *          the symbol that ends the stream, or -1 if there is none
+	 * @return a decoder for streams written with this code
+	 */
+	public TableDecoder getDecoder ( int eofSymbol ) {
+		return new TableDecoder(codes_,lengths_,eofSymbol);
+	}
+
+	/**
+	 * Assigns canonical codes from code lengths
+	 *
+	 * @param lengths
+	 *          the code length of each symbol
+	 * @return the code of each symbol
+	 * @throws IllegalArgumentException
+	 *           if the lengths are too long or do not describe a prefix code
+	 */
+	private static long[] assignCodes ( int[] lengths ) {
+		int[] count = new int[MAX_CODE_LENGTH + 1]; // number of codes of each
+		                                            // length
+		for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+			if ( lengths[symbol] < 0 || lengths[symbol] > MAX_CODE_LENGTH ) {
+				throw new IllegalArgumentException("Code length " + lengths[symbol]
+				    + " is out of range");
+			}
+			count[lengths[symbol]]++;
+		}
+		count[0] = 0;
+
+		long[] next = new long[MAX_CODE_LENGTH + 1]; // next code of each length
+		long code = 0;
+		long left = 1; // codes of the current length not yet given out
+		for ( int length = 1 ; length <= MAX_CODE_LENGTH ; length++ ) {
+			code = (code + count[length - 1]) << 1;
+			next[length] = code;
+			left = Math.min(left << 1,Integer.MAX_VALUE) - count[length];
+			if ( left < 0 ) {
+				throw new IllegalArgumentException("Code lengths do not form a prefix code");
+			}
+		}
+
+		long[] codes = new long[lengths.length];
+		for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+			if ( lengths[symbol] > 0 ) {
+				codes[symbol] = next[lengths[symbol]]++;
+			}
+		}
+		return codes;
+	}
+}
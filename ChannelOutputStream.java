@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An output stream that collects bytes in a large page-aligned direct buffer
+ * and writes it to a file channel in big chunks. Callers that can produce
+ * their output in place, such as a block decoder, can reserve space in the
+ * buffer and write into it directly instead of going through an array.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class ChannelOutputStream extends OutputStream {
+	/**
+	 * Alignment of the buffer in memory, the size of a typical page.
+	 */
+	public static final int ALIGNMENT = 4096;
+
+	private final FileChannel channel_; // the file that is written to
+	private ByteBuffer buffer_; // bytes waiting to be written
+
+	/**
+	 * @param channel
+	 *          the file to write to, at its current position
+	 * @param bufferSize
+	 *          size of the buffer in bytes
+	 */
+	public ChannelOutputStream ( FileChannel channel, int bufferSize ) {
+		channel_ = channel;
+		buffer_ = allocate(bufferSize);
+	}
+
+	@Override
+	public void write ( int b ) throws IOException {
+		if ( !buffer_.hasRemaining() ) {
+			drain();
+		}
+		buffer_.put((byte) b);
+	}
+
+	@Override
+	public void write ( byte[] b, int off, int len ) throws IOException {
+		if ( len > buffer_.remaining() ) {
+			drain();
+			if ( len > buffer_.capacity() ) { // too big to be worth buffering
+				ByteBuffer wrapped = ByteBuffer.wrap(b,off,len);
+				while ( wrapped.hasRemaining() ) {
+					channel_.write(wrapped);
+				}
+				return;
+			}
+		}
+		buffer_.put(b,off,len);
+	}
+
+	/**
+	 * Makes room for bytes that the caller will put straight into the buffer
+	 *
+	 * @param length
+	 *          number of bytes needed
+	 * @return the buffer, with at least length bytes remaining after its
+	 *         position; the caller puts its bytes there and moves the position
+	 *         past them
+	 * @throws IOException
+	 */
+	public ByteBuffer reserve ( int length ) throws IOException {
+		if ( length > buffer_.remaining() ) {
+			drain();
+			if ( length > buffer_.capacity() ) {
+				buffer_ = allocate(length);
+			}
+		}
+		return buffer_;
+	}
+
+	@Override
+	public void flush () throws IOException {
+		drain();
+	}
+
+	/**
+	 * Flushes the buffer and closes the channel
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close () throws IOException {
+		drain();
+		channel_.close();
+	}
+
+	/**
+	 * Writes everything in the buffer to the channel and empties it
+	 *
+	 * @throws IOException
+	 */
+	private void drain () throws IOException {
+		buffer_.flip();
+		while ( buffer_.hasRemaining() ) {
+			channel_.write(buffer_);
+		}
+		buffer_.clear();
+	}
+
+	/**
+	 * Allocates a page-aligned direct buffer
+	 *
+	 * @param size
+	 *          size of the buffer in bytes
+	 * @return the buffer
+	 */
+	private static ByteBuffer allocate ( int size ) {
+		return ByteBuffer.allocateDirect(size + ALIGNMENT).alignedSlice(ALIGNMENT);
+	}
+}
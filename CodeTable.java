@@ -0,0 +1,225 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A code trained on sample data ahead of time, so that small blocks can refer
+ * to it by its ID instead of carrying their own code lengths. Every byte value
+ * gets a code, even ones the samples never used, so any block can be coded
+ * with any table. The ID is the CRC-32C of the code lengths, so a table always
+ * has the same ID wherever it is loaded.
+ *
+ * Tables are registered in one cache per process; the decoding tables of a
+ * registered table are built once and shared by every thread that reads a
+ * block coded with it.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class CodeTable {
+	private static final Map<Integer,CodeTable> TABLES =
+	    new ConcurrentHashMap<Integer,CodeTable>(); // registered tables by ID
+
+	private final int id_; // the table's ID
+	private final CanonicalCode code_; // the code for every byte value
+	private final TableDecoder decoder_; // decodes blocks coded with the table
+
+	/**
+	 * @param lengths
+	 *          the code length of each byte value
+	 * @throws IllegalArgumentException
+	 *           if some byte value has no code or the lengths do not describe a
+	 *           prefix code
+	 */
+	public CodeTable ( int[] lengths ) {
+		if ( lengths.length != HuffConstants.BLOCK_ALPHABET_SIZE ) {
+			throw new IllegalArgumentException("A code table needs "
+			    + HuffConstants.BLOCK_ALPHABET_SIZE + " code lengths");
+		}
+		byte[] bytes = new byte[lengths.length];
+		for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+			if ( lengths[symbol] < 1 ) {
+				throw new IllegalArgumentException("Byte value " + symbol
+				    + " has no code in the table");
+			}
+			bytes[symbol] = (byte) lengths[symbol];
+		}
+		code_ = new CanonicalCode(lengths);
+		id_ = Crc32c.of(bytes,0,bytes.length);
+		decoder_ = code_.getDecoder(-1);
+	}
+
+	/**
+	 * Trains a table on sample data
+	 *
+	 * @param samples
+	 *          the samples, which should look like the data the table is for
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 * @return the trained table
+	 */
+	public static CodeTable train ( Iterable<byte[]> samples, int maxCodeLength ) {
+		FrequencyCounter counter = new FrequencyCounter();
+		long[] frequencies = new long[HuffConstants.BLOCK_ALPHABET_SIZE];
+		for ( byte[] sample : samples ) {
+			int[] counts = counter.count(ByteBuffer.wrap(sample));
+			for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+				frequencies[symbol] += counts[symbol];
+			}
+		}
+		return train(frequencies,maxCodeLength);
+	}
+
+	/**
+	 * Trains a table on counts of sample data
+	 *
+	 * @param frequencies
+	 *          how often each byte value occurs in the samples
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 * @return the trained table
+	 */
+	public static CodeTable train ( long[] frequencies, int maxCodeLength ) {
+		BlockEncoder.checkMaxCodeLength(maxCodeLength);
+		long total = 0;
+		for ( long frequency : frequencies ) {
+			total += frequency;
+		}
+		int shift = 0;
+		while ( (total >>> shift) + frequencies.length >= Integer.MAX_VALUE ) {
+			shift++; // keeps the weights in an int for LengthLimitedCode
+		}
+
+		int[] weights = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		for ( int symbol = 0 ; symbol < weights.length ; symbol++ ) {
+			// bytes the samples never used still get a code
+			weights[symbol] = (int) (frequencies[symbol] >>> shift) + 1;
+		}
+		int[] lengths = HuffmanCode.lengths(weights);
+		for ( int length : lengths ) {
+			if ( length > maxCodeLength ) {
+				lengths = LengthLimitedCode.lengths(weights,maxCodeLength);
+				break;
+			}
+		}
+		return new CodeTable(lengths);
+	}
+
+	/**
+	 * Reads a table saved by write
+	 *
+	 * @param inputStream
+	 *          stream positioned at the table
+	 * @return the table
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the stream does not hold a table or the table is corrupt
+	 */
+	public static CodeTable read ( InputStream inputStream ) throws IOException {
+		DataInputStream dataStream = new DataInputStream(inputStream);
+		int[] lengths = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		int id;
+		try {
+			if ( dataStream.readInt() != HuffConstants.MAGIC_WORD
+			    || dataStream.readUnsignedByte() != (HuffConstants.VERSION_FLAG
+			        | HuffConstants.FORMAT_TABLE) ) {
+				throw new IllegalArgumentException("Not a code table");
+			}
+			id = dataStream.readInt();
+			for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+				lengths[symbol] = dataStream.readUnsignedByte();
+			}
+		} catch ( EOFException e ) {
+			throw new IllegalArgumentException("Code table ends early");
+		}
+		CodeTable table = new CodeTable(lengths);
+		if ( table.id_ != id ) {
+			throw new IllegalArgumentException("Corrupt code table");
+		}
+		return table;
+	}
+
+	/**
+	 * Saves the table: the magic number, the table format version, the ID, and
+	 * one byte per byte value holding its code length
+	 *
+	 * @param outputStream
+	 *          the stream to write to, which is flushed but left open
+	 * @throws IOException
+	 */
+	public void write ( OutputStream outputStream ) throws IOException {
+		DataOutputStream dataStream = new DataOutputStream(outputStream);
+		dataStream.writeInt(HuffConstants.MAGIC_WORD);
+		dataStream.writeByte(HuffConstants.VERSION_FLAG
+		    | HuffConstants.FORMAT_TABLE);
+		dataStream.writeInt(id_);
+		for ( int length : code_.getLengths() ) {
+			dataStream.writeByte(length);
+		}
+		dataStream.flush();
+	}
+
+	/**
+	 * Adds a table to the cache that decoders look tables up in. Registering a
+	 * table with the same ID again keeps the first one.
+	 *
+	 * @param table
+	 *          the table
+	 * @return the registered table with the same ID
+	 */
+	public static CodeTable register ( CodeTable table ) {
+		CodeTable registered = TABLES.putIfAbsent(table.id_,table);
+		return registered == null ? table : registered;
+	}
+
+	/**
+	 * Finds a registered table
+	 *
+	 * @param id
+	 *          the table's ID
+	 * @return the table
+	 * @throws IllegalArgumentException
+	 *           if no table with that ID has been registered
+	 */
+	public static CodeTable get ( int id ) {
+		CodeTable table = TABLES.get(id);
+		if ( table == null ) {
+			throw new IllegalArgumentException("Unknown code table "
+			    + String.format("%08x",id));
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the table's ID
+	 *
+	 * @return the CRC-32C of the code lengths
+	 */
+	public int getId () {
+		return id_;
+	}
+
+	/**
+	 * Gets the table's code
+	 *
+	 * @return the code for every byte value
+	 */
+	public CanonicalCode getCode () {
+		return code_;
+	}
+
+	/**
+	 * Gets the decoder for blocks coded with the table. The decoder only reads
+	 * its tables, so it can be used by several threads at once.
+	 *
+	 * @return the decoder
+	 */
+	public TableDecoder getDecoder () {
+		return decoder_;
+	}
+}
@@ -27,6 +27,15 @@ public class CodingTree {
 		characterTree_ = treeReader(inputStream);
 	}
 
+	/**
+	 * @param inputStream
+	 *          bit reader that the coding tree is read from
+	 * @throws IOException
+	 */
+	public CodingTree ( BitReader inputStream ) throws IOException {
+		characterTree_ = treeReader(inputStream);
+	}
+
 	/**
 	 * Reads bits from an input stream and returns a subtree
 	 * 
@@ -89,6 +98,37 @@ public class CodingTree {
 		return null;
 	}
 
+	/**
+	 * Reads bits from a bit reader and returns a subtree
+	 * 
+	 * @param inputStream
+	 *          bit reader positioned at the subtree
+	 * @return a trie containing characters and their paths
+	 * @throws IOException
+	 */
+	private Trie<BitString,Character> treeReader ( BitReader inputStream )
+	    throws IOException {
+		if ( !inputStream.hasBits(1) ) { // checks the EOF has been reached
+			return null;
+		}
+		if ( inputStream.readBits(1) == 1 ) { // if the bit is a leaf
+			char character =
+			    (char) inputStream.readBits(HuffConstants.BITS_PER_CHARACTER);
+			return new Trie<BitString,Character>(character);
+		}
+
+		Trie<BitString,Character> leftChild = treeReader(inputStream);
+		Trie<BitString,Character> rightChild = treeReader(inputStream);
+		Trie<BitString,Character> stiched = new Trie<BitString,Character>();
+		if ( leftChild != null ) {
+			stiched.attach(stiched.getRoot(),leftChild,BitString.ZERO);
+		}
+		if ( rightChild != null ) {
+			stiched.attach(stiched.getRoot(),rightChild,BitString.ONE);
+		}
+		return stiched;
+	}
+
 	/**
 	 * Writes the coding tree to an output stream
 	 * 
@@ -213,4 +253,49 @@ public class CodingTree {
 		}
 		return charMap; // returns a character map
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Stores the path to each character in primitive arrays indexed by
+	 * character, so that encoders and decoders can look codes up without boxing
+	 * 
+	 * @param codes
+	 *          array that receives each character's path, right-aligned with the
+	 *          first step in the highest bit
+	 * @param lengths
+	 *          array that receives the length of each character's path; entries
+	 *          for characters that are not in the tree are left alone
+	 */
+	public void getEncodings ( long[] codes, int[] lengths ) {
+		encoder(characterTree_,characterTree_.getRoot(),codes,lengths,0,0);
+	}
+
+	/**
+	 * Reads through a trie and stores the path to each character in arrays
+	 * 
+	 * @param characterTree
+	 *          a trie containing characters and their bit string
+	 * @param node
+	 *          the root of the subtree
+	 * @param codes
+	 *          array of paths indexed by character
+	 * @param lengths
+	 *          array of path lengths indexed by character
+	 * @param code
+	 *          the path to node
+	 * @param length
+	 *          the length of the path to node
+	 */
+	private static void encoder ( Trie<BitString,Character> characterTree,
+	                              Node<Character> node, long[] codes,
+	                              int[] lengths, long code, int length ) {
+		if ( characterTree.isLeaf(node) ) { // if the node is a leaf
+			codes[node.getElement()] = code;
+			lengths[node.getElement()] = length;
+		} else {
+			encoder(characterTree,characterTree.getChild(node,BitString.ZERO),codes,
+			        lengths,code << 1,length + 1); // moves to the left child
+			encoder(characterTree,characterTree.getChild(node,BitString.ONE),codes,
+			        lengths,(code << 1) | 1,length + 1); // moves to the right child
+		}
+	}
+}
@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC-32C checksums of uncompressed data. Besides computing a checksum, two
+ * checksums can be combined into the checksum of their data joined together,
+ * so the checksum of a whole stream can be worked out from the checksums of
+ * its blocks without reading the data again. Combining takes a few
+ * multiplications by precomputed powers of x, so it is cheap even for tiny
+ * blocks.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class Crc32c {
+	private static final int POLYNOMIAL = 0x82F63B78; // the Castagnoli
+	                                                  // polynomial, reversed
+	private static final int ONE = 1 << 31; // the polynomial 1, reflected
+	private static final int[] POWERS = new int[32]; // x^(2^n) modulo the
+	                                                 // polynomial
+
+	static {
+		int power = ONE >>> 1; // x
+		for ( int n = 0 ; n < POWERS.length ; n++ ) {
+			POWERS[n] = power;
+			power = multiply(power,power);
+		}
+	}
+
+	/**
+	 * Computes the checksum of a range of an array
+	 *
+	 * @param data
+	 *          the array
+	 * @param offset
+	 *          index of the first byte
+	 * @param length
+	 *          number of bytes
+	 * @return the checksum
+	 */
+	public static int of ( byte[] data, int offset, int length ) {
+		CRC32C crc = new CRC32C();
+		crc.update(data,offset,length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Computes the checksum of the bytes between a buffer's position and limit.
+	 * The buffer's position is not changed.
+	 *
+	 * @param data
+	 *          the buffer
+	 * @return the checksum
+	 */
+	public static int of ( ByteBuffer data ) {
+		CRC32C crc = new CRC32C();
+		crc.update(data.duplicate());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Works out the checksum of two pieces of data joined together
+	 *
+	 * @param crc1
+	 *          the checksum of the first piece
+	 * @param crc2
+	 *          the checksum of the second piece
+	 * @param length2
+	 *          number of bytes in the second piece
+	 * @return the checksum of the first piece followed by the second
+	 */
+	public static int combine ( int crc1, int crc2, long length2 ) {
+		if ( length2 <= 0 ) {
+			return crc1;
+		}
+		// crc1 is moved past length2 zero bytes by multiplying it by x^(8 *
+		// length2) modulo the polynomial; then crc2 is added in
+		int power = ONE; // x^0
+		for ( int n = 3 ; length2 != 0 ; n++, length2 >>>= 1 ) {
+			if ( (length2 & 1) != 0 ) {
+				power = multiply(POWERS[n & 31],power);
+			}
+		}
+		return multiply(power,crc1) ^ crc2;
+	}
+
+	/**
+	 * Multiplies two polynomials modulo the polynomial, with bits reflected as
+	 * they are in a checksum
+	 *
+	 * @param a
+	 *          the first polynomial
+	 * @param b
+	 *          the second polynomial
+	 * @return the product
+	 */
+	private static int multiply ( int a, int b ) {
+		int product = 0;
+		for ( int bit = ONE ; bit != 0 && a != 0 ; bit >>>= 1 ) {
+			if ( (a & bit) != 0 ) {
+				product ^= b;
+				a ^= bit;
+			}
+			b = (b & 1) != 0 ? (b >>> 1) ^ POLYNOMIAL : b >>> 1;
+		}
+		return product;
+	}
+}
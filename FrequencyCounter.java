@@ -0,0 +1,161 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts how often each byte value occurs. Runs of the same byte would make
+ * every increment wait for the one before it to be stored, so the counts are
+ * spread over several interleaved tables that are added up at the end.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class FrequencyCounter {
+	private static final int TABLES = 4; // number of interleaved tables
+	private static final int PARALLEL_CHUNK = 1 << 22; // bytes counted by one
+	                                                   // task in a parallel count
+
+	private final int[] tables_; // TABLES tables of BLOCK_ALPHABET_SIZE counts,
+	                             // one after another
+	private final int[] frequencies_; // the totals of the last count
+
+	public FrequencyCounter () {
+		tables_ = new int[TABLES * HuffConstants.BLOCK_ALPHABET_SIZE];
+		frequencies_ = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+	}
+
+	/**
+	 * Counts the bytes between a buffer's position and limit. The buffer's
+	 * position is not changed. There must be fewer than 2^31 bytes.
+	 *
+	 * @param data
+	 *          the bytes to count
+	 * @return how often each byte value occurs; the array is reused by the next
+	 *         count
+	 */
+	public int[] count ( ByteBuffer data ) {
+		int[] t = tables_;
+		Arrays.fill(t,0);
+		int i = data.position();
+		int end = data.limit();
+		if ( data.hasArray() ) {
+			byte[] array = data.array();
+			int base = data.arrayOffset();
+			countArray(array,base + i,base + end);
+		} else {
+			for ( ; i + 8 <= end ; i += 8 ) { // counts 8 bytes per word, 2 per table
+				long word = data.getLong(i);
+				t[(int) (word >>> 56)]++;
+				t[256 + ((int) (word >>> 48) & 0xFF)]++;
+				t[512 + ((int) (word >>> 40) & 0xFF)]++;
+				t[768 + ((int) (word >>> 32) & 0xFF)]++;
+				t[((int) (word >>> 24) & 0xFF)]++;
+				t[256 + ((int) (word >>> 16) & 0xFF)]++;
+				t[512 + ((int) (word >>> 8) & 0xFF)]++;
+				t[768 + ((int) word & 0xFF)]++;
+			}
+			for ( ; i < end ; i++ ) {
+				t[data.get(i) & 0xFF]++;
+			}
+		}
+
+		for ( int symbol = 0 ; symbol < frequencies_.length ; symbol++ ) {
+			frequencies_[symbol] = t[symbol] + t[256 + symbol] + t[512 + symbol]
+			    + t[768 + symbol];
+		}
+		return frequencies_;
+	}
+
+	/**
+	 * Counts a range of an array into the interleaved tables
+	 *
+	 * @param array
+	 *          the bytes to count
+	 * @param i
+	 *          index of the first byte
+	 * @param end
+	 *          index after the last byte
+	 */
+	private void countArray ( byte[] array, int i, int end ) {
+		int[] t = tables_;
+		for ( ; i + 4 <= end ; i += 4 ) {
+			t[array[i] & 0xFF]++;
+			t[256 + (array[i + 1] & 0xFF)]++;
+			t[512 + (array[i + 2] & 0xFF)]++;
+			t[768 + (array[i + 3] & 0xFF)]++;
+		}
+		for ( ; i < end ; i++ ) {
+			t[array[i] & 0xFF]++;
+		}
+	}
+
+	/**
+	 * Counts the bytes between a buffer's position and limit on a fork/join
+	 * pool. The buffer is cut into chunks that are counted independently and
+	 * the chunk totals are merged. The buffer's position is not changed.
+	 *
+	 * @param data
+	 *          the bytes to count
+	 * @param pool
+	 *          the pool to count on
+	 * @return how often each byte value occurs
+	 */
+	public static long[] count ( ByteBuffer data, ForkJoinPool pool ) {
+		return pool.invoke(new CountTask(data,data.position(),data.limit()));
+	}
+
+	/**
+	 * Builds the Huffman coding tree for a set of counts
+	 *
+	 * @param frequencies
+	 *          how often each byte value occurs
+	 * @return the coding tree for the byte values that occur at least once
+	 */
+	public static CodingTree buildCodingTree ( long[] frequencies ) {
+		return new CanonicalCode(HuffmanCode.lengths(frequencies)).getCodingTree();
+	}
+
+	/**
+	 * Counts a range of a buffer, splitting it among the pool's threads
+	 */
+	private static class CountTask extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		private static final ThreadLocal<FrequencyCounter> COUNTER =
+		    ThreadLocal.withInitial(FrequencyCounter::new); // one counter per
+		                                                    // thread
+
+		private final transient ByteBuffer data_; // the whole buffer
+		private final int start_; // index of the first byte of the range
+		private final int end_; // index after the last byte of the range
+
+		CountTask ( ByteBuffer data, int start, int end ) {
+			data_ = data;
+			start_ = start;
+			end_ = end;
+		}
+
+		@Override
+		protected long[] compute () {
+			if ( end_ - start_ > PARALLEL_CHUNK ) {
+				int middle = start_ + ((end_ - start_) >>> 1);
+				CountTask second = new CountTask(data_,middle,end_);
+				second.fork();
+				long[] frequencies = new CountTask(data_,start_,middle).compute();
+				long[] other = second.join(); // merges the halves
+				for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+					frequencies[symbol] += other[symbol];
+				}
+				return frequencies;
+			}
+
+			ByteBuffer range = data_.duplicate();
+			range.limit(end_).position(start_);
+			int[] counts = COUNTER.get().count(range);
+			long[] frequencies = new long[counts.length];
+			for ( int symbol = 0 ; symbol < counts.length ; symbol++ ) {
+				frequencies[symbol] = counts[symbol];
+			}
+			return frequencies;
+		}
+	}
+}
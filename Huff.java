@@ -1,117 +1,284 @@
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
- * Compresses, uncompresses, and compares files
+ * Compresses, uncompresses, and compares files. The work is done by a
+ * HuffCodec, which can also be used directly on arrays and buffers.
  * 
  * @author Kidus Asmare Ayele
  */
 public class Huff {
+	private static final int STREAM_BUFFER_SIZE = 1 << 16; // bytes buffered
+	                                                       // between a stream
+	                                                       // and a file
+	private static final int COMPARE_CHUNK_SIZE = 1 << 20; // bytes of each file
+	                                                       // compared at a time
+	private static final HuffCodec CODEC = new HuffCodec(); // compresses with
+	                                                        // the defaults
+	private static final PipelinedCodec PIPELINE =
+	    new PipelinedCodec(); // reads, codes and writes files at once
+
+	/**
+	 * Compresses a file. The file is read, coded and written in separate
+	 * stages that run at the same time.
+	 * 
+	 * @param file1
+	 *          the file to compress
+	 * @param file2
+	 *          the file to save the compressed data in
+	 * @throws IOException
+	 */
 	public static void compress ( String file1, String file2 )
 	    throws IOException {
-		File inputFile = new File(file1);
-		FileReader fileInputStream = new FileReader(file1);
-		BufferedReader charInputStream = new BufferedReader(fileInputStream); 
-		// Creates a buffered reader to read characters
-
-		char[] storeChar = new char[(int) inputFile.length()];
-		int readChar = charInputStream.read();
-		for ( int i = 0 ; readChar != -1 ; i++ ) {
-			char intToChar = (char) readChar;
-			storeChar[i] = intToChar; // stores the characters read into an array
-			readChar = charInputStream.read();
-		}
-
-		Map<Character,Integer> characterMap = new HashMap<Character,Integer>();
-
-		for ( int i = 0 ; i < storeChar.length ; i++ ) {
-			if ( characterMap.containsKey(storeChar[i]) ) { // checks if the character
-			                                                // already exists
-				characterMap.put(storeChar[i],characterMap.get(storeChar[i]) + 1); 
-				// adds one to the number of times the character occurs
-			} else {
-				characterMap.put(storeChar[i],1); // adds a new character and a
-				                                  // frequency of one
+		InputStream inputStream = new FileInputStream(new File(file1));
+		try {
+			OutputStream outputStream = new FileOutputStream(new File(file2));
+			try {
+				PIPELINE.compress(inputStream,outputStream);
+			} finally {
+				outputStream.close();
 			}
+		} finally {
+			inputStream.close();
 		}
+	}
 
-		PriorityQueue<WeightedCodingTree> charInOrder =
-		    new PriorityQueue<WeightedCodingTree>(new WeightedCodingTreeComparator());
-		for ( char character : characterMap.keySet() ) {
-			charInOrder
-			    .add(new WeightedCodingTree(characterMap.get(character),character)); 
-			// arranges the characters by the smallest frequency to the biggest frequency
+	/**
+	 * Compresses a file on several threads. The output is the same as
+	 * compress(file1, file2) produces.
+	 * 
+	 * @param file1
+	 *          the file to compress
+	 * @param file2
+	 *          the file to save the compressed data in
+	 * @param threads
+	 *          number of worker threads
+	 * @throws IOException
+	 */
+	public static void compress ( String file1, String file2, int threads )
+	    throws IOException {
+		ParallelCompressor compressor =
+		    new ParallelCompressor(threads,HuffConstants.DEFAULT_BLOCK_SIZE);
+		InputStream inputStream = new FileInputStream(new File(file1));
+		try {
+			OutputStream outputStream = new FileOutputStream(new File(file2));
+			try {
+				compressor.compress(inputStream,outputStream);
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			inputStream.close();
+			compressor.shutdown();
 		}
+	}
 
-		charInOrder.add(new WeightedCodingTree(1,HuffConstants.PSEUDO_EOF)); // adds
-		                                                                     // the
-		                                                                     // EOF
-		                                                                     // to
-		                                                                     // the
-		                                                                     // map
-
-		for ( ; charInOrder.size() > 1 ; ) { // loops until there is only one tree
-		                                     // left in the priority queue
-			WeightedCodingTree tree1 = charInOrder.poll(); // takes out the weighted
-			                                               // coding tree that has the
-			                                               // smallest frequency (the
-			                                               // first one)
-			WeightedCodingTree tree2 = charInOrder.poll(); // takes out the weighted
-			                                               // coding tree that has the
-			                                               // second smallest
-			                                               // frequency (the second
-			                                               // one)
-			WeightedCodingTree combine = new WeightedCodingTree(tree1,tree2); // combines
-			                                                                  // the
-			                                                                  // two
-			                                                                  // trees
-			charInOrder.add(combine); // adds the combined tree back into the
-			                          // priority queue
+	/**
+	 * Appends a file to a compressed file without recompressing what is already
+	 * there. The new data becomes new blocks after the old ones, so
+	 * uncompressing file2 gives its old contents followed by file1. A compressed
+	 * file that does not exist yet is created.
+	 * 
+	 * @param file1
+	 *          the file to append
+	 * @param file2
+	 *          the compressed file to append it to
+	 * @return the number of bytes appended
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if file2 is not in the block format or is corrupt
+	 */
+	public static long append ( String file1, String file2 ) throws IOException {
+		InputStream inputStream = new FileInputStream(new File(file1));
+		try {
+			FileChannel channel =
+			    FileChannel.open(Paths.get(file2),StandardOpenOption.READ,
+			                     StandardOpenOption.WRITE,StandardOpenOption.CREATE);
+			try {
+				return CODEC.append(channel,inputStream);
+			} finally {
+				channel.close();
+			}
+		} finally {
+			inputStream.close();
 		}
+	}
 
-		CodingTree optimalEncodingTree = charInOrder.poll().getCodingTree(); 
-		// gets the coding tree for the combined priority queue
-
-		File out = new File(file2);
-		BitOutputStream outputStream =
-		    new BitOutputStream(new FileOutputStream(out));
+	/**
+	 * Compresses a stream in blocks of the default size
+	 * 
+	 * @param inputStream
+	 *          the stream to compress, such as System.in
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @throws IOException
+	 */
+	public static void compress ( InputStream inputStream,
+	                              OutputStream outputStream )
+	    throws IOException {
+		CODEC.compress(inputStream,outputStream);
+	}
 
-		outputStream.writeBits(HuffConstants.MAGIC_NUMBER); // writes the magic
-		                                                    // number at the
-		                                                    // beginning of the file
+	/**
+	 * Compresses a stream in a single pass. The input is cut into blocks, and
+	 * each block is counted, coded and written before the next one is read, so
+	 * memory use depends only on the block size. Neither stream is closed.
+	 * 
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @throws IOException
+	 */
+	public static void compress ( InputStream inputStream,
+	                              OutputStream outputStream, int blockSize )
+	    throws IOException {
+		compress(inputStream,outputStream,blockSize,
+		         HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+	}
 
-		optimalEncodingTree.write(outputStream); // writes the coding tree to a file
+	/**
+	 * Compresses a stream in a single pass with a limit on the length of the
+	 * codes. Shorter limits make decoding faster and cost a little compression
+	 * on very skewed data. Neither stream is closed.
+	 * 
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 * @throws IOException
+	 */
+	public static void compress ( InputStream inputStream,
+	                              OutputStream outputStream, int blockSize,
+	                              int maxCodeLength ) throws IOException {
+		new HuffCodec(blockSize,maxCodeLength).compress(inputStream,outputStream);
+	}
 
-		Map<Character,BitString> charEncoding = optimalEncodingTree.getEncodings(); 
-		// gets the encodings of the coding tree
+	/**
+	 * Uncompresses a file. A file in the block format is read, decoded and
+	 * written in separate stages that run at the same time.
+	 * 
+	 * @param file1
+	 *          the compressed file
+	 * @param file2
+	 *          the file to save the uncompressed data in
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if file1 is not a compressed file
+	 */
+	public static void uncompress ( String file1, String file2 )
+	    throws IOException {
+		InputStream inputStream =
+		    new BufferedInputStream(new FileInputStream(new File(file1)),
+		                            STREAM_BUFFER_SIZE);
+		try {
+			HuffCodec.readVersion(inputStream); // checks the file before creating
+			                                    // the output
+			OutputStream outputStream = new FileOutputStream(new File(file2));
+			try {
+				PIPELINE.uncompress(inputStream,outputStream);
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
 
-		FileReader readFile = new FileReader(new File(file1)); 
-		// restarts the reading to the beginning of the file
+	/**
+	 * Uncompresses a file on several threads, using the block index to decode
+	 * blocks at the same time
+	 * 
+	 * @param file1
+	 *          the compressed file
+	 * @param file2
+	 *          the file to save the uncompressed data in
+	 * @param threads
+	 *          number of worker threads
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if file1 is not a compressed file
+	 */
+	public static void uncompress ( String file1, String file2, int threads )
+	    throws IOException {
+		ParallelDecompressor decompressor = new ParallelDecompressor(threads);
+		try {
+			decompressor.uncompress(file1,file2);
+		} finally {
+			decompressor.shutdown();
+		}
+	}
 
-		int readCharacters = readFile.read(); // gets the first character
-		for ( ; readCharacters != -1 ; ) { // reads the file until it reaches EOF
-			outputStream.writeBits(charEncoding.get((char) readCharacters));
-			// writes the compressed characters
-			readCharacters = readFile.read(); // reads the next character
+	/**
+	 * Checks a compressed file without writing anything. Every block is decoded
+	 * in memory and compared with its checksum, several blocks at a time, and
+	 * the checksum of the whole stream is checked too.
+	 * 
+	 * @param file
+	 *          the compressed file
+	 * @param threads
+	 *          number of worker threads
+	 * @return the number of uncompressed bytes in the file
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if file is not a compressed file or is corrupt
+	 */
+	public static long verify ( String file, int threads ) throws IOException {
+		ParallelDecompressor decompressor = new ParallelDecompressor(threads);
+		try {
+			return decompressor.verify(file);
+		} finally {
+			decompressor.shutdown();
 		}
-		outputStream.write(HuffConstants.PSEUDO_EOF); // writes the EOF at the end
-		                                              // of the file
+	}
 
-		outputStream.flush();
-		readFile.close();
-		charInputStream.close();
+	/**
+	 * Uncompresses a stream in any of the compressed formats. Neither stream is
+	 * closed.
+	 * 
+	 * @param inputStream
+	 *          the compressed stream
+	 * @param outputStream
+	 *          the stream that the uncompressed data is written to
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the stream is not compressed or is corrupt
+	 */
+	public static void uncompress ( InputStream inputStream,
+	                                OutputStream outputStream )
+	    throws IOException {
+		CODEC.uncompress(inputStream,outputStream);
 	}
 
-	public static void uncompress ( String file1, String file2 )
+	/**
+	 * Uncompresses a file in the original tree format by walking the coding tree
+	 * one bit at a time. Slower than uncompress, but kept as a reference that its
+	 * output can be checked against.
+	 * 
+	 * @param file1
+	 *          the compressed file
+	 * @param file2
+	 *          the file to save the uncompressed characters in
+	 * @throws IOException
+	 */
+	public static void uncompressReference ( String file1, String file2 )
 	    throws IOException {
 		InputStream inputFile = new FileInputStream(new File(file1));
 		BitInputStream inputStream = new BitInputStream(inputFile);
@@ -153,64 +320,64 @@ public class Huff {
 		inputStream.close();
 	}
 
+	/**
+	 * Compares two files byte for byte. The sizes are checked first, then both
+	 * files are read a chunk at a time and compared until the first difference,
+	 * so memory use does not depend on the size of the files. Mismatched bytes
+	 * are shown as unsigned values from 0 to 255.
+	 * 
+	 * @param file1
+	 *          the first file
+	 * @param file2
+	 *          the second file
+	 * @return a message saying whether the files are the same
+	 * @throws IOException
+	 */
 	public static String compare ( String file1, String file2 )
 	    throws IOException {
-
 		File filer1 = new File(file1);
 		File filer2 = new File(file2);
-
-		FileInputStream file1Stream = new FileInputStream(filer1);
-		FileInputStream file2Stream = new FileInputStream(filer2);
-
-		byte[] file1ByteStream = new byte[(int) filer1.length()];
-		byte[] file2ByteStream = new byte[(int) filer2.length()];
-		// stores the bytes in an array
-
-		file1Stream.read(file1ByteStream);
-		file2Stream.read(file2ByteStream);
-		// adds all of the characters in the file to the byte array
-
-		int byteDifference = 0;
-		int file1Byte = 0;
-		int file2Byte = 0;
-		boolean sameFiles = true;
-
-		for ( int i = 0 ; i < file1ByteStream.length
-		    || i < file2ByteStream.length ; i++ ) { // loop continues as long as i <
-		                                            // the length of both arrays
-			byteDifference = byteDifference + 1;
-			if ( i + 1 > file1ByteStream.length || i + 1 > file2ByteStream.length ) { // checks
-			                                                                          // if
-			                                                                          // the
-			                                                                          // two
-			                                                                          // files
-			                                                                          // have
-			                                                                          // different
-			                                                                          // lengths
-				sameFiles = false;
-				return "File length mismatch" + "\n" + "Files are different" + "\n";
-			}
-			if ( file1ByteStream[i] != file2ByteStream[i] ) { // if the files have the
-			                                                  // same length but have
-			                                                  // different values
-				file1Byte = file1ByteStream[i]; // stores the value where file1 is
-				                                // different
-				file2Byte = file2ByteStream[i]; // stores the value where file2 is
-				                                // different
-				sameFiles = false;
-				break;
-			}
+		if ( !filer1.isFile() ) { // length() would just return 0
+			throw new FileNotFoundException(file1 + " (No such file)");
 		}
-
-		file1Stream.close();
-		file2Stream.close();
-
-		if ( sameFiles == true ) {
-			return "The files are the same" + "\n";
-		} else {
-			return "File mismatch, byte " + byteDifference + ": " + file1Byte + " "
-			    + file2Byte + "\n" + "Files are different" + "\n";
+		if ( !filer2.isFile() ) {
+			throw new FileNotFoundException(file2 + " (No such file)");
+		}
+		if ( filer1.length() != filer2.length() ) { // no need to read anything
+			return "File length mismatch" + "\n" + "Files are different" + "\n";
 		}
 
+		InputStream file1Stream = new FileInputStream(filer1);
+		try {
+			InputStream file2Stream = new FileInputStream(filer2);
+			try {
+				byte[] chunk1 = new byte[COMPARE_CHUNK_SIZE];
+				byte[] chunk2 = new byte[COMPARE_CHUNK_SIZE];
+				long position = 0; // offset of the start of the chunks
+				while ( true ) {
+					int length1 = HuffCodec.readBlock(file1Stream,chunk1,chunk1.length);
+					int length2 = HuffCodec.readBlock(file2Stream,chunk2,chunk2.length);
+					int length = Math.min(length1,length2);
+					int mismatch = Arrays.mismatch(chunk1,0,length,chunk2,0,length);
+					if ( mismatch >= 0 ) {
+						return "File mismatch, byte " + (position + mismatch + 1) + ": "
+						    + (chunk1[mismatch] & 0xFF) + " " + (chunk2[mismatch] & 0xFF)
+						    + "\n" + "Files are different" + "\n";
+					}
+					if ( length1 != length2 ) { // a file changed while being read
+						return "File length mismatch" + "\n" + "Files are different"
+						    + "\n";
+					}
+					if ( length < COMPARE_CHUNK_SIZE ) {
+						return "The files are the same" + "\n";
+					}
+					position += length;
+				}
+			} finally {
+				file2Stream.close();
+			}
+		} finally {
+			file1Stream.close();
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,566 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the throughput and allocation rate of each stage of compression
+ * over generated data, so that changes can be compared from release to
+ * release. Each benchmark is warmed up and then run repeatedly for a fixed
+ * time on one thread, and the results are printed as MB/s and bytes allocated
+ * per input byte. With -r, the compressed size with length-limited codes is
+ * compared with unlimited codes instead of timing anything.
+ *
+ * Usage: java HuffBenchmark [-r] [-t millis] [-s small,medium,large]
+ * [-c uniform,zipf,skewed,english,compressed] [benchmark ...]
+ *
+ * The same benchmarks also run under JMH, through corpus and benchmark; see
+ * jmh/benchmarks/StageBenchmark.java.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffBenchmark {
+	private static final String[] SIZE_NAMES = { "small", "medium", "large" };
+	private static final int[] SIZES = { 4 << 10, 1 << 20, 16 << 20 }; // bytes
+	                                                                   // in each
+	                                                                   // size of
+	                                                                   // corpus
+	private static final long DEFAULT_MILLIS = 1000; // time spent measuring each
+	                                                 // benchmark
+	private static final long SEED = 20240101; // makes every run use the same
+	                                           // data
+	private static final int[] CODE_LENGTH_LIMITS = { 15, 12 }; // limits that
+	                                                            // -r compares
+
+	private static volatile long sink_; // keeps results alive so the work
+	                                    // cannot be optimized away
+
+	/**
+	 * The kinds of data that the benchmarks are run over
+	 */
+	private enum Corpus {
+		UNIFORM, // random bytes, which do not compress
+		ZIPF, // bytes whose frequencies fall off with their rank
+		SKEWED, // bytes whose frequencies fall off geometrically, which makes
+		        // deep trees
+		ENGLISH, // words and sentences of English text
+		COMPRESSED; // deflated English text
+
+		/**
+		 * Generates data of this kind
+		 *
+		 * @param size
+		 *          number of bytes to generate
+		 * @param random
+		 *          the source of randomness
+		 * @return the data
+		 */
+		byte[] generate ( int size, Random random ) {
+			switch ( this ) {
+			case UNIFORM:
+				byte[] data = new byte[size];
+				random.nextBytes(data);
+				return data;
+			case ZIPF:
+				return ranked(size,random,false);
+			case SKEWED:
+				return ranked(size,random,true);
+			case ENGLISH:
+				return english(size,random);
+			default:
+				return deflated(size,random);
+			}
+		}
+	}
+
+	/**
+	 * One timed piece of work
+	 */
+	private interface Operation {
+		/**
+		 * Does the work once
+		 *
+		 * @return a value that depends on the work done
+		 * @throws IOException
+		 */
+		long run () throws IOException;
+	}
+
+	public static void main ( String[] args ) throws IOException {
+		long millis = DEFAULT_MILLIS;
+		List<String> sizes = Arrays.asList(SIZE_NAMES);
+		List<String> corpora = new ArrayList<String>();
+		for ( Corpus corpus : Corpus.values() ) {
+			corpora.add(corpus.name().toLowerCase());
+		}
+		List<String> names = new ArrayList<String>(); // benchmarks to run; all of
+		                                              // them if empty
+		boolean ratios = false; // compares code length limits instead
+		for ( int i = 0 ; i < args.length ; i++ ) {
+			if ( args[i].equals("-r") ) {
+				ratios = true;
+			} else if ( args[i].equals("-t") && i + 1 < args.length ) {
+				millis = Long.parseLong(args[++i]);
+			} else if ( args[i].equals("-s") && i + 1 < args.length ) {
+				sizes = Arrays.asList(args[++i].split(","));
+			} else if ( args[i].equals("-c") && i + 1 < args.length ) {
+				corpora = Arrays.asList(args[++i].split(","));
+			} else {
+				names.add(args[i]);
+			}
+		}
+
+		if ( ratios ) {
+			printRatios(corpora,sizes);
+			return;
+		}
+
+		System.out.printf("%-10s %-6s %-10s %14s %10s %12s%n","corpus","size",
+		                  "benchmark","ns/op","MB/s","alloc B/byte");
+		File directory = createTempDirectory();
+		try {
+			for ( Corpus corpus : Corpus.values() ) {
+				if ( !corpora.contains(corpus.name().toLowerCase()) ) {
+					continue;
+				}
+				for ( int s = 0 ; s < SIZES.length ; s++ ) {
+					if ( !sizes.contains(SIZE_NAMES[s]) ) {
+						continue;
+					}
+					byte[] data = corpus.generate(SIZES[s],new Random(SEED));
+					Map<String,Operation> benchmarks = benchmarks(data,directory);
+					for ( Map.Entry<String,Operation> benchmark : benchmarks.entrySet() ) {
+						if ( names.isEmpty() || names.contains(benchmark.getKey()) ) {
+							String[] result =
+							    measure(benchmark.getValue(),data.length,millis);
+							System.out.printf("%-10s %-6s %-10s %14s %10s %12s%n",
+							                  corpus.name().toLowerCase(),SIZE_NAMES[s],
+							                  benchmark.getKey(),result[0],result[1],
+							                  result[2]);
+						}
+					}
+				}
+			}
+		} finally {
+			for ( File file : directory.listFiles() ) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Generates the data for one corpus and size, the same data that main uses
+	 *
+	 * @param corpus
+	 *          the name of the corpus, such as "zipf"
+	 * @param size
+	 *          "small", "medium" or "large"
+	 * @return the data
+	 * @throws IllegalArgumentException
+	 *           if either name is unknown
+	 */
+	public static byte[] corpus ( String corpus, String size ) {
+		int s = Arrays.asList(SIZE_NAMES).indexOf(size);
+		if ( s < 0 ) {
+			throw new IllegalArgumentException("Unknown size " + size);
+		}
+		return Corpus.valueOf(corpus.toUpperCase()).generate(SIZES[s],
+		                                                     new Random(SEED));
+	}
+
+	/**
+	 * Sets up one benchmark on its own, for harnesses such as JMH that time
+	 * each benchmark themselves
+	 *
+	 * @param name
+	 *          the name of the benchmark, such as "encode"
+	 * @param data
+	 *          the data to run it over
+	 * @param directory
+	 *          where files needed by the benchmark can be written
+	 * @return the benchmark's work, which throws UncheckedIOException if it
+	 *         fails
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the name is unknown
+	 */
+	public static LongSupplier benchmark ( String name, byte[] data,
+	                                       File directory ) throws IOException {
+		final Operation operation = benchmarks(data,directory).get(name);
+		if ( operation == null ) {
+			throw new IllegalArgumentException("Unknown benchmark " + name);
+		}
+		return () -> {
+			try {
+				return operation.run();
+			} catch ( IOException e ) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/**
+	 * Prints how much bigger each corpus gets when its codes are length-limited,
+	 * compared with unlimited Huffman codes
+	 *
+	 * @param corpora
+	 *          names of the corpora to use
+	 * @param sizes
+	 *          names of the sizes to use
+	 * @throws IOException
+	 */
+	private static void printRatios ( List<String> corpora, List<String> sizes )
+	    throws IOException {
+		System.out.printf("%-10s %-6s %12s %8s","corpus","size","unlimited",
+		                  "longest");
+		for ( int limit : CODE_LENGTH_LIMITS ) {
+			System.out.printf(" %12s %8s",limit + " bits","cost");
+		}
+		System.out.println();
+
+		for ( Corpus corpus : Corpus.values() ) {
+			if ( !corpora.contains(corpus.name().toLowerCase()) ) {
+				continue;
+			}
+			for ( int s = 0 ; s < SIZES.length ; s++ ) {
+				if ( !sizes.contains(SIZE_NAMES[s]) ) {
+					continue;
+				}
+				byte[] data = corpus.generate(SIZES[s],new Random(SEED));
+				int[] frequencies =
+				    new FrequencyCounter().count(ByteBuffer.wrap(data));
+				int longest = 0;
+				for ( int length : HuffmanCode.lengths(frequencies) ) {
+					longest = Math.max(longest,length);
+				}
+				BlockEncoder encoder = new BlockEncoder(CanonicalCode.MAX_CODE_LENGTH);
+				int unlimited = encoder.encode(data,0,data.length);
+				System.out.printf("%-10s %-6s %12d %8d",corpus.name().toLowerCase(),
+				                  SIZE_NAMES[s],unlimited,longest);
+				for ( int limit : CODE_LENGTH_LIMITS ) {
+					int limited =
+					    new BlockEncoder(limit).encode(data,0,data.length);
+					System.out.printf(" %12d %7.3f%%",limited,100.0
+					    * (limited - unlimited) / unlimited);
+				}
+				System.out.println();
+			}
+		}
+	}
+
+	/**
+	 * Sets up every benchmark for a piece of data
+	 *
+	 * @param data
+	 *          the data to run the benchmarks over
+	 * @param directory
+	 *          where files needed by the benchmarks can be written
+	 * @return the benchmarks by name, in the order they are run
+	 * @throws IOException
+	 */
+	private static Map<String,Operation> benchmarks ( final byte[] data,
+	                                                  File directory )
+	    throws IOException {
+		final int length = data.length;
+		final FrequencyCounter counter = new FrequencyCounter();
+		final int[] frequencies = counter.count(ByteBuffer.wrap(data)).clone();
+		final CodingTree tree = BlockEncoder.buildCodingTree(frequencies);
+		final long[] codes = new long[HuffConstants.BLOCK_ALPHABET_SIZE];
+		final int[] lengths = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		final BlockEncoder encoder = new BlockEncoder();
+		final int payloadLength = encoder.encode(data,0,length);
+		final int type = encoder.getType();
+		final byte[] payload = Arrays.copyOf(encoder.getPayload(),payloadLength);
+		final BlockEncoder encoder4 =
+		    new BlockEncoder(HuffConstants.DEFAULT_MAX_CODE_LENGTH,true);
+		final int payloadLength4 = encoder4.encode(data,0,length);
+		final int type4 = encoder4.getType();
+		final byte[] payload4 =
+		    Arrays.copyOf(encoder4.getPayload(),payloadLength4);
+		final BlockDecoder decoder = new BlockDecoder();
+		final HuffCodec codec = new HuffCodec();
+		final byte[] buffer = new byte[length];
+		final byte[] treeCoded = encodeWithTree(tree,data);
+		final String file1 = writeFile(new File(directory,"data1"),data);
+		final String file2 = writeFile(new File(directory,"data2"),data);
+
+		Map<String,Operation> benchmarks = new LinkedHashMap<String,Operation>();
+		benchmarks.put("count",() -> counter.count(ByteBuffer.wrap(data))[0]);
+		benchmarks.put("lengths",() -> HuffmanCode.lengths(frequencies)[0]);
+		benchmarks.put("tree",
+		               () -> BlockEncoder.buildCodingTree(frequencies).hashCode());
+		benchmarks.put("encodings",() -> {
+			tree.getEncodings(codes,lengths);
+			return codes[0];
+		});
+		benchmarks.put("encode",() -> encoder.encode(data,0,length));
+		benchmarks.put("decode",() -> {
+			decoder.decode(type,payload,0,payloadLength,
+			               buffer,0,length);
+			return buffer[0];
+		});
+		benchmarks.put("encode4",() -> encoder4.encode(data,0,length));
+		benchmarks.put("decode4",() -> {
+			decoder.decode(type4,payload4,0,payloadLength4,buffer,0,length);
+			return buffer[0];
+		});
+		benchmarks.put("codec",() -> codec.uncompress(codec.compress(data)).length);
+		benchmarks.put("nextChar",() -> {
+			BitInputStream inputStream =
+			    new BitInputStream(new ByteArrayInputStream(treeCoded));
+			long sum = 0;
+			for ( int i = 0 ; i < length ; i++ ) {
+				sum += tree.nextChar(inputStream);
+			}
+			return sum;
+		});
+		benchmarks.put("compare",() -> Huff.compare(file1,file2).length());
+		benchmarks.put("compareNio",() -> NioHuff.compare(file1,file2).length());
+		return benchmarks;
+	}
+
+	/**
+	 * Warms an operation up and then runs it repeatedly for a fixed time
+	 *
+	 * @param operation
+	 *          the operation to measure
+	 * @param bytes
+	 *          number of input bytes the operation handles each run
+	 * @param millis
+	 *          how long to measure for
+	 * @return the time per run in nanoseconds, the throughput in MB/s, and the
+	 *         bytes allocated per input byte, formatted for printing
+	 * @throws IOException
+	 */
+	private static String[] measure ( Operation operation, int bytes,
+	                                  long millis ) throws IOException {
+		long sum = 0;
+		long warmup = System.nanoTime() + millis * 500000; // half the measuring
+		                                                   // time
+		do {
+			sum += operation.run();
+		} while ( System.nanoTime() < warmup );
+
+		long runs = 0;
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sum += operation.run();
+			runs++;
+			elapsed = System.nanoTime() - start;
+		} while ( elapsed < millis * 1000000 );
+		allocated = allocatedBytes() - allocated;
+		sink_ += sum;
+
+		double nanosPerRun = (double) elapsed / runs;
+		double megabytesPerSecond = bytes / nanosPerRun * 1e9 / 1e6;
+		String allocation = allocated < 0 ? "n/a"
+		    : String.format("%.4f",(double) allocated / ((double) runs * bytes));
+		return new String[] { String.format("%.0f",nanosPerRun),
+		                      String.format("%.1f",megabytesPerSecond),
+		                      allocation };
+	}
+
+	/**
+	 * Gets the number of bytes the current thread has allocated so far
+	 *
+	 * @return the number of bytes, or -1 if the JVM does not count them
+	 */
+	private static long allocatedBytes () {
+		java.lang.management.ThreadMXBean bean =
+		    ManagementFactory.getThreadMXBean();
+		if ( bean instanceof com.sun.management.ThreadMXBean ) {
+			long id = Thread.currentThread().threadId();
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(id);
+		}
+		return -1;
+	}
+
+	/**
+	 * Encodes data with a coding tree's bit strings, the way the original tree
+	 * format stored it, so that nextChar can decode it
+	 *
+	 * @param tree
+	 *          a coding tree for every byte in the data
+	 * @param data
+	 *          the data to encode
+	 * @return the encoded bits
+	 * @throws IOException
+	 */
+	private static byte[] encodeWithTree ( CodingTree tree, byte[] data )
+	    throws IOException {
+		Map<Character,BitString> encodings = tree.getEncodings();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+		BitOutputStream outputStream = new BitOutputStream(bytes);
+		for ( byte b : data ) {
+			outputStream.writeBits(encodings.get((char) (b & 0xFF)));
+		}
+		outputStream.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Generates bytes whose frequencies fall off with their rank, with the ranks
+	 * of the byte values shuffled
+	 *
+	 * @param size
+	 *          number of bytes to generate
+	 * @param random
+	 *          the source of randomness
+	 * @param geometric
+	 *          true for frequencies that shrink by the same factor from rank to
+	 *          rank, false for frequencies that follow Zipf's law
+	 * @return the data
+	 */
+	private static byte[] ranked ( int size, Random random, boolean geometric ) {
+		int[] symbols = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		for ( int i = 0 ; i < symbols.length ; i++ ) {
+			symbols[i] = i;
+		}
+		for ( int i = symbols.length - 1 ; i > 0 ; i-- ) { // shuffles the ranks
+			int j = random.nextInt(i + 1);
+			int swap = symbols[i];
+			symbols[i] = symbols[j];
+			symbols[j] = swap;
+		}
+
+		double[] cumulative = new double[symbols.length];
+		double total = 0;
+		for ( int rank = 0 ; rank < symbols.length ; rank++ ) {
+			total += geometric ? Math.pow(0.6,rank) : 1 / Math.pow(rank + 1,1.2);
+			cumulative[rank] = total;
+		}
+
+		byte[] data = new byte[size];
+		for ( int i = 0 ; i < size ; i++ ) {
+			int rank = Arrays.binarySearch(cumulative,random.nextDouble() * total);
+			if ( rank < 0 ) {
+				rank = -rank - 1;
+			}
+			data[i] = (byte) symbols[Math.min(rank,symbols.length - 1)];
+		}
+		return data;
+	}
+
+	/**
+	 * Generates English-like text from common words, with sentences and line
+	 * breaks
+	 *
+	 * @param size
+	 *          number of bytes to generate
+	 * @param random
+	 *          the source of randomness
+	 * @return the text as ASCII
+	 */
+	private static byte[] english ( int size, Random random ) {
+		String[] words =
+		    ("the of and to a in is it you that he was for on are with as his they be "
+		        + "at one have this from or had by hot word but what some we can out other "
+		        + "were all there when up use your how said an each she which do their time "
+		        + "if will way about many then them write would like so these her long make "
+		        + "thing see him two has look more day could go come did number sound no most "
+		        + "people my over know water than call first who may down side been now find "
+		        + "compress file tree code bits block frequency character stream").split(" ");
+		StringBuilder text = new StringBuilder(size + 100);
+		int line = 0;
+		boolean startOfSentence = true;
+		while ( text.length() < size ) {
+			double skew = Math.pow(random.nextDouble(),3); // favors the common words
+			int index = (int) (words.length * skew);
+			String word = words[index];
+			if ( startOfSentence ) {
+				word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+				startOfSentence = false;
+			}
+			text.append(word);
+			line += word.length() + 1;
+			if ( random.nextInt(12) == 0 ) {
+				text.append(random.nextInt(4) == 0 ? ',' : '.');
+				startOfSentence = text.charAt(text.length() - 1) == '.';
+			}
+			if ( line > 72 ) {
+				text.append('\n');
+				line = 0;
+			} else {
+				text.append(' ');
+			}
+		}
+		return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII),
+		                     size);
+	}
+
+	/**
+	 * Generates data that has already been compressed, by deflating English
+	 * text
+	 *
+	 * @param size
+	 *          number of bytes to generate
+	 * @param random
+	 *          the source of randomness
+	 * @return the data
+	 */
+	private static byte[] deflated ( int size, Random random ) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+		byte[] buffer = new byte[1 << 16];
+		while ( bytes.size() < size ) {
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			deflater.setInput(english(Math.max(size,1 << 16),random));
+			deflater.finish();
+			while ( !deflater.finished() ) {
+				bytes.write(buffer,0,deflater.deflate(buffer));
+			}
+			deflater.end();
+		}
+		return Arrays.copyOf(bytes.toByteArray(),size);
+	}
+
+	/**
+	 * Creates a directory for the files the benchmarks use
+	 *
+	 * @return the new directory
+	 * @throws IOException
+	 */
+	private static File createTempDirectory () throws IOException {
+		File directory = File.createTempFile("huffbench",null);
+		if ( !directory.delete() || !directory.mkdir() ) {
+			throw new IOException("Could not create " + directory);
+		}
+		return directory;
+	}
+
+	/**
+	 * Writes data to a file
+	 *
+	 * @param file
+	 *          the file to write
+	 * @param data
+	 *          the data to write
+	 * @return the file's path
+	 * @throws IOException
+	 */
+	private static String writeFile ( File file, byte[] data ) throws IOException {
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(data);
+		} finally {
+			outputStream.close();
+		}
+		return file.getPath();
+	}
+}
@@ -0,0 +1,393 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends requests to a running HuffServer, which does the work in a JVM that is
+ * already warm. The client itself loads none of the codec, so it starts
+ * quickly:
+ *
+ * <pre>
+ * java HuffClient c|d|v [options] paths...
+ *   -s path     the service's Unix-domain socket (the default is
+ *               HuffServer.DEFAULT_SOCKET)
+ *   -p port     the service's loopback TCP port instead, which takes only
+ *               standard input
+ *   -f          overwrite existing output files
+ *   -q          print only errors
+ * </pre>
+ *
+ * c compresses each file to file.huff, d uncompresses each file.huff to file,
+ * and v checks each file.huff against its checksums. "-" streams standard
+ * input through the service to standard output for c and d. The service
+ * handles files only through its Unix-domain socket, so over TCP "-" is the
+ * only path allowed.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffClient {
+	private static final String SUFFIX = ".huff"; // added to compressed files
+	private static final String STDIN = "-"; // the path that means standard
+	                                         // input
+	private static final String USAGE =
+	    "Usage: huff-client c|d|v [options] paths...\n"
+	        + "  -s path     the service's Unix-domain socket\n"
+	        + "  -p port     the service's loopback TCP port, for \"-\" only\n"
+	        + "  -f          overwrite existing output files\n"
+	        + "  -q          print only errors\n";
+
+	private final SocketAddress address_; // where the service listens
+
+	/**
+	 * @param address
+	 *          where the service listens
+	 */
+	public HuffClient ( SocketAddress address ) {
+		address_ = address;
+	}
+
+	public static void main ( String[] args ) {
+		SocketAddress address = UnixDomainSocketAddress.of(HuffServer.DEFAULT_SOCKET);
+		boolean force = false;
+		boolean quiet = false;
+		List<String> paths = new ArrayList<String>();
+		String command = args.length == 0 ? "" : args[0];
+		try {
+			if ( !command.equals("c") && !command.equals("d")
+			    && !command.equals("v") ) {
+				throw new IllegalArgumentException("Unknown command " + command);
+			}
+			for ( int i = 1 ; i < args.length ; i++ ) {
+				String arg = args[i];
+				if ( arg.equals("-f") ) {
+					force = true;
+				} else if ( arg.equals("-q") ) {
+					quiet = true;
+				} else if ( arg.equals("-s") && i + 1 < args.length ) {
+					address = UnixDomainSocketAddress.of(args[++i]);
+				} else if ( arg.equals("-p") && i + 1 < args.length ) {
+					address =
+					    new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					                          Integer.parseInt(args[++i]));
+				} else if ( arg.startsWith("-") && !arg.equals(STDIN) ) {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				} else {
+					paths.add(arg);
+				}
+			}
+			if ( paths.isEmpty() ) {
+				throw new IllegalArgumentException("No paths given");
+			}
+			if ( command.equals("v") && paths.contains(STDIN) ) {
+				throw new IllegalArgumentException("Standard input cannot be verified");
+			}
+			if ( address instanceof InetSocketAddress ) {
+				for ( String path : paths ) {
+					if ( !path.equals(STDIN) ) {
+						throw new IllegalArgumentException("Files can only be sent "
+						    + "through the service's Unix-domain socket");
+					}
+				}
+			}
+		} catch ( IllegalArgumentException e ) { // includes NumberFormatException
+			System.err.println("huff: " + e.getMessage());
+			System.err.print(USAGE);
+			System.exit(HuffCommand.EXIT_USAGE);
+			return;
+		}
+
+		HuffClient client = new HuffClient(address);
+		int exitCode = HuffCommand.EXIT_OK;
+		for ( String path : paths ) {
+			try {
+				if ( path.equals(STDIN) ) {
+					OutputStream outputStream =
+					    new BufferedOutputStream(System.out,HuffServer.BUFFER_SIZE);
+					if ( command.equals("c") ) {
+						client.compress(System.in,outputStream);
+					} else {
+						client.uncompress(System.in,outputStream);
+					}
+					outputStream.flush();
+				} else if ( command.equals("v") ) {
+					long length = client.verify(path);
+					if ( !quiet ) {
+						System.out.println(path + ": OK, " + length + " bytes");
+					}
+				} else {
+					String output;
+					if ( command.equals("c") ) {
+						output = path + SUFFIX;
+					} else if ( path.endsWith(SUFFIX) ) {
+						output = path.substring(0,path.length() - SUFFIX.length());
+					} else {
+						output = path + ".out";
+					}
+					long length = command.equals("c") ? client.compress(path,output,force)
+					    : client.uncompress(path,output,force);
+					if ( !quiet ) {
+						System.out.println(path + " -> " + output + ": "
+						    + new File(path).length() + " -> " + length + " bytes");
+					}
+				}
+			} catch ( IOException e ) {
+				System.err.println("huff: " + path + ": " + e.getMessage());
+				exitCode = HuffCommand.EXIT_FAILED;
+			} catch ( IllegalArgumentException e ) {
+				System.err.println("huff: " + path + ": " + e.getMessage());
+				exitCode = HuffCommand.EXIT_FAILED;
+			}
+		}
+		System.exit(exitCode);
+	}
+
+	/**
+	 * Has the service compress a file
+	 *
+	 * @param file1
+	 *          the file to compress
+	 * @param file2
+	 *          the file to save the compressed data in
+	 * @param force
+	 *          true to overwrite file2 if it exists
+	 * @return the size of the compressed file
+	 * @throws IOException
+	 *           if the service cannot be reached, is reached over TCP, or the
+	 *           file cannot be read or written
+	 */
+	public long compress ( String file1, String file2, boolean force )
+	    throws IOException {
+		return request(HuffServer.OP_COMPRESS,force,null,null,file1,file2);
+	}
+
+	/**
+	 * Has the service uncompress a file
+	 *
+	 * @param file1
+	 *          the compressed file
+	 * @param file2
+	 *          the file to save the uncompressed data in
+	 * @param force
+	 *          true to overwrite file2 if it exists
+	 * @return the size of the uncompressed file
+	 * @throws IOException
+	 *           if the service cannot be reached, is reached over TCP, or the
+	 *           file cannot be read or written
+	 * @throws IllegalArgumentException
+	 *           if file1 is not compressed or is corrupt
+	 */
+	public long uncompress ( String file1, String file2, boolean force )
+	    throws IOException {
+		return request(HuffServer.OP_UNCOMPRESS,force,null,null,file1,file2);
+	}
+
+	/**
+	 * Has the service check a compressed file without writing anything
+	 *
+	 * @param file
+	 *          the compressed file
+	 * @return the number of uncompressed bytes in the file
+	 * @throws IOException
+	 *           if the service cannot be reached, is reached over TCP, or the
+	 *           file cannot be read
+	 * @throws IllegalArgumentException
+	 *           if file is not compressed or is corrupt
+	 */
+	public long verify ( String file ) throws IOException {
+		return request(HuffServer.OP_VERIFY,false,null,null,file);
+	}
+
+	/**
+	 * Compresses a stream through the service. Neither stream is closed.
+	 *
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @throws IOException
+	 */
+	public void compress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		request(HuffServer.OP_COMPRESS_STREAM,false,inputStream,outputStream);
+	}
+
+	/**
+	 * Uncompresses a stream through the service. Neither stream is closed.
+	 *
+	 * @param inputStream
+	 *          the compressed stream
+	 * @param outputStream
+	 *          the stream that the uncompressed data is written to
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the stream is not compressed or is corrupt
+	 */
+	public void uncompress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		request(HuffServer.OP_UNCOMPRESS_STREAM,false,inputStream,outputStream);
+	}
+
+	/**
+	 * Sends a request on a connection of its own and reads the response
+	 *
+	 * @param op
+	 *          the operation
+	 * @param force
+	 *          true to let the service overwrite output files
+	 * @param inputStream
+	 *          data to send after the request, or null
+	 * @param outputStream
+	 *          where data sent back goes, or null
+	 * @param paths
+	 *          the files the request names
+	 * @return the number of output bytes
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the service found the data corrupt
+	 */
+	private long request ( int op, boolean force, InputStream inputStream,
+	                       OutputStream outputStream, String... paths )
+	    throws IOException {
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(address_);
+		} catch ( IOException e ) {
+			throw new IOException("Cannot reach the service at " + address_ + ": "
+			    + e.getMessage(),e);
+		}
+		AtomicReference<IOException> sendFailure =
+		    new AtomicReference<IOException>(); // why the input could not be read
+		Thread sender = null;
+		try {
+			OutputStream requestStream =
+			    new BufferedOutputStream(Channels.newOutputStream(channel),
+			                             HuffServer.BUFFER_SIZE);
+			DataOutputStream request = new DataOutputStream(requestStream);
+			request.writeByte(op);
+			if ( paths.length > 0 ) {
+				request.writeByte(force ? HuffServer.FLAG_FORCE : 0);
+				for ( String path : paths ) {
+					request.writeUTF(new File(path).getAbsolutePath());
+				}
+			}
+			request.flush();
+			if ( inputStream == null ) {
+				channel.shutdownOutput();
+			} else { // sends while the response is read, so neither side waits
+			         // on a full socket
+				sender = Thread.ofVirtual().start(() -> {
+					try {
+						send(inputStream,requestStream,channel);
+					} catch ( IOException e ) {
+						sendFailure.set(e);
+						try {
+							channel.close(); // without the empty frame, the service
+							                 // cannot take a part as the whole
+						} catch ( IOException f ) {
+							// the connection is gone either way
+						}
+					}
+				});
+			}
+
+			DataInputStream response =
+			    new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel),
+			                                                HuffServer.BUFFER_SIZE));
+			InputStream data = new HuffServer.FrameInputStream(response);
+			byte[] buffer = new byte[HuffServer.BUFFER_SIZE];
+			for ( int read = data.read(buffer) ; read >= 0 ; read = data.read(buffer) ) {
+				if ( outputStream == null ) {
+					throw new IOException("Unexpected response from the service");
+				}
+				outputStream.write(buffer,0,read);
+			}
+			int status = response.readUnsignedByte();
+			join(sender); // the service has read all the input it is going to
+			if ( sendFailure.get() != null ) {
+				throw sendFailure.get();
+			}
+			if ( status == HuffServer.STATUS_OK ) {
+				response.readLong(); // the number of input bytes
+				return response.readLong();
+			} else if ( status == HuffServer.STATUS_INVALID ) {
+				throw new IllegalArgumentException(response.readUTF());
+			} else {
+				throw new IOException(response.readUTF());
+			}
+		} catch ( IOException e ) {
+			join(sender);
+			if ( sendFailure.get() != null ) {
+				throw sendFailure.get(); // closing the connection was the result
+			}
+			throw e;
+		} finally {
+			channel.close();
+			join(sender);
+		}
+	}
+
+	/**
+	 * Sends a stream's data in frames, then the empty frame that ends it
+	 *
+	 * @param inputStream
+	 *          the data
+	 * @param request
+	 *          the connection
+	 * @param channel
+	 *          the connection's channel
+	 * @throws IOException
+	 *           if the data could not be read
+	 */
+	private static void send ( InputStream inputStream, OutputStream request,
+	                           SocketChannel channel ) throws IOException {
+		HuffServer.FrameOutputStream frames =
+		    new HuffServer.FrameOutputStream(request);
+		byte[] buffer = new byte[HuffServer.BUFFER_SIZE];
+		int read = inputStream.read(buffer);
+		while ( read >= 0 ) {
+			try {
+				frames.write(buffer,0,read);
+			} catch ( IOException e ) {
+				return; // the service stopped reading, and its response says why
+			}
+			read = inputStream.read(buffer);
+		}
+		try {
+			frames.finish();
+			request.flush();
+			channel.shutdownOutput();
+		} catch ( IOException e ) {
+			// the service stopped reading, and its response says why
+		}
+	}
+
+	/**
+	 * Waits for the sending thread to finish
+	 *
+	 * @param sender
+	 *          the thread, or null if there is none
+	 */
+	private static void join ( Thread sender ) {
+		if ( sender != null ) {
+			try {
+				sender.join();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
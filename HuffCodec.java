@@ -0,0 +1,929 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compresses and uncompresses data in memory or between streams. A codec can
+ * be shared by any number of threads: each thread gets its own encoder,
+ * decoder and scratch arrays the first time it uses the codec, and keeps them
+ * from call to call, so compressing many small payloads allocates little more
+ * than the results. Buffers are read and written in place, so direct and
+ * mapped buffers are never copied into arrays. The compressed data is the
+ * same block format that Huff writes to files.
+ *
+ * A codec made with a trained CodeTable codes blocks with the table instead
+ * of giving each one its own code, which is what makes small payloads worth
+ * compressing. The table is registered, so data coded with it can be
+ * uncompressed by any codec in the same process.
+ *
+ * When HuffMetrics are on, the stream methods add the time spent reading and
+ * writing to the metrics of the calling thread, next to the time the blocks
+ * take to code.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffCodec {
+	private static final int STREAM_BUFFER_SIZE = 1 << 16; // bytes buffered
+	                                                       // when reading a
+	                                                       // stream
+
+	private final int blockSize_; // number of input bytes in each block
+	private final int maxCodeLength_; // longest code allowed
+	private final CodeTable table_; // the table blocks are coded with, or null
+	private final boolean interleaved_; // codes blocks as interleaved streams
+	private final int maxBlockLength_; // longest block that is uncompressed
+	private final ThreadLocal<Scratch> scratch_; // one set of scratch space per
+	                                             // thread, or null if pooled
+	private final ConcurrentLinkedQueue<Scratch> pool_; // sets lent to calls
+	                                                    // when pooled, or null
+
+	/**
+	 * Uses the default block size and code length limit
+	 */
+	public HuffCodec () {
+		this(HuffConstants.DEFAULT_BLOCK_SIZE,
+		     HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+	}
+
+	/**
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 */
+	public HuffCodec ( int blockSize, int maxCodeLength ) {
+		this(blockSize,maxCodeLength,null);
+	}
+
+	/**
+	 * Codes blocks with a trained table
+	 *
+	 * @param table
+	 *          the table
+	 */
+	public HuffCodec ( CodeTable table ) {
+		this(HuffConstants.DEFAULT_BLOCK_SIZE,
+		     HuffConstants.DEFAULT_MAX_CODE_LENGTH,table);
+	}
+
+	/**
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed for blocks that get their own code, from 8
+	 *          to CanonicalCode.MAX_CODE_LENGTH
+	 * @param table
+	 *          the table to code blocks with, or null to give each block its
+	 *          own code
+	 */
+	public HuffCodec ( int blockSize, int maxCodeLength, CodeTable table ) {
+		this(blockSize,maxCodeLength,table,false);
+	}
+
+	/**
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed for blocks that get their own code, from 8
+	 *          to CanonicalCode.MAX_CODE_LENGTH
+	 * @param table
+	 *          the table to code blocks with, or null to give each block its
+	 *          own code
+	 * @param interleaved
+	 *          true to code blocks that get their own code as interleaved
+	 *          streams, which decode faster
+	 */
+	public HuffCodec ( int blockSize, int maxCodeLength, CodeTable table,
+	                   boolean interleaved ) {
+		BlockEncoder.checkMaxCodeLength(maxCodeLength);
+		if ( blockSize < 1 || blockSize > HuffConstants.MAX_BLOCK_SIZE ) {
+			throw new IllegalArgumentException("Block size must be between 1 and "
+			    + HuffConstants.MAX_BLOCK_SIZE);
+		}
+		blockSize_ = blockSize;
+		maxCodeLength_ = maxCodeLength;
+		table_ = table == null ? null : CodeTable.register(table);
+		interleaved_ = interleaved;
+		maxBlockLength_ = HuffConstants.MAX_BLOCK_SIZE;
+		scratch_ =
+		    ThreadLocal.withInitial(() -> new Scratch(maxCodeLength,interleaved));
+		pool_ = null;
+	}
+
+	/**
+	 * Copies a codec's settings into a pooled codec
+	 *
+	 * @param codec
+	 *          the codec whose settings are used
+	 */
+	private HuffCodec ( HuffCodec codec ) {
+		blockSize_ = codec.blockSize_;
+		maxCodeLength_ = codec.maxCodeLength_;
+		table_ = codec.table_;
+		interleaved_ = codec.interleaved_;
+		maxBlockLength_ = codec.blockSize_;
+		scratch_ = null;
+		pool_ = new ConcurrentLinkedQueue<Scratch>();
+	}
+
+	/**
+	 * Makes a codec with the same settings for threads that each make only a
+	 * few calls, such as the virtual threads of a service. Instead of keeping
+	 * scratch space for each thread, it lends sets from a pool for the length
+	 * of a call, and it refuses blocks longer than its block size, so each call
+	 * uses a bounded amount of memory.
+	 *
+	 * @return the pooled codec
+	 */
+	HuffCodec pooled () {
+		return new HuffCodec(this);
+	}
+
+	/**
+	 * Gets the number of input bytes in each block
+	 *
+	 * @return the block size
+	 */
+	public int getBlockSize () {
+		return blockSize_;
+	}
+
+	/**
+	 * Gets the longest code the codec's blocks may use
+	 *
+	 * @return the code length limit in bits
+	 */
+	public int getMaxCodeLength () {
+		return maxCodeLength_;
+	}
+
+	/**
+	 * Gets the table blocks are coded with
+	 *
+	 * @return the table, or null if each block gets its own code
+	 */
+	public CodeTable getTable () {
+		return table_;
+	}
+
+	/**
+	 * Checks if blocks are coded as interleaved streams
+	 *
+	 * @return true if they are
+	 */
+	public boolean isInterleaved () {
+		return interleaved_;
+	}
+
+	/**
+	 * Gets the most bytes that compressing some data can produce
+	 *
+	 * @param length
+	 *          number of bytes to compress
+	 * @return the size of a buffer that always has room for the compressed data
+	 * @throws IllegalArgumentException
+	 *           if the compressed data could be too big for a buffer
+	 */
+	public int maxCompressedLength ( int length ) {
+		long blocks = (length + (long) blockSize_ - 1) / blockSize_;
+		long size = HuffConstants.STREAM_HEADER_SIZE + 1
+		    + HuffConstants.CHECKSUM_SIZE + HuffConstants.INDEX_TRAILER_SIZE
+		    + length // no payload is longer than its block
+		    + (HuffConstants.BLOCK_HEADER_SIZE + HuffConstants.CHECKSUM_SIZE
+		        + HuffConstants.INDEX_ENTRY_SIZE) * blocks;
+		if ( size > Integer.MAX_VALUE - 8 ) { // the most an array can hold
+			throw new IllegalArgumentException("Too much data to compress at once: "
+			    + length + " bytes");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Compresses the bytes between one buffer's position and limit into another
+	 * buffer, starting at its position. The source's position is moved to its
+	 * limit and the destination's past the compressed data. The buffers' byte
+	 * orders do not matter. Data that fits in one block is written without a
+	 * block index, which would only repeat the block's header.
+	 *
+	 * @param src
+	 *          the data to compress
+	 * @param dst
+	 *          the buffer that receives the compressed data; maxCompressedLength
+	 *          bytes of room are always enough
+	 * @return the number of compressed bytes
+	 * @throws IOException
+	 * @throws BufferOverflowException
+	 *           if dst runs out of room, in which case its contents past its
+	 *           position are undefined
+	 */
+	public int compress ( ByteBuffer src, ByteBuffer dst ) throws IOException {
+		Scratch scratch = acquire();
+		try {
+			return compress(src,dst,scratch);
+		} finally {
+			release(scratch);
+		}
+	}
+
+	/**
+	 * Compresses a buffer into another with given scratch space
+	 */
+	private int compress ( ByteBuffer src, ByteBuffer dst, Scratch scratch )
+	    throws IOException {
+		BlockEncoder encoder = scratch.encoder_;
+		BlockIndex index = scratch.index_;
+		index.clear();
+		ByteBuffer output = dst.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int start = output.position();
+
+		output.putInt(HuffConstants.MAGIC_WORD);
+		output.put((byte) (HuffConstants.VERSION_FLAG | HuffConstants.FORMAT_BLOCKS));
+		int end = src.limit();
+		boolean indexed = end - src.position() > blockSize_;
+		output.put((byte) (indexed ? HuffConstants.FLAG_INDEX
+		    | HuffConstants.FLAG_CHECKSUM : HuffConstants.FLAG_CHECKSUM));
+		int checksum = 0; // the CRC-32C of the blocks so far
+		ByteBuffer block = src.duplicate();
+		for ( int offset = src.position() ; offset < end ; offset += blockSize_ ) {
+			int length = Math.min(blockSize_,end - offset);
+			block.limit(offset + length).position(offset);
+			int payloadLength = encoder.encode(block,table_);
+			index.add(output.position() - start,payloadLength,length);
+			output.put((byte) encoder.getType());
+			output.putInt(length);
+			output.putInt(payloadLength);
+			output.put(encoder.getPayload(),0,payloadLength);
+			output.putInt(encoder.getChecksum());
+			checksum = Crc32c.combine(checksum,encoder.getChecksum(),length);
+		}
+		output.put((byte) HuffConstants.BLOCK_END);
+		output.putInt(checksum);
+		if ( indexed ) {
+			index.write(output,output.position() - start);
+		}
+
+		src.position(end);
+		dst.position(output.position());
+		return output.position() - start;
+	}
+
+	/**
+	 * Compresses an array
+	 *
+	 * @param data
+	 *          the data to compress
+	 * @return the compressed data
+	 * @throws IOException
+	 */
+	public byte[] compress ( byte[] data ) throws IOException {
+		return compress(data,0,data.length);
+	}
+
+	/**
+	 * Compresses part of an array
+	 *
+	 * @param data
+	 *          array holding the data to compress
+	 * @param offset
+	 *          index of the first byte
+	 * @param length
+	 *          number of bytes
+	 * @return the compressed data
+	 * @throws IOException
+	 */
+	public byte[] compress ( byte[] data, int offset, int length )
+	    throws IOException {
+		int size = maxCompressedLength(length);
+		Scratch scratch = acquire();
+		try {
+			if ( scratch.output_.length < size ) {
+				scratch.output_ = new byte[size];
+			}
+			int compressed = compress(ByteBuffer.wrap(data,offset,length),
+			                          ByteBuffer.wrap(scratch.output_),scratch);
+			return Arrays.copyOf(scratch.output_,compressed);
+		} finally {
+			release(scratch);
+		}
+	}
+
+	/**
+	 * Gets the uncompressed length of compressed data by reading its block
+	 * headers, without decoding anything
+	 *
+	 * @param src
+	 *          buffer holding compressed data in the block format between its
+	 *          position and limit; its position is not changed
+	 * @return the number of bytes the data uncompresses to
+	 * @throws IllegalArgumentException
+	 *           if the data is not in the block format or is corrupt
+	 */
+	public static long getUncompressedLength ( ByteBuffer src ) {
+		ByteBuffer input = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+		try {
+			int checksumSize = (readHeader(input) & HuffConstants.FLAG_CHECKSUM) != 0
+			    ? HuffConstants.CHECKSUM_SIZE : 0;
+			long total = 0;
+			int type = input.get() & 0xFF;
+			while ( type != HuffConstants.BLOCK_END ) {
+				int length = input.getInt();
+				int payloadLength = input.getInt();
+				checkBlockHeader(length,payloadLength);
+				if ( input.remaining() < payloadLength + checksumSize ) {
+					throw new BufferUnderflowException();
+				}
+				input.position(input.position() + payloadLength + checksumSize);
+				total += length;
+				type = input.get() & 0xFF;
+			}
+			return total;
+		} catch ( BufferUnderflowException e ) {
+			throw new IllegalArgumentException("Compressed data ends before its last block");
+		}
+	}
+
+	/**
+	 * Uncompresses data in the block format from one buffer into another. Both
+	 * buffers are used in place, from their positions. The source's position is
+	 * moved past the compressed data, including its index, and the
+	 * destination's past the uncompressed data. Checksums are checked if the
+	 * data has them.
+	 *
+	 * @param src
+	 *          buffer holding the compressed data
+	 * @param dst
+	 *          buffer that receives the uncompressed data;
+	 *          getUncompressedLength(src) bytes of room are enough
+	 * @return the number of uncompressed bytes
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the data is not in the block format or is corrupt
+	 * @throws BufferOverflowException
+	 *           if dst runs out of room
+	 */
+	public int uncompress ( ByteBuffer src, ByteBuffer dst ) throws IOException {
+		Scratch scratch = acquire();
+		BlockDecoder decoder = scratch.decoder_;
+		ByteBuffer input = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int start = dst.position();
+		try {
+			int flags = readHeader(input);
+			boolean checksums = (flags & HuffConstants.FLAG_CHECKSUM) != 0;
+			int streamChecksum = 0; // the CRC-32C of the blocks so far
+			int blocks = 0;
+			ByteBuffer payload = input.duplicate();
+			int type = input.get() & 0xFF;
+			while ( type != HuffConstants.BLOCK_END ) {
+				int length = input.getInt();
+				int payloadLength = input.getInt();
+				checkBlockHeader(length,payloadLength);
+				checkBlockLength(length);
+				if ( input.remaining() < payloadLength ) {
+					throw new BufferUnderflowException();
+				}
+				if ( dst.remaining() < length ) {
+					throw new BufferOverflowException();
+				}
+
+				payload.limit(input.position() + payloadLength)
+				       .position(input.position());
+				int blockStart = dst.position();
+				decoder.decode(type,payload,dst,length);
+				input.position(input.position() + payloadLength);
+				if ( checksums ) {
+					ByteBuffer decoded = dst.duplicate();
+					decoded.limit(blockStart + length).position(blockStart);
+					int checksum = input.getInt();
+					BlockDecoder.check(checksum,decoded);
+					streamChecksum = Crc32c.combine(streamChecksum,checksum,length);
+				}
+				blocks++;
+				type = input.get() & 0xFF;
+			}
+			if ( checksums && input.getInt() != streamChecksum ) {
+				// the blocks were all right, but some were lost or reordered
+				throw new IllegalArgumentException("Corrupt compressed data: stream checksum mismatch");
+			}
+			if ( (flags & HuffConstants.FLAG_INDEX) != 0 ) { // skips the index
+				long indexSize = (long) blocks * HuffConstants.INDEX_ENTRY_SIZE
+				    + HuffConstants.INDEX_TRAILER_SIZE;
+				if ( input.remaining() < indexSize ) {
+					throw new BufferUnderflowException();
+				}
+				input.position(input.position() + (int) indexSize);
+			}
+		} catch ( BufferUnderflowException e ) {
+			throw new IllegalArgumentException("Compressed data ends before its last block");
+		} finally {
+			release(scratch);
+		}
+		src.position(input.position());
+		return dst.position() - start;
+	}
+
+	/**
+	 * Uncompresses an array of data in the block format
+	 *
+	 * @param data
+	 *          the compressed data
+	 * @return the uncompressed data
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the data is not in the block format, is corrupt, or is too
+	 *           big for an array
+	 */
+	public byte[] uncompress ( byte[] data ) throws IOException {
+		return uncompress(data,0,data.length);
+	}
+
+	/**
+	 * Uncompresses part of an array holding data in the block format
+	 *
+	 * @param data
+	 *          array holding the compressed data
+	 * @param offset
+	 *          index of the first byte
+	 * @param length
+	 *          number of bytes
+	 * @return the uncompressed data
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the data is not in the block format, is corrupt, or is too
+	 *           big for an array
+	 */
+	public byte[] uncompress ( byte[] data, int offset, int length )
+	    throws IOException {
+		ByteBuffer src = ByteBuffer.wrap(data,offset,length);
+		long size = getUncompressedLength(src);
+		if ( size > Integer.MAX_VALUE - 8 ) {
+			throw new IllegalArgumentException("Too much data to uncompress into an array: "
+			    + size + " bytes");
+		}
+		byte[] uncompressed = new byte[(int) size];
+		uncompress(src,ByteBuffer.wrap(uncompressed));
+		return uncompressed;
+	}
+
+	/**
+	 * Compresses a stream in a single pass. The input is cut into blocks, and
+	 * each block is counted, coded and written before the next one is read, so
+	 * memory use depends only on the block size. Neither stream is closed.
+	 *
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @throws IOException
+	 */
+	public void compress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		Scratch scratch = acquire();
+		try {
+			if ( scratch.block_.length < blockSize_ ) {
+				scratch.block_ = new byte[blockSize_];
+			}
+			HuffMetrics metrics = HuffMetrics.current();
+			long time = metrics == null ? 0 : System.nanoTime();
+			int length = readBlock(inputStream,scratch.block_,blockSize_);
+			compress(inputStream,length,new BlockStreamWriter(outputStream),scratch,
+			         metrics,time);
+		} finally {
+			release(scratch);
+		}
+	}
+
+	/**
+	 * Appends a stream to a compressed file as new blocks after the ones already
+	 * there, which are neither read nor rewritten: only the end marker, the
+	 * stream checksum and the block index after them are. The time taken
+	 * depends on the size of the new data and the number of blocks, not on the
+	 * size of the file. Uncompressing the file gives its old contents followed
+	 * by the new data. If appending fails, the file is put back as it was
+	 * whenever it can still be written to. An empty file is compressed into,
+	 * and appending nothing leaves the file alone. Neither the stream nor the
+	 * channel is closed.
+	 *
+	 * @param channel
+	 *          the compressed file, open for reading and writing
+	 * @param inputStream
+	 *          the data to append
+	 * @return the number of bytes appended
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the file is not in the block format or is corrupt
+	 */
+	public long append ( FileChannel channel, InputStream inputStream )
+	    throws IOException {
+		Scratch scratch = acquire();
+		try {
+			if ( scratch.block_.length < blockSize_ ) {
+				scratch.block_ = new byte[blockSize_];
+			}
+			HuffMetrics metrics = HuffMetrics.current();
+			long time = metrics == null ? 0 : System.nanoTime();
+			int length = readBlock(inputStream,scratch.block_,blockSize_);
+			long size = channel.size();
+			if ( length == 0 && size > 0 ) {
+				return 0;
+			}
+
+			// keeps what gets overwritten, which is small, so it can be put back
+			ByteBuffer header =
+			    ByteBuffer.allocate((int) Math.min(size,
+			                                       HuffConstants.STREAM_HEADER_SIZE));
+			BlockIndex.readFully(channel,header,0);
+			BlockStreamWriter blockStream = BlockStreamWriter.append(channel);
+			long end = blockStream.getPosition();
+			ByteBuffer tail = ByteBuffer.allocate((int) (size - Math.min(end,size)));
+			BlockIndex.readFully(channel,tail,end);
+			try {
+				long appended = compress(inputStream,length,blockStream,scratch,
+				                         metrics,time);
+				channel.truncate(channel.position()); // in case the file was longer
+				return appended;
+			} catch ( IOException | RuntimeException e ) {
+				try {
+					tail.flip();
+					header.flip();
+					channel.write(tail,end);
+					channel.write(header,0);
+					channel.truncate(size);
+				} catch ( IOException f ) {
+					e.addSuppressed(f);
+				}
+				throw e;
+			}
+		} finally {
+			release(scratch);
+		}
+	}
+
+	/**
+	 * Compresses the rest of a stream into a block stream whose first block has
+	 * already been read into the scratch block
+	 *
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param length
+	 *          number of bytes in the first block
+	 * @param blockStream
+	 *          where the blocks are written
+	 * @param scratch
+	 *          the scratch space holding the first block
+	 * @param metrics
+	 *          the calling thread's metrics, or null
+	 * @param time
+	 *          when reading the first block started
+	 * @return the number of bytes compressed
+	 * @throws IOException
+	 */
+	private long compress ( InputStream inputStream, int length,
+	                        BlockStreamWriter blockStream, Scratch scratch,
+	                        HuffMetrics metrics, long time ) throws IOException {
+		BlockEncoder encoder = scratch.encoder_;
+		byte[] block = scratch.block_;
+		long total = 0;
+		while ( length > 0 ) { // each block is written before the next is read
+			if ( metrics != null ) {
+				metrics.time(HuffMetrics.READ,time);
+			}
+			int payloadLength = encoder.encode(ByteBuffer.wrap(block,0,length),
+			                                   table_);
+			if ( metrics != null ) {
+				time = System.nanoTime();
+			}
+			blockStream.writeBlock(encoder.getType(),length,
+			                       encoder.getChecksum(),encoder.getPayload(),
+			                       payloadLength);
+			if ( metrics != null ) {
+				time = metrics.time(HuffMetrics.WRITE,time);
+			}
+			total += length;
+			length = readBlock(inputStream,block,blockSize_);
+		}
+		blockStream.finish();
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.WRITE,time);
+		}
+		return total;
+	}
+
+	/**
+	 * Uncompresses a stream in any of the compressed formats. Neither stream is
+	 * closed.
+	 *
+	 * @param inputStream
+	 *          the compressed stream
+	 * @param outputStream
+	 *          the stream that the uncompressed data is written to
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the stream is not compressed or is corrupt
+	 */
+	public void uncompress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		if ( !inputStream.markSupported() ) {
+			inputStream = new BufferedInputStream(inputStream,STREAM_BUFFER_SIZE);
+		}
+		int version = readVersion(inputStream);
+
+		if ( version == HuffConstants.FORMAT_BLOCKS ) {
+			Scratch scratch = acquire();
+			try {
+				uncompressBlocks(new DataInputStream(inputStream),outputStream,
+				                 scratch);
+			} finally {
+				release(scratch);
+			}
+			return;
+		}
+
+		BitReader bitStream = new BitReader(inputStream);
+		bitStream.readBits(HuffConstants.MAGIC_NUMBER.length());
+		TableDecoder decoder;
+		if ( version == HuffConstants.FORMAT_CANONICAL ) {
+			bitStream.readBits(8); // skips the version byte
+			CanonicalCode canonicalCode =
+			    new CanonicalCode(bitStream,HuffConstants.ALPHABET_SIZE);
+			decoder = canonicalCode.getDecoder(HuffConstants.EOF_SYMBOL);
+			// builds the lookup tables straight from the code lengths
+		} else if ( version == HuffConstants.FORMAT_TREE ) {
+			CodingTree reconstructedCodingTree = new CodingTree(bitStream);
+			decoder = new TableDecoder(reconstructedCodingTree);
+			// builds the lookup tables from the coding tree
+		} else {
+			throw new IllegalArgumentException("Unsupported compressed file version "
+			    + version);
+		}
+		decoder.decode(bitStream,outputStream); // decodes until the EOF
+		outputStream.flush();
+	}
+
+	/**
+	 * Reads the blocks of a stream in the block format
+	 *
+	 * @param inputStream
+	 *          the compressed stream, positioned at the magic number
+	 * @param outputStream
+	 *          the stream that the uncompressed data is written to
+	 * @param scratch
+	 *          the scratch space to decode with
+	 * @throws IOException
+	 */
+	private void uncompressBlocks ( DataInputStream inputStream,
+	                                OutputStream outputStream, Scratch scratch )
+	    throws IOException {
+		inputStream.readInt(); // skips the magic number
+		inputStream.readUnsignedByte(); // skips the version
+		int flags = inputStream.readUnsignedByte(); // the index after the end
+		                                            // marker is not needed here
+		checkFlags(flags);
+		boolean checksums = (flags & HuffConstants.FLAG_CHECKSUM) != 0;
+		int streamChecksum = 0; // the CRC-32C of the blocks so far
+
+		BlockDecoder decoder = scratch.decoder_;
+		HuffMetrics metrics = HuffMetrics.current();
+		long time = metrics == null ? 0 : System.nanoTime();
+		int type = inputStream.readUnsignedByte();
+		while ( type != HuffConstants.BLOCK_END ) {
+			int length = inputStream.readInt();
+			int payloadLength = inputStream.readInt();
+			checkBlockHeader(length,payloadLength);
+			checkBlockLength(length);
+
+			if ( scratch.payload_.length < payloadLength ) {
+				scratch.payload_ = new byte[payloadLength];
+			}
+			if ( scratch.block_.length < length ) {
+				scratch.block_ = new byte[length];
+			}
+			byte[] payload = scratch.payload_;
+			byte[] block = scratch.block_;
+			inputStream.readFully(payload,0,payloadLength);
+			int checksum = checksums ? inputStream.readInt() : 0;
+			if ( metrics != null ) {
+				metrics.time(HuffMetrics.READ,time);
+			}
+			decoder.decode(type,payload,0,payloadLength,block,0,length);
+			if ( checksums ) {
+				BlockDecoder.check(checksum,ByteBuffer.wrap(block,0,length));
+				streamChecksum = Crc32c.combine(streamChecksum,checksum,length);
+			}
+			if ( metrics != null ) {
+				time = System.nanoTime();
+			}
+			outputStream.write(block,0,length);
+			if ( metrics != null ) {
+				time = metrics.time(HuffMetrics.WRITE,time);
+			}
+			type = inputStream.readUnsignedByte();
+		}
+		if ( checksums && streamChecksum != inputStream.readInt() ) {
+			// the blocks were all right, but some were lost or reordered
+			throw new IllegalArgumentException("Corrupt compressed data: stream checksum mismatch");
+		}
+		outputStream.flush();
+	}
+
+	/**
+	 * Reads the header of data in the block format
+	 *
+	 * @param input
+	 *          big-endian buffer positioned at the magic number, which is moved
+	 *          past the header
+	 * @return the stream's flags
+	 * @throws IllegalArgumentException
+	 *           if the data is not in the block format
+	 */
+	private static int readHeader ( ByteBuffer input ) {
+		if ( input.remaining() < HuffConstants.STREAM_HEADER_SIZE
+		    || input.getInt() != HuffConstants.MAGIC_WORD ) {
+			throw new IllegalArgumentException("Please enter a file that has already been compressed");
+		}
+		int version = input.get() & 0xFF;
+		if ( version != (HuffConstants.VERSION_FLAG | HuffConstants.FORMAT_BLOCKS) ) {
+			throw new IllegalArgumentException("Only the block format can be uncompressed in memory");
+		}
+		int flags = input.get() & 0xFF;
+		checkFlags(flags);
+		return flags;
+	}
+
+	/**
+	 * Checks that a block-format stream uses only known flags
+	 *
+	 * @param flags
+	 *          the stream's flags
+	 * @throws IllegalArgumentException
+	 *           if there are unknown flags
+	 */
+	static void checkFlags ( int flags ) {
+		if ( (flags & ~(HuffConstants.FLAG_INDEX | HuffConstants.FLAG_CHECKSUM)) != 0 ) {
+			throw new IllegalArgumentException("Unsupported compressed file flags");
+		}
+	}
+
+	/**
+	 * Checks the lengths in a block's header
+	 *
+	 * @param length
+	 *          number of uncompressed bytes in the block
+	 * @param payloadLength
+	 *          number of bytes in the block's payload
+	 * @throws IllegalArgumentException
+	 *           if either length is impossible
+	 */
+	static void checkBlockHeader ( int length, int payloadLength ) {
+		if ( length < 1 || length > HuffConstants.MAX_BLOCK_SIZE || payloadLength < 1
+		    || payloadLength > BlockEncoder.maxPayloadLength(length) ) {
+			throw new IllegalArgumentException("Corrupt block header");
+		}
+	}
+
+	/**
+	 * Checks that a block is no longer than the codec uncompresses
+	 *
+	 * @param length
+	 *          number of uncompressed bytes in the block
+	 * @throws IllegalArgumentException
+	 *           if the block is too long
+	 */
+	private void checkBlockLength ( int length ) {
+		if ( length > maxBlockLength_ ) {
+			throw new IllegalArgumentException("Block of " + length
+			    + " bytes is longer than the " + maxBlockLength_ + " allowed");
+		}
+	}
+
+	/**
+	 * Reads the format version from the start of a compressed stream without
+	 * consuming it
+	 *
+	 * @param inputStream
+	 *          a stream that supports mark and reset, positioned at the magic
+	 *          number
+	 * @return the format version
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the stream does not start with the magic number
+	 */
+	static int readVersion ( InputStream inputStream ) throws IOException {
+		inputStream.mark(5);
+		DataInputStream dataStream = new DataInputStream(inputStream);
+		int magicNumber;
+		int version;
+		try {
+			magicNumber = dataStream.readInt();
+			version = dataStream.readUnsignedByte();
+		} catch ( EOFException e ) {
+			throw new IllegalArgumentException("Please enter a file that has already been compressed");
+		}
+		inputStream.reset();
+
+		if ( magicNumber != HuffConstants.MAGIC_WORD ) {
+			throw new IllegalArgumentException("Please enter a file that has already been compressed");
+		}
+		if ( (version & HuffConstants.VERSION_FLAG) != 0
+		    && (version & ~HuffConstants.VERSION_FLAG) != 0 ) {
+			return version & ~HuffConstants.VERSION_FLAG;
+		}
+		return HuffConstants.FORMAT_TREE; // the tree format has no version byte
+	}
+
+	/**
+	 * Fills part of an array with bytes from a stream
+	 *
+	 * @param inputStream
+	 *          the stream to read from
+	 * @param block
+	 *          the array to fill
+	 * @param size
+	 *          number of bytes wanted
+	 * @return the number of bytes read, which is less than size only at the end
+	 *         of the stream
+	 * @throws IOException
+	 */
+	static int readBlock ( InputStream inputStream, byte[] block, int size )
+	    throws IOException {
+		int length = 0;
+		while ( length < size ) {
+			int read = inputStream.read(block,length,size - length);
+			if ( read < 0 ) {
+				break;
+			}
+			length += read;
+		}
+		return length;
+	}
+
+	/**
+	 * Gets scratch space for a call: the calling thread's own, or one borrowed
+	 * from the pool if the codec is pooled
+	 *
+	 * @return the scratch space, to be handed to release when the call is done
+	 */
+	private Scratch acquire () {
+		if ( pool_ == null ) {
+			return scratch_.get();
+		}
+		Scratch scratch = pool_.poll();
+		return scratch != null ? scratch : new Scratch(maxCodeLength_,interleaved_);
+	}
+
+	/**
+	 * Hands back scratch space got from acquire. Arrays that grew past what one
+	 * block needs, as compressing a large array or reading a stream with larger
+	 * blocks makes them, are dropped rather than kept, so neither the pool nor
+	 * a long-lived thread holds on to them after the call.
+	 *
+	 * @param scratch
+	 *          the scratch space
+	 */
+	private void release ( Scratch scratch ) {
+		if ( scratch.block_.length > blockSize_ ) {
+			scratch.block_ = new byte[0];
+		}
+		if ( scratch.payload_.length > BlockEncoder.maxPayloadLength(blockSize_) ) {
+			scratch.payload_ = new byte[0];
+		}
+		if ( scratch.output_.length > maxCompressedLength(blockSize_) ) {
+			scratch.output_ = new byte[0];
+		}
+		if ( pool_ != null ) {
+			pool_.offer(scratch); // there are never more than the most calls
+			                      // that used the codec at once
+		}
+	}
+
+	/**
+	 * The encoder, decoder and arrays one thread keeps between calls
+	 */
+	private static class Scratch {
+		private final BlockEncoder encoder_; // encodes the thread's blocks
+		private final BlockDecoder decoder_; // decodes the thread's blocks
+		private final BlockIndex index_; // the index of the data being compressed
+		private byte[] output_; // receives compressed arrays before they are
+		                        // trimmed
+		private byte[] block_; // holds a block read from a stream
+		private byte[] payload_; // holds a payload read from a stream
+
+		Scratch ( int maxCodeLength, boolean interleaved ) {
+			encoder_ = new BlockEncoder(maxCodeLength,interleaved);
+			decoder_ = new BlockDecoder();
+			index_ = new BlockIndex();
+			output_ = new byte[0];
+			block_ = new byte[0];
+			payload_ = new byte[0];
+		}
+	}
+}
@@ -0,0 +1,997 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * The non-interactive command line:
+ *
+ * <pre>
+ * huff c   [options] paths...     compresses each file to file.huff
+ * huff d   [options] paths...     uncompresses each file.huff to file
+ * huff v   [options] paths...     checks each file.huff against its checksums
+ *                                 without writing anything
+ * huff a   [options] file.huff paths...
+ *                                 appends each file to file.huff, in order,
+ *                                 without recompressing what is already there
+ * huff t   -D table paths...      trains a code table on sample files and
+ *                                 saves it to table
+ * huff cmp [options] path1 path2  compares two files, or the files with the
+ *                                 same relative paths under two directories
+ * </pre>
+ *
+ * Paths can be files, directories or quoted globs such as "logs/**.log". A
+ * directory gives the files under it that are not compressed for c, and the
+ * compressed ones for d and v. "-" means standard input. Files are processed
+ * at the same time on a bounded pool of threads, and a summary of each file's
+ * size, ratio and throughput is printed when they are done. With -D, c codes
+ * every block that suits it with the trained table, and d and v load the
+ * table so blocks coded with it can be read. With -i, c splits each block
+ * into interleaved streams, which d decodes faster. With -m, the summary is
+ * printed as one JSON object per file and one for the total instead, with the
+ * time each stage took and the entropy of the data next to the bits the code
+ * spent on it; the totals are also published through JMX while the command
+ * runs.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffCommand {
+	public static final int EXIT_OK = 0; // everything succeeded and compared
+	                                     // equal
+	public static final int EXIT_DIFFERENT = 1; // some compared files differ
+	public static final int EXIT_USAGE = 2; // the command line is wrong
+	public static final int EXIT_FAILED = 3; // some file could not be processed
+
+	private static final String SUFFIX = ".huff"; // added to compressed files
+	private static final String STDIN = "-"; // the path that means standard
+	                                         // input
+	private static final String USAGE =
+	    "Usage: huff c|d|v|a|t|cmp [options] paths...\n"
+	        + "  -c          write to standard output\n"
+	        + "  -o dir      write output files to dir\n"
+	        + "  -f          overwrite existing output files\n"
+	        + "  -j threads  number of worker threads (default: processors)\n"
+	        + "  -b bytes    block size when compressing\n"
+	        + "  -l bits     longest code when compressing (default: "
+	        + HuffConstants.DEFAULT_MAX_CODE_LENGTH + ")\n"
+	        + "  -D table    code table to compress with or read, or to train (t)\n"
+	        + "  -i          split blocks into interleaved streams that decode faster\n"
+	        + "  -m          print metrics as JSON, one line per file and a total\n"
+	        + "  -q          print only errors\n";
+	private static final int TRAIN_CHUNK_SIZE = 1 << 20; // bytes of a sample
+	                                                     // counted at a time
+
+	private final PrintStream out_; // where output and the summary go
+	private final PrintStream err_; // where errors go
+	private boolean toStdout_; // writes the data to standard output
+	private File outputDirectory_; // where output files go, or null for next to
+	                               // the input
+	private boolean force_; // overwrites existing output files
+	private int threads_ = Runtime.getRuntime().availableProcessors(); // size
+	                                                                   // of the
+	                                                                   // pool
+	private int blockSize_ = HuffConstants.DEFAULT_BLOCK_SIZE; // bytes per
+	                                                           // block
+	private int maxCodeLength_ =
+	    HuffConstants.DEFAULT_MAX_CODE_LENGTH; // longest code allowed
+	private boolean quiet_; // prints only errors
+	private boolean metrics_; // prints metrics as JSON instead of the summary
+	private String tableFile_; // the code table's file, or null for none
+	private boolean interleaved_; // codes blocks as interleaved streams
+	private HuffCodec codec_; // compresses with the options on one thread
+
+	/**
+	 * @param out
+	 *          where output and the summary go
+	 * @param err
+	 *          where errors go
+	 */
+	public HuffCommand ( PrintStream out, PrintStream err ) {
+		out_ = out;
+		err_ = err;
+	}
+
+	public static void main ( String[] args ) {
+		System.exit(new HuffCommand(System.out,System.err).run(args));
+	}
+
+	/**
+	 * Runs a command
+	 *
+	 * @param args
+	 *          the command, options and paths
+	 * @return the exit code
+	 */
+	public int run ( String[] args ) {
+		if ( args.length == 0 ) {
+			err_.print(USAGE);
+			return EXIT_USAGE;
+		}
+		String command = args[0];
+		if ( !command.equals("c") && !command.equals("d") && !command.equals("v")
+		    && !command.equals("a") && !command.equals("t")
+		    && !command.equals("cmp") ) {
+			err_.println("huff: Unknown command " + command);
+			err_.print(USAGE);
+			return EXIT_USAGE;
+		}
+		List<String> paths = new ArrayList<String>();
+		try {
+			for ( int i = 1 ; i < args.length ; i++ ) {
+				String arg = args[i];
+				if ( arg.equals("-c") ) {
+					toStdout_ = true;
+				} else if ( arg.equals("-f") ) {
+					force_ = true;
+				} else if ( arg.equals("-q") ) {
+					quiet_ = true;
+				} else if ( arg.equals("-m") ) {
+					metrics_ = true;
+				} else if ( arg.equals("-i") ) {
+					interleaved_ = true;
+				} else if ( arg.equals("-o") && i + 1 < args.length ) {
+					outputDirectory_ = new File(args[++i]);
+				} else if ( arg.equals("-j") && i + 1 < args.length ) {
+					threads_ = Integer.parseInt(args[++i]);
+				} else if ( arg.equals("-b") && i + 1 < args.length ) {
+					blockSize_ = Integer.parseInt(args[++i]);
+				} else if ( arg.equals("-l") && i + 1 < args.length ) {
+					maxCodeLength_ = Integer.parseInt(args[++i]);
+				} else if ( arg.equals("-D") && i + 1 < args.length ) {
+					tableFile_ = args[++i];
+				} else if ( arg.startsWith("-") && !arg.equals(STDIN) ) {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				} else {
+					paths.add(arg);
+				}
+			}
+			if ( threads_ < 1 ) {
+				throw new IllegalArgumentException("Thread count must be at least 1");
+			}
+			if ( blockSize_ < 1 || blockSize_ > HuffConstants.MAX_BLOCK_SIZE ) {
+				throw new IllegalArgumentException("Block size must be between 1 and "
+				    + HuffConstants.MAX_BLOCK_SIZE);
+			}
+			BlockEncoder.checkMaxCodeLength(maxCodeLength_);
+			if ( paths.isEmpty() ) {
+				throw new IllegalArgumentException("No paths given");
+			}
+			if ( outputDirectory_ != null && !outputDirectory_.isDirectory() ) {
+				throw new IllegalArgumentException("Not a directory: "
+				    + outputDirectory_);
+			}
+			if ( command.equals("t") && tableFile_ == null ) {
+				throw new IllegalArgumentException("t needs -D table");
+			}
+			if ( command.equals("a") && (paths.size() < 2 || toStdout_) ) {
+				throw new IllegalArgumentException("a needs a compressed file and the "
+				    + "paths to append to it");
+			}
+		} catch ( IllegalArgumentException e ) { // includes NumberFormatException
+			err_.println("huff: " + e.getMessage());
+			err_.print(USAGE);
+			return EXIT_USAGE;
+		}
+
+		try {
+			if ( command.equals("t") ) {
+				return train(expand(paths,false));
+			}
+			CodeTable table = null;
+			if ( tableFile_ != null ) {
+				InputStream inputStream = new FileInputStream(tableFile_);
+				try {
+					table = CodeTable.register(CodeTable.read(inputStream));
+				} finally {
+					inputStream.close();
+				}
+			}
+			codec_ = new HuffCodec(blockSize_,maxCodeLength_,table,interleaved_);
+			if ( metrics_ ) {
+				HuffMetrics.enable();
+			}
+			if ( command.equals("c") ) {
+				return process(true,expand(paths,false));
+			} else if ( command.equals("d") ) {
+				return process(false,expand(paths,true));
+			} else if ( command.equals("v") ) {
+				return verify(expand(paths,true));
+			} else if ( command.equals("a") ) {
+				return append(paths.get(0),expand(paths.subList(1,paths.size()),false));
+			} else {
+				return compare(paths);
+			}
+		} catch ( IOException e ) {
+			err_.println("huff: " + e.getMessage());
+			return EXIT_FAILED;
+		} catch ( IllegalArgumentException e ) {
+			err_.println("huff: " + e.getMessage());
+			return EXIT_USAGE;
+		}
+	}
+
+	/**
+	 * Compresses or uncompresses files
+	 *
+	 * @param compress
+	 *          true to compress, false to uncompress
+	 * @param files
+	 *          the input files
+	 * @return the exit code
+	 * @throws IOException
+	 */
+	private int process ( final boolean compress, List<String> files )
+	    throws IOException {
+		if ( toStdout_ ) {
+			if ( compress && files.size() > 1 ) { // concatenated compressed streams
+			                                      // could not be told apart
+				throw new IllegalArgumentException("Only one file can be compressed to "
+				    + "standard output");
+			}
+			return streamToStdout(compress,files);
+		}
+		if ( files.contains(STDIN) ) {
+			throw new IllegalArgumentException("Standard input needs -c");
+		}
+
+		final int blockThreads = files.size() == 1 ? threads_ : 1; // a single
+		                                                           // file has its
+		                                                           // blocks split
+		                                                           // instead
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads_,
+		                                                             files.size()));
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		try {
+			for ( final String file : files ) {
+				results.add(pool.submit(() -> convert(compress,file,blockThreads)));
+			}
+			return summarize(results,start,out_);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compresses or uncompresses one file into the output file named after it
+	 *
+	 * @param compress
+	 *          true to compress, false to uncompress
+	 * @param file
+	 *          the input file
+	 * @param threads
+	 *          number of threads to split the file's blocks among
+	 * @return the file's result
+	 */
+	private Result convert ( boolean compress, String file, int threads ) {
+		Result result = new Result(file);
+		File output = new File(outputName(compress,file));
+		result.output_ = output.getPath();
+		result.metrics_ = metrics_ ? HuffMetrics.open() : null;
+		long start = System.nanoTime();
+		try {
+			if ( output.exists() && !force_ ) {
+				throw new IOException(output + " already exists; use -f to overwrite");
+			}
+			if ( output.getCanonicalFile().equals(new File(file).getCanonicalFile()) ) {
+				throw new IOException(output + " is the input file");
+			}
+			try {
+				if ( compress ) {
+					compress(file,output.getPath(),threads);
+				} else {
+					Huff.uncompress(file,output.getPath(),threads);
+				}
+			} catch ( IOException | RuntimeException e ) {
+				output.delete(); // leaves no partial output behind
+				throw e;
+			}
+			result.inputBytes_ = new File(file).length();
+			result.outputBytes_ = output.length();
+		} catch ( IOException e ) {
+			result.error_ = e.getMessage();
+		} catch ( IllegalArgumentException e ) {
+			result.error_ = e.getMessage();
+		} finally {
+			HuffMetrics.close();
+		}
+		result.nanos_ = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Verifies compressed files
+	 *
+	 * @param files
+	 *          the compressed files
+	 * @return the exit code
+	 */
+	private int verify ( List<String> files ) {
+		if ( files.contains(STDIN) ) {
+			throw new IllegalArgumentException("Standard input cannot be verified");
+		}
+		final int blockThreads = files.size() == 1 ? threads_ : 1;
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads_,
+		                                                             files.size()));
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		try {
+			for ( final String file : files ) {
+				results.add(pool.submit(() -> verify(file,blockThreads)));
+			}
+			return summarize(results,start,out_);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Verifies one compressed file
+	 *
+	 * @param file
+	 *          the compressed file
+	 * @param threads
+	 *          number of threads to split the file's blocks among
+	 * @return the file's result
+	 */
+	private Result verify ( String file, int threads ) {
+		Result result = new Result(file);
+		result.metrics_ = metrics_ ? HuffMetrics.open() : null;
+		long start = System.nanoTime();
+		try {
+			long length = Huff.verify(file,threads);
+			result.nanos_ = System.nanoTime() - start;
+			result.inputBytes_ = new File(file).length();
+			result.outputBytes_ = length;
+			result.message_ = String.format("OK, %d bytes, %.1f MB/s",length,
+			                                megabytesPerSecond(length,
+			                                                   result.nanos_));
+		} catch ( IOException e ) {
+			result.error_ = e.getMessage();
+		} catch ( IllegalArgumentException e ) {
+			result.error_ = e.getMessage();
+		} finally {
+			HuffMetrics.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Appends files to a compressed file, one after another so their data keeps
+	 * its order. Stops at the first file that fails, which leaves the
+	 * compressed file as it was before that file.
+	 *
+	 * @param archive
+	 *          the compressed file, which is created if it does not exist
+	 * @param files
+	 *          the files to append
+	 * @return the exit code
+	 * @throws IOException
+	 */
+	private int append ( String archive, List<String> files ) throws IOException {
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		File archiveFile = new File(archive).getCanonicalFile();
+		FileChannel channel =
+		    FileChannel.open(archiveFile.toPath(),StandardOpenOption.READ,
+		                     StandardOpenOption.WRITE,StandardOpenOption.CREATE);
+		try {
+			for ( String file : files ) {
+				Result result = new Result(file);
+				result.output_ = archive;
+				result.metrics_ = metrics_ ? HuffMetrics.open() : null;
+				long fileStart = System.nanoTime();
+				InputStream inputStream = null;
+				try {
+					if ( !file.equals(STDIN)
+					    && new File(file).getCanonicalFile().equals(archiveFile) ) {
+						throw new IOException(archive + " is the input file");
+					}
+					inputStream = file.equals(STDIN) ? System.in
+					    : new FileInputStream(file);
+					long size = channel.size();
+					result.inputBytes_ = codec_.append(channel,inputStream);
+					result.outputBytes_ = channel.size() - size;
+				} catch ( IOException e ) {
+					result.error_ = e.getMessage();
+				} catch ( IllegalArgumentException e ) {
+					result.error_ = e.getMessage();
+				} finally {
+					HuffMetrics.close();
+					if ( inputStream != null && !file.equals(STDIN) ) {
+						inputStream.close();
+					}
+				}
+				result.nanos_ = System.nanoTime() - fileStart;
+				results.add(CompletableFuture.completedFuture(result));
+				if ( result.error_ != null ) {
+					break; // later files would land out of order
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		return summarize(results,start,out_);
+	}
+
+	/**
+	 * Compresses a file with the configured block size
+	 *
+	 * @param file1
+	 *          the file to compress
+	 * @param file2
+	 *          the file to save the compressed data in
+	 * @param threads
+	 *          number of worker threads
+	 * @throws IOException
+	 */
+	private void compress ( String file1, String file2, int threads )
+	    throws IOException {
+		ParallelCompressor compressor = new ParallelCompressor(threads,blockSize_,
+		                                                       maxCodeLength_,
+		                                                       interleaved_);
+		InputStream inputStream = new FileInputStream(file1);
+		try {
+			OutputStream outputStream = new FileOutputStream(file2);
+			try {
+				if ( threads == 1 || codec_.getTable() != null ) { // tables are only
+				                                                    // used on one
+				                                                    // thread
+					codec_.compress(inputStream,outputStream);
+				} else {
+					compressor.compress(inputStream,outputStream);
+				}
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			inputStream.close();
+			compressor.shutdown();
+		}
+	}
+
+	/**
+	 * Compresses or uncompresses files to standard output, one after another
+	 *
+	 * @param compress
+	 *          true to compress, false to uncompress
+	 * @param files
+	 *          the input files
+	 * @return the exit code
+	 */
+	private int streamToStdout ( boolean compress, List<String> files ) {
+		OutputStream outputStream = new BufferedOutputStream(out_,1 << 16);
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		for ( String file : files ) {
+			Result result = new Result(file);
+			result.output_ = "(stdout)";
+			result.metrics_ = metrics_ ? HuffMetrics.open() : null;
+			long fileStart = System.nanoTime();
+			CountingInputStream inputStream = null;
+			try {
+				inputStream =
+				    new CountingInputStream(file.equals(STDIN) ? System.in
+				        : new FileInputStream(file));
+				CountingOutputStream counted = new CountingOutputStream(outputStream);
+				if ( compress ) {
+					codec_.compress(inputStream,counted);
+				} else {
+					codec_.uncompress(inputStream,counted);
+				}
+				counted.flush();
+				result.inputBytes_ = inputStream.count_;
+				result.outputBytes_ = counted.count_;
+			} catch ( IOException e ) {
+				result.error_ = e.getMessage();
+			} catch ( IllegalArgumentException e ) {
+				result.error_ = e.getMessage();
+			} finally {
+				HuffMetrics.close();
+				if ( inputStream != null && !file.equals(STDIN) ) {
+					try {
+						inputStream.close();
+					} catch ( IOException e ) {
+						// nothing more can be done with the input
+					}
+				}
+			}
+			result.nanos_ = System.nanoTime() - fileStart;
+			results.add(CompletableFuture.completedFuture(result));
+			if ( result.error_ != null ) {
+				break; // the rest of the output would be out of place
+			}
+		}
+		return summarize(results,start,err_); // keeps the summary out of the data
+	}
+
+	/**
+	 * Trains a code table on sample files and saves it
+	 *
+	 * @param files
+	 *          the samples
+	 * @return the exit code
+	 * @throws IOException
+	 */
+	private int train ( List<String> files ) throws IOException {
+		File output = new File(tableFile_);
+		if ( output.exists() && !force_ ) {
+			throw new IOException(output + " already exists; use -f to overwrite");
+		}
+		FrequencyCounter counter = new FrequencyCounter();
+		long[] frequencies = new long[HuffConstants.BLOCK_ALPHABET_SIZE];
+		byte[] chunk = new byte[TRAIN_CHUNK_SIZE];
+		long total = 0;
+		for ( String file : files ) {
+			InputStream inputStream =
+			    file.equals(STDIN) ? System.in : new FileInputStream(file);
+			try {
+				int length = HuffCodec.readBlock(inputStream,chunk,chunk.length);
+				while ( length > 0 ) {
+					int[] counts = counter.count(ByteBuffer.wrap(chunk,0,length));
+					for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+						frequencies[symbol] += counts[symbol];
+					}
+					total += length;
+					length = HuffCodec.readBlock(inputStream,chunk,chunk.length);
+				}
+			} finally {
+				if ( !file.equals(STDIN) ) {
+					inputStream.close();
+				}
+			}
+		}
+
+		CodeTable table = CodeTable.train(frequencies,maxCodeLength_);
+		OutputStream outputStream = new FileOutputStream(output);
+		try {
+			table.write(outputStream);
+		} finally {
+			outputStream.close();
+		}
+		if ( !quiet_ ) {
+			out_.printf("%s: table %08x trained on %d bytes from %d files%n",output,
+			            table.getId(),total,files.size());
+		}
+		return EXIT_OK;
+	}
+
+	/**
+	 * Compares two files, or the files under two directories
+	 *
+	 * @param paths
+	 *          the two paths
+	 * @return the exit code
+	 * @throws IOException
+	 */
+	private int compare ( List<String> paths ) throws IOException {
+		if ( paths.size() != 2 ) {
+			throw new IllegalArgumentException("cmp needs exactly two paths");
+		}
+		final Path first = Paths.get(paths.get(0));
+		final Path second = Paths.get(paths.get(1));
+		List<String[]> pairs = new ArrayList<String[]>();
+		if ( Files.isDirectory(first) && Files.isDirectory(second) ) {
+			for ( String file : expand(Collections.singletonList(first.toString()),null) ) {
+				Path relative = first.relativize(Paths.get(file));
+				pairs.add(new String[] { file, second.resolve(relative).toString() });
+			}
+		} else {
+			pairs.add(new String[] { first.toString(), second.toString() });
+		}
+
+		ExecutorService pool =
+		    Executors.newFixedThreadPool(Math.min(threads_,pairs.size()));
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		try {
+			for ( final String[] pair : pairs ) {
+				results.add(pool.submit(() -> compare(pair[0],pair[1])));
+			}
+			return summarize(results,start,out_);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compares two files
+	 *
+	 * @param file1
+	 *          the first file
+	 * @param file2
+	 *          the second file
+	 * @return the comparison's result
+	 */
+	private Result compare ( String file1, String file2 ) {
+		Result result = new Result(file1);
+		result.output_ = file2;
+		long start = System.nanoTime();
+		try {
+			String message = Huff.compare(file1,file2);
+			result.different_ = !message.startsWith("The files are the same");
+			result.message_ = message.trim().replace('\n',' ');
+			result.inputBytes_ = new File(file1).length();
+			result.outputBytes_ = new File(file2).length();
+		} catch ( IOException e ) {
+			result.error_ = e.getMessage();
+		}
+		result.nanos_ = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Waits for every result, prints a line for each and a total, and works out
+	 * the exit code
+	 *
+	 * @param results
+	 *          the results in the order the paths were given
+	 * @param start
+	 *          when the work started, from System.nanoTime()
+	 * @param summary
+	 *          where the summary goes
+	 * @return the exit code
+	 */
+	private int summarize ( List<Future<Result>> results, long start,
+	                        PrintStream summary ) {
+		int exitCode = EXIT_OK;
+		long inputBytes = 0;
+		long outputBytes = 0;
+		int failed = 0;
+		for ( Future<Result> future : results ) {
+			Result result;
+			try {
+				result = future.get();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				err_.println("huff: interrupted");
+				return EXIT_FAILED;
+			} catch ( ExecutionException e ) {
+				err_.println("huff: " + e.getCause());
+				exitCode = EXIT_FAILED;
+				failed++;
+				continue;
+			}
+
+			if ( metrics_ ) {
+				summary.println(toJson(result));
+			}
+			if ( result.error_ != null ) {
+				err_.println("huff: " + result.input_ + ": " + result.error_);
+				exitCode = EXIT_FAILED;
+				failed++;
+				continue;
+			}
+			if ( result.different_ && exitCode == EXIT_OK ) {
+				exitCode = EXIT_DIFFERENT;
+			}
+			inputBytes += result.inputBytes_;
+			outputBytes += result.outputBytes_;
+			if ( !quiet_ && !metrics_ ) {
+				summary.println(result.message_ != null
+				    ? result.input_ + (result.output_ == null ? "" : " " + result.output_)
+				        + ": " + result.message_
+				    : String.format("%s -> %s: %d -> %d bytes (%.1f%%), %.1f MB/s",
+				                    result.input_,result.output_,result.inputBytes_,
+				                    result.outputBytes_,
+				                    ratio(result.outputBytes_,result.inputBytes_),
+				                    megabytesPerSecond(result.inputBytes_,
+				                                       result.nanos_)));
+			}
+		}
+		if ( metrics_ ) {
+			HuffMetrics total = HuffMetrics.getGlobal();
+			summary.println(String.format("{\"files\":%d,\"failed\":%d,\"inputBytes\":%d,"
+			                                  + "\"outputBytes\":%d,\"nanos\":%d,\"metrics\":%s}",
+			                              results.size(),failed,inputBytes,
+			                              outputBytes,System.nanoTime() - start,
+			                              total == null ? "null" : total.toJson()));
+		} else if ( !quiet_ && results.size() > 1 ) {
+			summary.println(String.format("%d files, %d failed: %d -> %d bytes (%.1f%%), %.1f MB/s",
+			                              results.size(),failed,inputBytes,
+			                              outputBytes,ratio(outputBytes,inputBytes),
+			                              megabytesPerSecond(inputBytes,
+			                                                 System.nanoTime()
+			                                                     - start)));
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Formats one file's result and metrics as a JSON object on one line
+	 *
+	 * @param result
+	 *          the file's result
+	 * @return the JSON text
+	 */
+	private static String toJson ( Result result ) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"input\":").append(quote(result.input_));
+		json.append(",\"output\":").append(quote(result.output_));
+		if ( result.error_ != null ) {
+			json.append(",\"error\":").append(quote(result.error_));
+		} else {
+			json.append(",\"inputBytes\":").append(result.inputBytes_);
+			json.append(",\"outputBytes\":").append(result.outputBytes_);
+		}
+		if ( result.message_ != null ) {
+			json.append(",\"message\":").append(quote(result.message_));
+		}
+		json.append(",\"nanos\":").append(result.nanos_);
+		json.append(",\"metrics\":")
+		    .append(result.metrics_ == null ? "null" : result.metrics_.toJson());
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Quotes a string for JSON
+	 *
+	 * @param text
+	 *          the string, or null
+	 * @return the quoted string, or null
+	 */
+	private static String quote ( String text ) {
+		if ( text == null ) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder("\"");
+		for ( int i = 0 ; i < text.length() ; i++ ) {
+			char c = text.charAt(i);
+			if ( c == '"' || c == '\\' ) {
+				quoted.append('\\').append(c);
+			} else if ( c < ' ' ) {
+				quoted.append(String.format("\\u%04x",(int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Works out an output file's name
+	 *
+	 * @param compress
+	 *          true if the file is being compressed
+	 * @param file
+	 *          the input file
+	 * @return the output file's path
+	 */
+	private String outputName ( boolean compress, String file ) {
+		String name;
+		if ( compress ) {
+			name = file + SUFFIX;
+		} else if ( file.endsWith(SUFFIX) ) {
+			name = file.substring(0,file.length() - SUFFIX.length());
+		} else {
+			name = file + ".out";
+		}
+		if ( outputDirectory_ != null ) {
+			name = new File(outputDirectory_,new File(name).getName()).getPath();
+		}
+		return name;
+	}
+
+	/**
+	 * Turns the paths given on the command line into a list of files. Directories
+	 * are searched for the files under them, and globs for the files they match.
+	 *
+	 * @param paths
+	 *          the paths
+	 * @param compressed
+	 *          true to take only compressed files from directories, false to
+	 *          leave them out, or null to take every file
+	 * @return the files, in the order the paths were given
+	 * @throws IOException
+	 */
+	private static List<String> expand ( List<String> paths, Boolean compressed )
+	    throws IOException {
+		List<String> files = new ArrayList<String>();
+		for ( String path : paths ) {
+			if ( path.equals(STDIN) ) {
+				files.add(path);
+			} else if ( isGlob(path) ) {
+				int end = 0; // the directories before the first glob character
+				for ( int i = 0 ; !isGlob(path.substring(i,i + 1)) ; i++ ) {
+					if ( path.charAt(i) == '/' || path.charAt(i) == File.separatorChar ) {
+						end = i + 1;
+					}
+				}
+				PathMatcher matcher =
+				    FileSystems.getDefault().getPathMatcher("glob:" + path);
+				Path directory = Paths.get(path.substring(0,end));
+				int before = files.size();
+				if ( Files.isDirectory(directory) ) {
+					addFiles(directory,matcher,files);
+				}
+				if ( files.size() == before ) {
+					throw new FileNotFoundException(path + " matches no files");
+				}
+			} else if ( new File(path).isDirectory() ) {
+				PathMatcher matcher = null;
+				if ( compressed != null ) { // like gzip -r, skips files with the
+				                            // wrong suffix
+					matcher = file -> file.toString().endsWith(SUFFIX) == compressed;
+				}
+				addFiles(Paths.get(path),matcher,files);
+			} else {
+				files.add(path); // a missing file is reported when it is opened
+			}
+		}
+		if ( files.isEmpty() ) {
+			throw new FileNotFoundException("No files to process");
+		}
+		return files;
+	}
+
+	/**
+	 * Adds the regular files under a directory, in sorted order
+	 *
+	 * @param directory
+	 *          the directory to search
+	 * @param matcher
+	 *          the glob the files must match, or null for all files
+	 * @param files
+	 *          the list to add the files to
+	 * @throws IOException
+	 */
+	private static void addFiles ( Path directory, PathMatcher matcher,
+	                               List<String> files ) throws IOException {
+		Stream<Path> walk = Files.walk(directory);
+		try {
+			walk.filter(path -> Files.isRegularFile(path)
+			    && (matcher == null || matcher.matches(path)))
+			    .sorted()
+			    .forEach(path -> files.add(path.toString()));
+		} finally {
+			walk.close();
+		}
+	}
+
+	/**
+	 * Checks if a path has glob characters in it
+	 *
+	 * @param path
+	 *          the path
+	 * @return true if the path is a glob
+	 */
+	private static boolean isGlob ( String path ) {
+		for ( int i = 0 ; i < path.length() ; i++ ) {
+			if ( "*?[{".indexOf(path.charAt(i)) >= 0 ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets a compressed size as a percentage of the original
+	 *
+	 * @param compressed
+	 *          the compressed size
+	 * @param original
+	 *          the original size
+	 * @return the percentage
+	 */
+	private static double ratio ( long compressed, long original ) {
+		return original == 0 ? 0 : 100.0 * compressed / original;
+	}
+
+	/**
+	 * Gets a throughput
+	 *
+	 * @param bytes
+	 *          number of bytes handled
+	 * @param nanos
+	 *          time taken in nanoseconds
+	 * @return the throughput in MB/s
+	 */
+	private static double megabytesPerSecond ( long bytes, long nanos ) {
+		return nanos == 0 ? 0 : bytes / (nanos / 1e9) / 1e6;
+	}
+
+	/**
+	 * What happened to one file
+	 */
+	private static class Result {
+		private final String input_; // the input file
+		private String output_; // the output file, or the second compared file
+		private long inputBytes_; // size of the input
+		private long outputBytes_; // size of the output
+		private long nanos_; // time taken
+		private String error_; // why the file failed, or null
+		private String message_; // the comparison's message, or null
+		private boolean different_; // true if the compared files differ
+		private HuffMetrics metrics_; // the file's metrics, or null
+
+		Result ( String input ) {
+			input_ = input;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a stream
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count_; // bytes read so far
+
+		CountingInputStream ( InputStream inputStream ) {
+			super(inputStream);
+		}
+
+		@Override
+		public int read () throws IOException {
+			int b = super.read();
+			if ( b >= 0 ) {
+				count_++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read ( byte[] b, int off, int len ) throws IOException {
+			int read = super.read(b,off,len);
+			if ( read > 0 ) {
+				count_ += read;
+			}
+			return read;
+		}
+
+		@Override
+		public boolean markSupported () {
+			return false; // a reset would count bytes twice
+		}
+	}
+
+	/**
+	 * Counts the bytes written to a stream, and leaves it open when closed
+	 */
+	static class CountingOutputStream extends FilterOutputStream {
+		long count_; // bytes written so far
+
+		CountingOutputStream ( OutputStream outputStream ) {
+			super(outputStream);
+		}
+
+		@Override
+		public void write ( int b ) throws IOException {
+			out.write(b);
+			count_++;
+		}
+
+		@Override
+		public void write ( byte[] b, int off, int len ) throws IOException {
+			out.write(b,off,len);
+			count_ += len;
+		}
+
+		@Override
+		public void close () throws IOException {
+			flush();
+		}
+	}
+}
@@ -16,8 +16,171 @@ public class HuffConstants {
 	public static final BitString MAGIC_NUMBER =
 	    new BitString("10101010101010101010101010101010");
 
+	/**
+	 * The magic number as a 32-bit word, for readers that work on raw bits.
+	 */
+	public static final int MAGIC_WORD = 0xAAAAAAAA;
+
 	/**
 	 * Pseudo-eof character.
 	 */
 	public static final Character PSEUDO_EOF = Character.MIN_VALUE;
+
+	/**
+	 * Set in the byte after the magic number by every format that came after the
+	 * original tree format. The tree format can never start with this flag
+	 * followed by anything but zeros, so the two are told apart by that byte.
+	 */
+	public static final int VERSION_FLAG = 0x80;
+
+	/**
+	 * The original format, which stores the whole coding tree and has no version
+	 * byte.
+	 */
+	public static final int FORMAT_TREE = 1;
+
+	/**
+	 * Format that stores canonical code lengths instead of the coding tree.
+	 */
+	public static final int FORMAT_CANONICAL = 2;
+
+	/**
+	 * Number of symbols in the canonical format: one per 8-bit character plus
+	 * the end-of-file symbol.
+	 */
+	public static final int ALPHABET_SIZE = 257;
+
+	/**
+	 * Symbol that ends a file in the canonical format.
+	 */
+	public static final int EOF_SYMBOL = 256;
+
+	/**
+	 * Number of bits used for each code length in a canonical header.
+	 */
+	public static final int CODE_LENGTH_BITS = 6;
+
+	/**
+	 * Format that splits the input into self-describing blocks, each with its
+	 * own code lengths.
+	 */
+	public static final int FORMAT_BLOCKS = 3;
+
+	/**
+	 * Number of symbols in a block: one per byte value. Blocks store their
+	 * length, so they need no end-of-file symbol.
+	 */
+	public static final int BLOCK_ALPHABET_SIZE = 256;
+
+	/**
+	 * Number of input bytes in each block unless the caller picks another size.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * Longest code a block's Huffman code may use unless the caller picks
+	 * another limit. Codes this short need at most two decode table lookups.
+	 */
+	public static final int DEFAULT_MAX_CODE_LENGTH = 15;
+
+	/**
+	 * Largest number of input bytes allowed in a block.
+	 */
+	public static final int MAX_BLOCK_SIZE = 1 << 26;
+
+	/**
+	 * Block type that marks the end of the blocks.
+	 */
+	public static final int BLOCK_END = 0;
+
+	/**
+	 * Block type of a Huffman-coded block.
+	 */
+	public static final int BLOCK_HUFFMAN = 1;
+
+	/**
+	 * Block type of a block coded with a trained code table. The payload is
+	 * the table's ID followed by the coded bytes, with no code lengths.
+	 */
+	public static final int BLOCK_TABLE = 2;
+
+	/**
+	 * Block type of a block stored as it is, used when coding would not make
+	 * it smaller. The payload is the block's bytes.
+	 */
+	public static final int BLOCK_STORED = 3;
+
+	/**
+	 * Block type of a Huffman-coded block whose bytes are dealt round-robin
+	 * into INTERLEAVED_STREAMS bit streams, so they can be decoded together.
+	 * The payload is the code lengths padded to a whole byte, a jump table
+	 * holding the byte lengths of every stream but the last, and the streams
+	 * one after another.
+	 */
+	public static final int BLOCK_INTERLEAVED = 4;
+
+	/**
+	 * Number of bit streams in an interleaved block.
+	 */
+	public static final int INTERLEAVED_STREAMS = 4;
+
+	/**
+	 * Number of bytes in an interleaved block's jump table.
+	 */
+	public static final int JUMP_TABLE_SIZE = 4 * (INTERLEAVED_STREAMS - 1);
+
+	/**
+	 * Number of bytes in a code table's ID.
+	 */
+	public static final int TABLE_ID_SIZE = 4;
+
+	/**
+	 * Format of a saved code table rather than of compressed data: the table's
+	 * ID, then one byte per byte value holding its code length.
+	 */
+	public static final int FORMAT_TABLE = 4;
+
+	/**
+	 * Stream flag saying that a block index follows the end marker. The index
+	 * holds one entry per block (its offset in the stream as a long, then its
+	 * payload length and uncompressed length as ints) and ends with a trailer of
+	 * INDEX_TRAILER_SIZE bytes: the block count as an int, the offset of the
+	 * index as a long, and the magic number again.
+	 */
+	public static final int FLAG_INDEX = 1;
+
+	/**
+	 * Stream flag saying that the data is checksummed. Each block's payload is
+	 * followed by the CRC-32C of the block's uncompressed bytes, and the end
+	 * marker is followed by the CRC-32C of the whole uncompressed stream. Each
+	 * checksum takes CHECKSUM_SIZE bytes.
+	 */
+	public static final int FLAG_CHECKSUM = 2;
+
+	/**
+	 * Number of bytes in a checksum.
+	 */
+	public static final int CHECKSUM_SIZE = 4;
+
+	/**
+	 * Number of bytes in each block index entry.
+	 */
+	public static final int INDEX_ENTRY_SIZE = 16;
+
+	/**
+	 * Number of bytes in the trailer at the very end of an indexed stream.
+	 */
+	public static final int INDEX_TRAILER_SIZE = 16;
+
+	/**
+	 * Number of bytes before a block's payload: its type, its uncompressed
+	 * length and its payload length.
+	 */
+	public static final int BLOCK_HEADER_SIZE = 9;
+
+	/**
+	 * Number of bytes before the first block: the magic number, the version and
+	 * the flags.
+	 */
+	public static final int STREAM_HEADER_SIZE = 6;
 }
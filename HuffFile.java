@@ -0,0 +1,197 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads byte ranges out of a compressed file without uncompressing all of it.
+ * The block index says which blocks cover a range; only those are decoded,
+ * and the most recently used decoded blocks are kept in a cache. A HuffFile
+ * can be shared between threads.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffFile implements Closeable {
+	/**
+	 * Number of decoded blocks kept unless the caller picks another number.
+	 */
+	public static final int DEFAULT_CACHED_BLOCKS = 16;
+
+	private final FileChannel channel_; // the compressed file
+	private final BlockIndex index_; // where each block is
+	private final Map<Integer,byte[]> cache_; // recently decoded blocks, least
+	                                          // recently used first
+
+	/**
+	 * @param channel
+	 *          the compressed file
+	 * @param index
+	 *          the file's block index
+	 * @param cachedBlocks
+	 *          most decoded blocks to keep
+	 */
+	private HuffFile ( FileChannel channel, BlockIndex index,
+	                   final int cachedBlocks ) {
+		channel_ = channel;
+		index_ = index;
+		cache_ = new LinkedHashMap<Integer,byte[]>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry ( Map.Entry<Integer,byte[]> eldest ) {
+				return size() > cachedBlocks;
+			}
+		};
+	}
+
+	/**
+	 * Opens a compressed file with the default cache size
+	 *
+	 * @param path
+	 *          the compressed file
+	 * @return the opened file
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the file is not in the block format or is corrupt
+	 */
+	public static HuffFile open ( String path ) throws IOException {
+		return open(path,DEFAULT_CACHED_BLOCKS);
+	}
+
+	/**
+	 * Opens a compressed file
+	 *
+	 * @param path
+	 *          the compressed file
+	 * @param cachedBlocks
+	 *          most decoded blocks to keep
+	 * @return the opened file
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the file is not in the block format or is corrupt
+	 */
+	public static HuffFile open ( String path, int cachedBlocks )
+	    throws IOException {
+		if ( cachedBlocks < 1 ) {
+			throw new IllegalArgumentException("At least one block must be cached");
+		}
+		FileChannel channel =
+		    FileChannel.open(Paths.get(path),StandardOpenOption.READ);
+		BlockIndex index;
+		try {
+			index = BlockIndex.load(channel);
+		} catch ( IOException | RuntimeException e ) {
+			channel.close();
+			throw e;
+		}
+		if ( index == null ) {
+			channel.close();
+			throw new IllegalArgumentException("Random access needs a compressed file in the block format");
+		}
+		return new HuffFile(channel,index,cachedBlocks);
+	}
+
+	/**
+	 * Gets the length of the uncompressed data
+	 *
+	 * @return the number of uncompressed bytes
+	 */
+	public long length () {
+		return index_.getUncompressedLength();
+	}
+
+	/**
+	 * Reads a range of the uncompressed data
+	 *
+	 * @param offset
+	 *          where the range starts in the uncompressed data
+	 * @param length
+	 *          number of bytes to read
+	 * @return the bytes, fewer than length if the range goes past the end
+	 * @throws IOException
+	 */
+	public byte[] read ( long offset, int length ) throws IOException {
+		if ( offset < 0 || length < 0 ) {
+			throw new IndexOutOfBoundsException("Negative offset or length");
+		}
+		long available = Math.max(0,length() - offset);
+		byte[] buffer = new byte[(int) Math.min(length,available)];
+		read(offset,buffer,0,buffer.length);
+		return buffer;
+	}
+
+	/**
+	 * Reads a range of the uncompressed data into an array
+	 *
+	 * @param offset
+	 *          where the range starts in the uncompressed data
+	 * @param buffer
+	 *          array that the bytes are copied into
+	 * @param bufferOffset
+	 *          index in buffer of the first byte
+	 * @param length
+	 *          number of bytes to read
+	 * @return the number of bytes read, or -1 if offset is at or past the end
+	 * @throws IOException
+	 */
+	public int read ( long offset, byte[] buffer, int bufferOffset, int length )
+	    throws IOException {
+		if ( offset < 0 || length < 0 || bufferOffset < 0
+		    || bufferOffset + length > buffer.length ) {
+			throw new IndexOutOfBoundsException("Range is outside the buffer");
+		}
+		if ( offset >= length() ) {
+			return length == 0 ? 0 : -1;
+		}
+
+		int copied = 0;
+		int block = index_.findBlock(offset);
+		while ( copied < length && block < index_.getBlockCount() ) {
+			byte[] decoded = block(block);
+			int start = (int) (offset + copied - index_.getPosition(block));
+			int count = Math.min(decoded.length - start,length - copied);
+			System.arraycopy(decoded,start,buffer,bufferOffset + copied,count);
+			copied += count;
+			block++;
+		}
+		return copied;
+	}
+
+	/**
+	 * Gets a decoded block from the cache, decoding it if needed
+	 *
+	 * @param block
+	 *          the block's number
+	 * @return the block's bytes
+	 * @throws IOException
+	 */
+	private byte[] block ( int block ) throws IOException {
+		synchronized ( cache_ ) {
+			byte[] cached = cache_.get(block);
+			if ( cached != null ) {
+				return cached;
+			}
+		}
+		byte[] decoded = new byte[index_.getLength(block)]; // decodes outside the
+		                                                    // lock so other reads
+		                                                    // can go on
+		new BlockDecoder().read(index_,channel_,block,new byte[0],decoded);
+		synchronized ( cache_ ) {
+			cache_.put(block,decoded);
+		}
+		return decoded;
+	}
+
+	/**
+	 * Closes the compressed file
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close () throws IOException {
+		channel_.close();
+	}
+}
@@ -4,12 +4,17 @@ import java.util.InputMismatchException;
 import java.util.Scanner;
 
 /**
- * Implements the Huff class to compress, uncompress, and compare files
+ * Implements the Huff class to compress, uncompress, and compare files. With
+ * arguments, runs them as a HuffCommand instead of showing the menu.
  * 
  * @author Kidus Asmare Ayele
  */
 public class HuffMain {
 	public static void main ( String[] args ) throws IOException {
+		if ( args.length > 0 ) { // runs without prompting, for scripts
+			HuffCommand.main(args);
+			return;
+		}
 
 		boolean programRunner = true;
 		while ( programRunner ) { // true until the user quits the program
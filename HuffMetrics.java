@@ -0,0 +1,415 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts blocks and bytes and the time spent in each stage of compression.
+ * Metrics are off until enable is called; until then current() returns null
+ * and every stage skips its timing after a single check per block, so the
+ * cost of leaving the code in is close to nothing.
+ *
+ * Once enabled, the totals of the whole process are kept in one instance that
+ * is published through JMX as huff:type=Metrics. An operation can also open
+ * its own scope, which counts just the work done for it and adds it to the
+ * totals as well.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffMetrics implements HuffMetricsMXBean {
+	/**
+	 * Stage that counts how often each byte value occurs.
+	 */
+	public static final int COUNT = 0;
+
+	/**
+	 * Stage that computes or checks checksums.
+	 */
+	public static final int CHECKSUM = 1;
+
+	/**
+	 * Stage that builds codes and decode tables.
+	 */
+	public static final int BUILD = 2;
+
+	/**
+	 * Stage that writes or reads code lengths.
+	 */
+	public static final int HEADER = 3;
+
+	/**
+	 * Stage that codes or decodes the bytes themselves.
+	 */
+	public static final int CODE = 4;
+
+	/**
+	 * Stage that reads input.
+	 */
+	public static final int READ = 5;
+
+	/**
+	 * Stage that writes output.
+	 */
+	public static final int WRITE = 6;
+
+	private static final String[] STAGES =
+	    { "count", "checksum", "build", "header", "code", "read", "write" };
+	private static final String OBJECT_NAME = "huff:type=Metrics"; // the JMX
+	                                                                // name
+	private static final ThreadLocal<HuffMetrics> SCOPE =
+	    new ThreadLocal<HuffMetrics>(); // the operation each thread works for
+	private static volatile HuffMetrics global_; // the totals, or null when
+	                                             // metrics are off
+
+	private final HuffMetrics parent_; // also receives everything, or null
+	private final LongAdder[] nanos_; // time spent in each stage
+	private final LongAdder blocksEncoded_; // number of blocks encoded
+	private final LongAdder blocksDecoded_; // number of blocks decoded
+	private final LongAdder storedBlocks_; // blocks stored as they are
+	private final LongAdder tableBlocks_; // blocks coded with a trained table
+	private final LongAdder uncompressedBytes_; // bytes in the blocks
+	private final LongAdder compressedBytes_; // bytes in their payloads
+	private final LongAdder encodedBytes_; // uncompressed bytes of encoded
+	                                       // blocks
+	private final DoubleAdder entropyBits_; // the entropy of encoded blocks
+	private final LongAdder codedBits_; // payload bits of encoded blocks
+
+	/**
+	 * @param parent
+	 *          the metrics that also receive everything, or null
+	 */
+	public HuffMetrics ( HuffMetrics parent ) {
+		parent_ = parent;
+		nanos_ = new LongAdder[STAGES.length];
+		for ( int stage = 0 ; stage < nanos_.length ; stage++ ) {
+			nanos_[stage] = new LongAdder();
+		}
+		blocksEncoded_ = new LongAdder();
+		blocksDecoded_ = new LongAdder();
+		storedBlocks_ = new LongAdder();
+		tableBlocks_ = new LongAdder();
+		uncompressedBytes_ = new LongAdder();
+		compressedBytes_ = new LongAdder();
+		encodedBytes_ = new LongAdder();
+		entropyBits_ = new DoubleAdder();
+		codedBits_ = new LongAdder();
+	}
+
+	/**
+	 * Turns metrics on and publishes the totals through JMX. Does nothing if
+	 * they are already on.
+	 *
+	 * @return the totals
+	 */
+	public static synchronized HuffMetrics enable () {
+		if ( global_ == null ) {
+			HuffMetrics metrics = new HuffMetrics(null);
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if ( server.isRegistered(name) ) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(metrics,name);
+			} catch ( JMException e ) {
+				// the metrics still work without JMX
+			}
+			global_ = metrics;
+		}
+		return global_;
+	}
+
+	/**
+	 * Turns metrics off and removes them from JMX. Operations that opened a
+	 * scope keep counting into it.
+	 */
+	public static synchronized void disable () {
+		if ( global_ != null ) {
+			try {
+				ManagementFactory.getPlatformMBeanServer()
+				                 .unregisterMBean(new ObjectName(OBJECT_NAME));
+			} catch ( JMException e ) {
+				// nothing was registered
+			}
+			global_ = null;
+		}
+	}
+
+	/**
+	 * Gets the totals
+	 *
+	 * @return the totals, or null if metrics are off
+	 */
+	public static HuffMetrics getGlobal () {
+		return global_;
+	}
+
+	/**
+	 * Gets the metrics that work on the calling thread should be counted in
+	 *
+	 * @return the thread's scope, or the totals if it has none, or null if
+	 *         metrics are off
+	 */
+	public static HuffMetrics current () {
+		HuffMetrics scope = SCOPE.get();
+		return scope != null ? scope : global_;
+	}
+
+	/**
+	 * Opens a scope for an operation on the calling thread. Work done on the
+	 * thread until the scope is closed is counted in it and in the totals.
+	 *
+	 * @return the scope
+	 */
+	public static HuffMetrics open () {
+		HuffMetrics scope = new HuffMetrics(global_);
+		SCOPE.set(scope);
+		return scope;
+	}
+
+	/**
+	 * Closes the calling thread's scope
+	 */
+	public static void close () {
+		SCOPE.remove();
+	}
+
+	/**
+	 * Makes the calling thread count into given metrics, such as the scope of
+	 * the operation that handed it work
+	 *
+	 * @param metrics
+	 *          the metrics, or null to count into the totals
+	 * @return the thread's previous scope, to be restored afterwards
+	 */
+	static HuffMetrics enter ( HuffMetrics metrics ) {
+		HuffMetrics previous = SCOPE.get();
+		if ( metrics == null ) {
+			SCOPE.remove();
+		} else {
+			SCOPE.set(metrics);
+		}
+		return previous;
+	}
+
+	/**
+	 * Adds the time since a moment to a stage
+	 *
+	 * @param stage
+	 *          the stage, such as COUNT
+	 * @param since
+	 *          when the stage started, from System.nanoTime()
+	 * @return the current time, which is when the next stage starts
+	 */
+	public long time ( int stage, long since ) {
+		long now = System.nanoTime();
+		for ( HuffMetrics metrics = this ; metrics != null ; metrics =
+		    metrics.parent_ ) {
+			metrics.nanos_[stage].add(now - since);
+		}
+		return now;
+	}
+
+	/**
+	 * Counts an encoded block
+	 *
+	 * @param type
+	 *          the block type
+	 * @param length
+	 *          number of bytes in the block
+	 * @param payloadLength
+	 *          number of bytes in its payload
+	 * @param entropyBits
+	 *          the block's entropy in bits: the fewest bits any code for its
+	 *          bytes, one at a time, could use
+	 */
+	public void blockEncoded ( int type, int length, int payloadLength,
+	                           double entropyBits ) {
+		for ( HuffMetrics metrics = this ; metrics != null ; metrics =
+		    metrics.parent_ ) {
+			metrics.blocksEncoded_.increment();
+			metrics.count(type,length,payloadLength);
+			metrics.encodedBytes_.add(length);
+			metrics.entropyBits_.add(entropyBits);
+			metrics.codedBits_.add(8L * payloadLength);
+		}
+	}
+
+	/**
+	 * Counts a decoded block
+	 *
+	 * @param type
+	 *          the block type
+	 * @param length
+	 *          number of bytes in the block
+	 * @param payloadLength
+	 *          number of bytes in its payload
+	 */
+	public void blockDecoded ( int type, int length, int payloadLength ) {
+		for ( HuffMetrics metrics = this ; metrics != null ; metrics =
+		    metrics.parent_ ) {
+			metrics.blocksDecoded_.increment();
+			metrics.count(type,length,payloadLength);
+		}
+	}
+
+	/**
+	 * Counts a block's type and sizes
+	 */
+	private void count ( int type, int length, int payloadLength ) {
+		if ( type == HuffConstants.BLOCK_STORED ) {
+			storedBlocks_.increment();
+		} else if ( type == HuffConstants.BLOCK_TABLE ) {
+			tableBlocks_.increment();
+		}
+		uncompressedBytes_.add(length);
+		compressedBytes_.add(payloadLength);
+	}
+
+	@Override
+	public long getBlocksEncoded () {
+		return blocksEncoded_.sum();
+	}
+
+	@Override
+	public long getBlocksDecoded () {
+		return blocksDecoded_.sum();
+	}
+
+	@Override
+	public long getStoredBlocks () {
+		return storedBlocks_.sum();
+	}
+
+	@Override
+	public long getTableBlocks () {
+		return tableBlocks_.sum();
+	}
+
+	@Override
+	public long getUncompressedBytes () {
+		return uncompressedBytes_.sum();
+	}
+
+	@Override
+	public long getCompressedBytes () {
+		return compressedBytes_.sum();
+	}
+
+	/**
+	 * Gets the payload bytes per uncompressed byte
+	 *
+	 * @return the ratio, or 0 if nothing has been counted
+	 */
+	@Override
+	public double getRatio () {
+		long uncompressed = getUncompressedBytes();
+		return uncompressed == 0 ? 0 : (double) getCompressedBytes() / uncompressed;
+	}
+
+	/**
+	 * Gets the entropy of the encoded blocks per byte, which is what an ideal
+	 * code for single bytes would spend
+	 *
+	 * @return bits per byte, or 0 if nothing has been encoded
+	 */
+	@Override
+	public double getEntropyBitsPerByte () {
+		long bytes = encodedBytes_.sum();
+		return bytes == 0 ? 0 : entropyBits_.sum() / bytes;
+	}
+
+	/**
+	 * Gets the bits the encoded blocks' payloads spend per byte, including
+	 * their code lengths
+	 *
+	 * @return bits per byte, or 0 if nothing has been encoded
+	 */
+	@Override
+	public double getCodedBitsPerByte () {
+		long bytes = encodedBytes_.sum();
+		return bytes == 0 ? 0 : (double) codedBits_.sum() / bytes;
+	}
+
+	@Override
+	public long getCountNanos () {
+		return nanos_[COUNT].sum();
+	}
+
+	@Override
+	public long getChecksumNanos () {
+		return nanos_[CHECKSUM].sum();
+	}
+
+	@Override
+	public long getBuildNanos () {
+		return nanos_[BUILD].sum();
+	}
+
+	@Override
+	public long getHeaderNanos () {
+		return nanos_[HEADER].sum();
+	}
+
+	@Override
+	public long getCodeNanos () {
+		return nanos_[CODE].sum();
+	}
+
+	@Override
+	public long getReadNanos () {
+		return nanos_[READ].sum();
+	}
+
+	@Override
+	public long getWriteNanos () {
+		return nanos_[WRITE].sum();
+	}
+
+	/**
+	 * Sets every count back to zero
+	 */
+	@Override
+	public void reset () {
+		for ( LongAdder nanos : nanos_ ) {
+			nanos.reset();
+		}
+		blocksEncoded_.reset();
+		blocksDecoded_.reset();
+		storedBlocks_.reset();
+		tableBlocks_.reset();
+		uncompressedBytes_.reset();
+		compressedBytes_.reset();
+		encodedBytes_.reset();
+		entropyBits_.reset();
+		codedBits_.reset();
+	}
+
+	/**
+	 * Formats the metrics as a JSON object on one line
+	 *
+	 * @return the JSON text
+	 */
+	public String toJson () {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"blocksEncoded\":").append(getBlocksEncoded());
+		json.append(",\"blocksDecoded\":").append(getBlocksDecoded());
+		json.append(",\"storedBlocks\":").append(getStoredBlocks());
+		json.append(",\"tableBlocks\":").append(getTableBlocks());
+		json.append(",\"uncompressedBytes\":").append(getUncompressedBytes());
+		json.append(",\"compressedBytes\":").append(getCompressedBytes());
+		json.append(String.format(",\"ratio\":%.4f",getRatio()));
+		json.append(String.format(",\"entropyBitsPerByte\":%.4f",
+		                          getEntropyBitsPerByte()));
+		json.append(String.format(",\"codedBitsPerByte\":%.4f",
+		                          getCodedBitsPerByte()));
+		json.append(",\"nanos\":{");
+		for ( int stage = 0 ; stage < STAGES.length ; stage++ ) {
+			json.append(stage == 0 ? "\"" : ",\"").append(STAGES[stage])
+			    .append("\":").append(nanos_[stage].sum());
+		}
+		return json.append("}}").toString();
+	}
+}
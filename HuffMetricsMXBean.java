@@ -0,0 +1,42 @@
+/**
+ * The management interface of HuffMetrics, so the totals can be read through
+ * JMX
+ *
+ * @author Kidus Asmare Ayele
+ */
+public interface HuffMetricsMXBean {
+
+	long getBlocksEncoded ();
+
+	long getBlocksDecoded ();
+
+	long getStoredBlocks ();
+
+	long getTableBlocks ();
+
+	long getUncompressedBytes ();
+
+	long getCompressedBytes ();
+
+	double getRatio ();
+
+	double getEntropyBitsPerByte ();
+
+	double getCodedBitsPerByte ();
+
+	long getCountNanos ();
+
+	long getChecksumNanos ();
+
+	long getBuildNanos ();
+
+	long getHeaderNanos ();
+
+	long getCodeNanos ();
+
+	long getReadNanos ();
+
+	long getWriteNanos ();
+
+	void reset ();
+}
@@ -0,0 +1,630 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A long-running compression service, so that callers that compress many
+ * small files pay for starting the JVM and warming up the codec once rather
+ * than on every run:
+ *
+ * <pre>
+ * java HuffServer [options]
+ *   -s path     listen on a Unix-domain socket at path (the default is
+ *               DEFAULT_SOCKET)
+ *   -p port     listen on a loopback TCP port instead, for the stream
+ *               operations only
+ *   -b bytes    block size when compressing
+ *   -l bits     longest code when compressing
+ *   -i          split blocks into interleaved streams that decode faster
+ *   -M bytes    most memory that requests may use at once
+ * </pre>
+ *
+ * HuffClient sends the requests. Each connection carries one request and is
+ * handled on a virtual thread of its own. All requests share one pooled
+ * HuffCodec, whose encoders, decoders and arrays are lent to requests from a
+ * pool, so they stay allocated and warm from one request to the next. Blocks
+ * longer than the service's block size are refused, so each request uses a
+ * bounded amount of memory, and requests that would take the memory in use
+ * past the budget wait until others finish.
+ *
+ * A request is an operation byte and, for the file operations, a flags byte
+ * and the paths as modified UTF-8 strings. Paths are used as they are, so the
+ * client sends absolute ones. Data goes both ways in frames of an int length
+ * and that many bytes, ended by an empty frame, so a client that fails partway
+ * through its data can never have a part taken for the whole. For the stream
+ * operations the request's data follows it. The response is the output data
+ * for the stream operations, then a status byte and either the number of
+ * input and output bytes as longs or an error message.
+ *
+ * The service reads and writes files with the permissions of the user who
+ * started it, so the file operations are accepted only on the Unix-domain
+ * socket, which is made readable and writable by its owner alone. The default
+ * socket is also kept in a directory private to the user. A loopback TCP port
+ * can be reached by every user of the machine, so it accepts only the stream
+ * operations, which touch no files.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffServer {
+	/**
+	 * Operation that compresses a file into another: input and output path.
+	 */
+	public static final int OP_COMPRESS = 1;
+
+	/**
+	 * Operation that uncompresses a file into another: input and output path.
+	 */
+	public static final int OP_UNCOMPRESS = 2;
+
+	/**
+	 * Operation that checks a compressed file against its checksums: its path.
+	 */
+	public static final int OP_VERIFY = 3;
+
+	/**
+	 * Operation that compresses the data sent with it and sends it back.
+	 */
+	public static final int OP_COMPRESS_STREAM = 4;
+
+	/**
+	 * Operation that uncompresses the data sent with it and sends it back.
+	 */
+	public static final int OP_UNCOMPRESS_STREAM = 5;
+
+	/**
+	 * Flag of the file operations that allows an existing output file to be
+	 * overwritten.
+	 */
+	public static final int FLAG_FORCE = 1;
+
+	/**
+	 * Status of a request that succeeded.
+	 */
+	public static final int STATUS_OK = 0;
+
+	/**
+	 * Status of a request that failed to read or write something.
+	 */
+	public static final int STATUS_FAILED = 1;
+
+	/**
+	 * Status of a request whose data was not compressed or was corrupt.
+	 */
+	public static final int STATUS_INVALID = 2;
+
+	/**
+	 * Socket the service listens on unless it is given another address, in a
+	 * directory of the temporary directory that only its user may use.
+	 */
+	public static final String DEFAULT_SOCKET =
+	    new File(new File(System.getProperty("java.io.tmpdir"),"huff-"
+	        + System.getProperty("user.name")),"huff.sock").getPath();
+
+	/**
+	 * Memory budget used when none is given.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64 << 20;
+
+	static final int BUFFER_SIZE = 1 << 16; // bytes buffered on each side of a
+	                                        // connection
+	private static final String PRIVATE_DIRECTORY =
+	    "rwx------"; // permissions of the default socket's directory
+	private static final String PRIVATE_SOCKET = "rw-------"; // permissions of
+	                                                          // every socket
+
+	private final ServerSocketChannel server_; // accepts connections
+	private final SocketAddress address_; // where the service listens
+	private final HuffCodec codec_; // does the work of every request
+	private final int maxRequests_; // number of requests that may run at once
+	private final Semaphore permits_; // one for each request that may run at
+	                                  // once
+	private final ExecutorService handlers_; // one virtual thread per request
+
+	/**
+	 * Starts listening; requests are not handled until serve or start is called
+	 *
+	 * @param address
+	 *          a UnixDomainSocketAddress, or an InetSocketAddress on the
+	 *          loopback interface, whose port may be 0 to pick a free one
+	 * @param codec
+	 *          the codec whose settings requests use
+	 * @param memoryBudget
+	 *          most bytes that requests may use at once; at least one request
+	 *          can always run
+	 * @throws IOException
+	 *           if the address is in use, including by another running service,
+	 *           or the default socket's directory is not private to the user
+	 * @throws IllegalArgumentException
+	 *           if the address is not local
+	 */
+	public HuffServer ( SocketAddress address, HuffCodec codec, long memoryBudget )
+	    throws IOException {
+		Path socket = null; // the socket's file, if it has one
+		if ( address instanceof UnixDomainSocketAddress ) {
+			Path path = ((UnixDomainSocketAddress) address).getPath();
+			if ( path.toAbsolutePath()
+			         .equals(Paths.get(DEFAULT_SOCKET).toAbsolutePath()) ) {
+				makePrivate(path.toAbsolutePath().getParent());
+			}
+			if ( Files.exists(path) ) { // a socket left by a service that died
+			                            // can be replaced, a live one cannot
+				boolean live;
+				try {
+					SocketChannel.open(address).close();
+					live = true;
+				} catch ( IOException e ) {
+					live = false;
+				}
+				if ( live ) {
+					throw new IOException("A service is already listening on " + path);
+				}
+				Files.delete(path);
+			}
+			server_ = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			socket = path;
+		} else if ( address instanceof InetSocketAddress
+		    && ((InetSocketAddress) address).getAddress() != null
+		    && ((InetSocketAddress) address).getAddress().isLoopbackAddress() ) {
+			server_ = ServerSocketChannel.open();
+		} else {
+			throw new IllegalArgumentException("The service only listens on a "
+			    + "Unix-domain socket or the loopback interface");
+		}
+		server_.bind(address);
+		if ( socket != null && isPosix(socket) ) {
+			try {
+				Files.setPosixFilePermissions(socket,
+				                              PosixFilePermissions.fromString(PRIVATE_SOCKET));
+			} catch ( IOException e ) {
+				server_.close();
+				throw e;
+			}
+		}
+		address_ = server_.getLocalAddress();
+		codec_ = codec.pooled();
+		// a request holds a block no longer than the block size, its payload
+		// and the encoder's copy of it, and the buffers of the connection and
+		// the compressed stream
+		long requestMemory = 3L * codec.getBlockSize() + 3 * BUFFER_SIZE;
+		maxRequests_ =
+		    (int) Math.max(1,Math.min(memoryBudget / requestMemory,
+		                              Integer.MAX_VALUE));
+		permits_ = new Semaphore(maxRequests_);
+		handlers_ = Executors.newVirtualThreadPerTaskExecutor();
+	}
+
+	public static void main ( String[] args ) {
+		SocketAddress address = UnixDomainSocketAddress.of(DEFAULT_SOCKET);
+		int blockSize = HuffConstants.DEFAULT_BLOCK_SIZE;
+		int maxCodeLength = HuffConstants.DEFAULT_MAX_CODE_LENGTH;
+		boolean interleaved = false;
+		long memoryBudget = DEFAULT_MEMORY_BUDGET;
+		HuffServer server;
+		try {
+			for ( int i = 0 ; i < args.length ; i++ ) {
+				String arg = args[i];
+				if ( arg.equals("-i") ) {
+					interleaved = true;
+				} else if ( arg.equals("-s") && i + 1 < args.length ) {
+					address = UnixDomainSocketAddress.of(args[++i]);
+				} else if ( arg.equals("-p") && i + 1 < args.length ) {
+					address =
+					    new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					                          Integer.parseInt(args[++i]));
+				} else if ( arg.equals("-b") && i + 1 < args.length ) {
+					blockSize = Integer.parseInt(args[++i]);
+				} else if ( arg.equals("-l") && i + 1 < args.length ) {
+					maxCodeLength = Integer.parseInt(args[++i]);
+				} else if ( arg.equals("-M") && i + 1 < args.length ) {
+					memoryBudget = Long.parseLong(args[++i]);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			server =
+			    new HuffServer(address,new HuffCodec(blockSize,maxCodeLength,null,
+			                                         interleaved),memoryBudget);
+		} catch ( IllegalArgumentException e ) { // includes NumberFormatException
+			System.err.println("huff: " + e.getMessage());
+			System.exit(HuffCommand.EXIT_USAGE);
+			return;
+		} catch ( IOException e ) {
+			System.err.println("huff: " + e.getMessage());
+			System.exit(HuffCommand.EXIT_FAILED);
+			return;
+		}
+		System.err.println("huff: listening on " + server.getAddress());
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		server.serve();
+	}
+
+	/**
+	 * Gets the address the service listens on
+	 *
+	 * @return the address, with the port filled in if 0 was asked for
+	 */
+	public SocketAddress getAddress () {
+		return address_;
+	}
+
+	/**
+	 * Gets the number of requests that may run at once within the memory budget
+	 *
+	 * @return the number of requests
+	 */
+	public int getMaxRequests () {
+		return maxRequests_;
+	}
+
+	/**
+	 * Accepts connections on the calling thread until the service is closed,
+	 * handing each to a virtual thread
+	 */
+	public void serve () {
+		while ( server_.isOpen() ) {
+			try {
+				SocketChannel channel = server_.accept();
+				handlers_.execute(() -> handle(channel));
+			} catch ( ClosedChannelException e ) {
+				break; // closed while waiting
+			} catch ( IOException e ) {
+				System.err.println("huff: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Accepts connections on a virtual thread of their own
+	 *
+	 * @return the thread
+	 */
+	public Thread start () {
+		return Thread.ofVirtual().name("huff-server").start(this::serve);
+	}
+
+	/**
+	 * Stops accepting connections. Requests already being handled are finished.
+	 */
+	public void close () {
+		try {
+			server_.close();
+		} catch ( IOException e ) {
+			// nothing more can be done with the socket
+		}
+		handlers_.shutdown();
+		if ( address_ instanceof UnixDomainSocketAddress ) {
+			((UnixDomainSocketAddress) address_).getPath().toFile().delete();
+		}
+	}
+
+	/**
+	 * Makes a directory for sockets that only the user may use, or checks that
+	 * an existing one is
+	 *
+	 * @param directory
+	 *          the directory
+	 * @throws IOException
+	 *           if the directory cannot be made, or belongs to someone else or
+	 *           can be used by others
+	 */
+	private static void makePrivate ( Path directory ) throws IOException {
+		if ( !isPosix(directory) ) {
+			Files.createDirectories(directory);
+			return;
+		}
+		Set<PosixFilePermission> permissions =
+		    PosixFilePermissions.fromString(PRIVATE_DIRECTORY);
+		if ( !Files.exists(directory,LinkOption.NOFOLLOW_LINKS) ) {
+			try {
+				Files.createDirectory(directory,
+				                      PosixFilePermissions.asFileAttribute(permissions));
+			} catch ( FileAlreadyExistsException e ) {
+				// made by someone else in the meantime, and checked below
+			}
+		}
+		UserPrincipal user =
+		    directory.getFileSystem().getUserPrincipalLookupService()
+		             .lookupPrincipalByName(System.getProperty("user.name"));
+		if ( !Files.isDirectory(directory,LinkOption.NOFOLLOW_LINKS)
+		    || !Files.getOwner(directory,LinkOption.NOFOLLOW_LINKS).equals(user)
+		    || !Files.getPosixFilePermissions(directory,LinkOption.NOFOLLOW_LINKS)
+		             .equals(permissions) ) {
+			throw new IOException(directory
+			    + " must be a directory that only its owner, "
+			    + System.getProperty("user.name") + ", may use");
+		}
+	}
+
+	/**
+	 * Checks if a file system has POSIX permissions
+	 *
+	 * @param path
+	 *          a path on the file system
+	 * @return true if it has
+	 */
+	private static boolean isPosix ( Path path ) {
+		return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+	}
+
+	/**
+	 * Handles one connection's request, on its virtual thread
+	 *
+	 * @param channel
+	 *          the connection
+	 */
+	private void handle ( SocketChannel channel ) {
+		boolean interrupted = false; // true if the service is going away
+		try ( channel ) {
+			DataInputStream inputStream =
+			    new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel),
+			                                                BUFFER_SIZE));
+			OutputStream channelStream = Channels.newOutputStream(channel);
+			DataOutputStream outputStream = new DataOutputStream(channelStream);
+			FrameOutputStream frames = new FrameOutputStream(channelStream);
+			int status = STATUS_OK;
+			String message = null; // why the request failed
+			long[] counts = new long[2]; // bytes in and out
+			try {
+				permits_.acquire(); // waits while the memory budget is used up
+				try {
+					run(inputStream,frames,counts);
+				} finally {
+					permits_.release();
+				}
+			} catch ( IllegalArgumentException e ) {
+				status = STATUS_INVALID;
+				message = e.getMessage();
+			} catch ( IOException e ) {
+				status = STATUS_FAILED;
+				message = e.getMessage();
+			} catch ( InterruptedException e ) {
+				status = STATUS_FAILED;
+				message = "The service is shutting down";
+				interrupted = true; // passed on once the client has been told
+			}
+
+			frames.finish();
+			outputStream.writeByte(status);
+			if ( status == STATUS_OK ) {
+				outputStream.writeLong(counts[0]);
+				outputStream.writeLong(counts[1]);
+			} else {
+				outputStream.writeUTF(message == null ? "failed" : message);
+			}
+			outputStream.flush();
+			// reads what the client still sends, so closing does not reset the
+			// connection before the client has read the response
+			byte[] rest = new byte[BUFFER_SIZE];
+			while ( inputStream.read(rest) >= 0 ) {
+				// skips to the end of the request
+			}
+		} catch ( IOException e ) {
+			// the client went away, and there is nobody to tell
+		}
+		if ( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads and carries out a request
+	 *
+	 * @param inputStream
+	 *          the connection, at the operation byte
+	 * @param outputStream
+	 *          where output data goes
+	 * @param counts
+	 *          receives the number of input and output bytes
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the request is unknown or the data is corrupt
+	 */
+	private void run ( DataInputStream inputStream, OutputStream outputStream,
+	                   long[] counts ) throws IOException {
+		int op = inputStream.readUnsignedByte();
+		if ( op == OP_COMPRESS_STREAM || op == OP_UNCOMPRESS_STREAM ) {
+			HuffCommand.CountingInputStream counted =
+			    new HuffCommand.CountingInputStream(new FrameInputStream(inputStream));
+			HuffCommand.CountingOutputStream output =
+			    new HuffCommand.CountingOutputStream(outputStream);
+			if ( op == OP_COMPRESS_STREAM ) {
+				codec_.compress(counted,output);
+			} else {
+				codec_.uncompress(counted,output);
+			}
+			counts[0] = counted.count_;
+			counts[1] = output.count_;
+			return;
+		}
+		if ( op != OP_COMPRESS && op != OP_UNCOMPRESS && op != OP_VERIFY ) {
+			throw new IllegalArgumentException("Unknown request " + op);
+		}
+		if ( !(address_ instanceof UnixDomainSocketAddress) ) {
+			throw new IOException("Files are only handled through the service's "
+			    + "Unix-domain socket");
+		}
+
+		int flags = inputStream.readUnsignedByte();
+		File input = new File(inputStream.readUTF());
+		counts[0] = input.length();
+		if ( op == OP_VERIFY ) {
+			HuffCommand.CountingOutputStream output =
+			    new HuffCommand.CountingOutputStream(OutputStream.nullOutputStream());
+			try ( InputStream fileStream = new FileInputStream(input) ) {
+				codec_.uncompress(fileStream,output);
+			}
+			counts[1] = output.count_;
+			return;
+		}
+
+		File output = new File(inputStream.readUTF());
+		if ( output.exists() && (flags & FLAG_FORCE) == 0 ) {
+			throw new IOException(output + " already exists; use -f to overwrite");
+		}
+		if ( output.getCanonicalFile().equals(input.getCanonicalFile()) ) {
+			throw new IOException(output + " is the input file");
+		}
+		try ( InputStream fileStream = new FileInputStream(input);
+		      OutputStream outputFile = new FileOutputStream(output) ) {
+			if ( op == OP_COMPRESS ) {
+				codec_.compress(fileStream,outputFile);
+			} else {
+				codec_.uncompress(fileStream,outputFile);
+			}
+		} catch ( IOException | RuntimeException e ) {
+			output.delete(); // leaves no partial output behind
+			throw e;
+		}
+		counts[1] = output.length();
+	}
+
+	/**
+	 * Sends data back in frames, each an int length and that many bytes. Frames
+	 * are written whole with a single call: DataOutputStream would lock its
+	 * monitor around the write, which pins a virtual thread to its carrier
+	 * while the socket is full.
+	 */
+	static class FrameOutputStream extends OutputStream {
+		private static final int HEADER_SIZE = 4; // bytes in a frame's length
+
+		private final OutputStream outputStream_; // the connection
+		private final byte[] buffer_; // the frame being filled, after room for
+		                              // its length
+		private int length_; // number of data bytes in buffer_
+
+		FrameOutputStream ( OutputStream outputStream ) {
+			outputStream_ = outputStream;
+			buffer_ = new byte[HEADER_SIZE + BUFFER_SIZE];
+		}
+
+		@Override
+		public void write ( int b ) throws IOException {
+			if ( length_ == BUFFER_SIZE ) {
+				flush();
+			}
+			buffer_[HEADER_SIZE + length_++] = (byte) b;
+		}
+
+		@Override
+		public void write ( byte[] b, int off, int len ) throws IOException {
+			while ( len > 0 ) {
+				if ( length_ == BUFFER_SIZE ) {
+					flush();
+				}
+				int chunk = Math.min(len,BUFFER_SIZE - length_);
+				System.arraycopy(b,off,buffer_,HEADER_SIZE + length_,chunk);
+				length_ += chunk;
+				off += chunk;
+				len -= chunk;
+			}
+		}
+
+		/**
+		 * Sends what is buffered as a frame
+		 *
+		 * @throws IOException
+		 */
+		@Override
+		public void flush () throws IOException {
+			if ( length_ > 0 ) {
+				send();
+			}
+		}
+
+		/**
+		 * Sends what is buffered and the empty frame that ends the data
+		 *
+		 * @throws IOException
+		 */
+		void finish () throws IOException {
+			flush();
+			send();
+		}
+
+		/**
+		 * Sends the buffer as a frame, which is empty if nothing is buffered
+		 *
+		 * @throws IOException
+		 */
+		private void send () throws IOException {
+			for ( int i = 0 ; i < HEADER_SIZE ; i++ ) { // big-endian, as
+			                                            // DataInputStream reads it
+				buffer_[i] = (byte) (length_ >>> (8 * (HEADER_SIZE - 1 - i)));
+			}
+			outputStream_.write(buffer_,0,HEADER_SIZE + length_);
+			length_ = 0;
+		}
+	}
+
+	/**
+	 * Reads data sent in frames, up to the empty frame that ends it
+	 */
+	static class FrameInputStream extends InputStream {
+		private final DataInputStream inputStream_; // the connection
+		private int remaining_; // bytes left in the current frame
+		private boolean ended_; // true once the empty frame has been read
+
+		FrameInputStream ( DataInputStream inputStream ) {
+			inputStream_ = inputStream;
+		}
+
+		@Override
+		public int read () throws IOException {
+			byte[] b = new byte[1];
+			return read(b,0,1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read ( byte[] b, int off, int len ) throws IOException {
+			if ( len == 0 ) {
+				return 0;
+			}
+			while ( remaining_ == 0 ) {
+				if ( ended_ ) {
+					return -1;
+				}
+				int length = inputStream_.readInt(); // EOFException if the data
+				                                     // stops before its end
+				if ( length < 0 || length > BUFFER_SIZE ) {
+					throw new IOException("Malformed frame of " + length + " bytes");
+				}
+				ended_ = length == 0;
+				remaining_ = length;
+			}
+			int read = inputStream_.read(b,off,Math.min(len,remaining_));
+			if ( read < 0 ) {
+				throw new EOFException("Connection closed inside a frame");
+			}
+			remaining_ -= read;
+			return read;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Works out the code lengths of a Huffman code without building a tree of
+ * objects. The used symbols are sorted by weight once; after that the two
+ * lightest items are always at the front of either the sorted leaves or the
+ * merged nodes, whose weights come out in order, so the code is built in
+ * linear time on flat arrays. Ties go to the leaf, and leaves of the same
+ * weight are taken in symbol order, so the same frequencies always give the
+ * same lengths.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffmanCode {
+
+	/**
+	 * Works out the code lengths
+	 *
+	 * @param frequencies
+	 *          how often each symbol occurs; there must be no more than 65536
+	 *          symbols
+	 * @return the code length of each symbol, 0 for symbols that do not occur
+	 *         and 1 if only one symbol occurs
+	 */
+	public static int[] lengths ( int[] frequencies ) {
+		long[] weights = new long[frequencies.length];
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			weights[symbol] = frequencies[symbol];
+		}
+		return lengths(weights);
+	}
+
+	/**
+	 * Works out the code lengths for counts too big for an int
+	 *
+	 * @param frequencies
+	 *          how often each symbol occurs, each less than 2^47; there must be
+	 *          no more than 65536 symbols
+	 * @return the code length of each symbol, 0 for symbols that do not occur
+	 *         and 1 if only one symbol occurs
+	 */
+	public static int[] lengths ( long[] frequencies ) {
+		int[] lengths = new int[frequencies.length];
+		int count = 0;
+		for ( long frequency : frequencies ) {
+			if ( frequency > 0 ) {
+				count++;
+			}
+		}
+		if ( count == 0 ) {
+			return lengths;
+		}
+
+		long[] leaves = new long[count]; // the used symbols by weight, each as
+		                                 // weight << 16 | symbol, so ties are
+		                                 // broken by symbol
+		int used = 0;
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			if ( frequencies[symbol] > 0 ) {
+				leaves[used++] = (frequencies[symbol] << 16) | symbol;
+			}
+		}
+		Arrays.sort(leaves);
+		if ( count == 1 ) { // a single symbol still needs a 1-bit code
+			lengths[(int) (leaves[0] & 0xFFFF)] = 1;
+			return lengths;
+		}
+
+		// nodes 0 to count - 1 are the leaves and the rest are merged nodes in
+		// the order they are made, which is also the order of their weights
+		long[] weight = new long[2 * count - 1];
+		int[] parent = new int[2 * count - 1];
+		for ( int i = 0 ; i < count ; i++ ) {
+			weight[i] = leaves[i] >>> 16;
+		}
+		int leaf = 0; // the next leaf to take
+		int merged = count; // the next merged node to take
+		for ( int node = count ; node < weight.length ; node++ ) {
+			for ( int child = 0 ; child < 2 ; child++ ) {
+				int lightest;
+				if ( leaf < count && (merged == node || weight[leaf] <= weight[merged]) ) {
+					lightest = leaf++;
+				} else {
+					lightest = merged++;
+				}
+				weight[node] += weight[lightest];
+				parent[lightest] = node;
+			}
+		}
+
+		// parents are made after their children, so going backwards from the
+		// root gives every node's depth from its parent's
+		int[] depth = parent; // the parents are not needed once read
+		depth[weight.length - 1] = 0;
+		for ( int node = weight.length - 2 ; node >= 0 ; node-- ) {
+			depth[node] = depth[parent[node]] + 1;
+		}
+		for ( int i = 0 ; i < count ; i++ ) {
+			lengths[(int) (leaves[i] & 0xFFFF)] = depth[i];
+		}
+		return lengths;
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * Works out the code lengths of the best prefix code whose codes are no longer
+ * than a given limit, using the package-merge algorithm. Keeping codes short
+ * keeps decode tables small and lets codes be packed into 64-bit words, at
+ * the cost of slightly worse compression when the limit has to shorten some
+ * codes.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class LengthLimitedCode {
+
+	/**
+	 * Works out the code lengths
+	 *
+	 * @param frequencies
+	 *          how often each symbol occurs
+	 * @param maxLength
+	 *          longest code allowed; 2^maxLength must be at least the number of
+	 *          symbols that occur
+	 * @return the code length of each symbol, 0 for symbols that do not occur
+	 */
+	public static int[] lengths ( int[] frequencies, int maxLength ) {
+		int[] lengths = new int[frequencies.length];
+		int count = 0;
+		for ( int frequency : frequencies ) {
+			if ( frequency > 0 ) {
+				count++;
+			}
+		}
+		if ( count == 0 ) {
+			return lengths;
+		}
+		if ( maxLength < 1 || (maxLength < 31 && (1 << maxLength) < count) ) {
+			throw new IllegalArgumentException(count
+			    + " symbols do not fit in codes of " + maxLength + " bits");
+		}
+
+		long[] leaves = new long[count]; // the used symbols by weight, each as
+		                                 // weight << 16 | symbol, so ties are
+		                                 // broken by symbol
+		int used = 0;
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			if ( frequencies[symbol] > 0 ) {
+				leaves[used++] = ((long) frequencies[symbol] << 16) | symbol;
+			}
+		}
+		Arrays.sort(leaves);
+		if ( count == 1 ) { // a single symbol still needs a 1-bit code
+			lengths[(int) (leaves[0] & 0xFFFF)] = 1;
+			return lengths;
+		}
+
+		// list i holds the items that can cost one bit at depth maxLength - i:
+		// the leaves merged with the packages made by pairing up list i - 1.
+		// leafCounts[i][k] is the number of leaves in the first k items of list
+		// i, which is all that is needed to undo the merges afterwards.
+		int levels = Math.min(maxLength,count - 1); // deeper levels change nothing
+		long[] previous = new long[0];
+		int[][] leafCounts = new int[levels][];
+		for ( int level = 0 ; level < levels ; level++ ) {
+			int packages = previous.length / 2;
+			long[] list = new long[count + packages];
+			int[] leafCount = new int[list.length + 1];
+			int leaf = 0;
+			int pack = 0;
+			for ( int k = 0 ; k < list.length ; k++ ) {
+				long packageWeight = pack < packages
+				    ? previous[2 * pack] + previous[2 * pack + 1] : Long.MAX_VALUE;
+				if ( leaf < count && (leaves[leaf] >>> 16) <= packageWeight ) {
+					list[k] = leaves[leaf++] >>> 16; // leaves go first on ties
+					leafCount[k + 1] = leafCount[k] + 1;
+				} else {
+					list[k] = packageWeight;
+					pack++;
+					leafCount[k + 1] = leafCount[k];
+				}
+			}
+			leafCounts[level] = leafCount;
+			previous = list;
+		}
+
+		// the cheapest 2 * count - 2 items of the last list make the code; each
+		// time a leaf is picked its code gets one bit longer
+		int picked = 2 * count - 2;
+		for ( int level = levels - 1 ; level >= 0 && picked > 0 ; level-- ) {
+			int pickedLeaves = leafCounts[level][picked];
+			for ( int k = 0 ; k < pickedLeaves ; k++ ) { // the lightest leaves
+				lengths[(int) (leaves[k] & 0xFFFF)]++;
+			}
+			picked = 2 * (picked - pickedLeaves); // the packages' contents
+		}
+		return lengths;
+	}
+}
@@ -0,0 +1,270 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compresses, uncompresses, and compares files through memory-mapped NIO
+ * channels. Input is read in place from mapped regions of up to a gigabyte,
+ * output goes through a large direct buffer, and no step copies a whole file
+ * into an array, so files of any size can be handled. The compressed files
+ * are the same as the ones Huff writes.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class NioHuff {
+	private static final long MAP_WINDOW = 1L << 30; // most bytes mapped at a
+	                                                 // time
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 22; // bytes written to
+	                                                       // the output at a
+	                                                       // time
+
+	/**
+	 * Compresses a file in blocks of the default size
+	 * 
+	 * @param file1
+	 *          the file to compress
+	 * @param file2
+	 *          the file to save the compressed data in
+	 * @throws IOException
+	 */
+	public static void compress ( String file1, String file2 )
+	    throws IOException {
+		compress(file1,file2,HuffConstants.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Compresses a file, encoding each block straight out of the mapped input
+	 * 
+	 * @param file1
+	 *          the file to compress
+	 * @param file2
+	 *          the file to save the compressed data in
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @throws IOException
+	 */
+	public static void compress ( String file1, String file2, int blockSize )
+	    throws IOException {
+		if ( blockSize < 1 || blockSize > HuffConstants.MAX_BLOCK_SIZE ) {
+			throw new IllegalArgumentException("Block size must be between 1 and "
+			    + HuffConstants.MAX_BLOCK_SIZE);
+		}
+
+		FileChannel inputChannel =
+		    FileChannel.open(Paths.get(file1),StandardOpenOption.READ);
+		try {
+			ChannelOutputStream outputStream =
+			    new ChannelOutputStream(openOutput(file2),OUTPUT_BUFFER_SIZE);
+			try {
+				BlockStreamWriter blockStream = new BlockStreamWriter(outputStream);
+				BlockEncoder encoder = new BlockEncoder();
+				long size = inputChannel.size();
+				long window = (MAP_WINDOW / blockSize) * blockSize; // maps whole
+				                                                    // blocks only
+				for ( long start = 0 ; start < size ; start += window ) {
+					MappedByteBuffer mapped =
+					    inputChannel.map(FileChannel.MapMode.READ_ONLY,start,
+					                     Math.min(window,size - start));
+					int mappedSize = mapped.capacity();
+					for ( int offset = 0 ; offset < mappedSize ; offset += blockSize ) {
+						int length = Math.min(blockSize,mappedSize - offset);
+						ByteBuffer block =
+						    mapped.duplicate().position(offset).limit(offset + length);
+						int payloadLength = encoder.encode(block);
+						blockStream.writeBlock(encoder.getType(),length,
+						                       encoder.getChecksum(),
+						                       encoder.getPayload(),payloadLength);
+					}
+				}
+				blockStream.finish();
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			inputChannel.close();
+		}
+	}
+
+	/**
+	 * Uncompresses a file. Blocks are decoded straight from the mapped input
+	 * into the output buffer. Files in the older formats are handed to
+	 * Huff.uncompress.
+	 * 
+	 * @param file1
+	 *          the compressed file
+	 * @param file2
+	 *          the file to save the uncompressed data in
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if file1 is not a compressed file or is corrupt
+	 */
+	public static void uncompress ( String file1, String file2 )
+	    throws IOException {
+		FileChannel inputChannel =
+		    FileChannel.open(Paths.get(file1),StandardOpenOption.READ);
+		try {
+			MappedFile input = new MappedFile(inputChannel);
+			if ( inputChannel.size() < HuffConstants.STREAM_HEADER_SIZE ) {
+				throw new IllegalArgumentException("Please enter a file that has already been compressed");
+			}
+			ByteBuffer header = input.slice(0,HuffConstants.STREAM_HEADER_SIZE);
+			if ( header.getInt(0) != HuffConstants.MAGIC_WORD ) {
+				throw new IllegalArgumentException("Please enter a file that has already been compressed");
+			}
+			if ( (header.get(4) & 0xFF) != (HuffConstants.VERSION_FLAG
+			    | HuffConstants.FORMAT_BLOCKS) ) { // only blocks can be mapped
+				Huff.uncompress(file1,file2);
+				return;
+			}
+			int flags = header.get(5) & 0xFF;
+			HuffCodec.checkFlags(flags);
+			boolean checksums = (flags & HuffConstants.FLAG_CHECKSUM) != 0;
+			int streamChecksum = 0; // the CRC-32C of the blocks so far
+
+			ChannelOutputStream outputStream =
+			    new ChannelOutputStream(openOutput(file2),OUTPUT_BUFFER_SIZE);
+			try {
+				BlockDecoder decoder = new BlockDecoder();
+				long offset = HuffConstants.STREAM_HEADER_SIZE;
+				int type = input.slice(offset,1).get() & 0xFF;
+				while ( type != HuffConstants.BLOCK_END ) {
+					ByteBuffer entry = input.slice(offset,HuffConstants.BLOCK_HEADER_SIZE);
+					int length = entry.getInt(entry.position() + 1);
+					int payloadLength = entry.getInt(entry.position() + 5);
+					HuffCodec.checkBlockHeader(length,payloadLength);
+					offset += HuffConstants.BLOCK_HEADER_SIZE;
+
+					ByteBuffer payload = input.slice(offset,payloadLength);
+					ByteBuffer output = outputStream.reserve(length);
+					int start = output.position();
+					decoder.decode(type,payload,output,length);
+					offset += payloadLength;
+					if ( checksums ) {
+						ByteBuffer decoded = output.duplicate();
+						decoded.limit(start + length).position(start);
+						int checksum = input.slice(offset,HuffConstants.CHECKSUM_SIZE)
+						                    .getInt();
+						BlockDecoder.check(checksum,decoded);
+						streamChecksum = Crc32c.combine(streamChecksum,checksum,length);
+						offset += HuffConstants.CHECKSUM_SIZE;
+					}
+					type = input.slice(offset,1).get() & 0xFF;
+				}
+				if ( checksums ) { // catches lost or reordered blocks
+					ByteBuffer stored =
+					    input.slice(offset + 1,HuffConstants.CHECKSUM_SIZE);
+					if ( stored.getInt() != streamChecksum ) {
+						throw new IllegalArgumentException("Corrupt compressed data: stream checksum mismatch");
+					}
+				}
+			} finally {
+				outputStream.close();
+			}
+		} catch ( EOFException e ) {
+			throw new IllegalArgumentException("Compressed file ends before its last block");
+		} finally {
+			inputChannel.close();
+		}
+	}
+
+	/**
+	 * Compares two files a mapped region at a time, after checking that their
+	 * sizes match
+	 * 
+	 * @param file1
+	 *          the first file
+	 * @param file2
+	 *          the second file
+	 * @return a message saying whether the files are the same, in the same form
+	 *         as Huff.compare
+	 * @throws IOException
+	 */
+	public static String compare ( String file1, String file2 )
+	    throws IOException {
+		FileChannel channel1 =
+		    FileChannel.open(Paths.get(file1),StandardOpenOption.READ);
+		try {
+			FileChannel channel2 =
+			    FileChannel.open(Paths.get(file2),StandardOpenOption.READ);
+			try {
+				long size = channel1.size();
+				if ( size != channel2.size() ) { // no need to map anything
+					return "File length mismatch" + "\n" + "Files are different" + "\n";
+				}
+				for ( long start = 0 ; start < size ; start += MAP_WINDOW ) {
+					long length = Math.min(MAP_WINDOW,size - start);
+					MappedByteBuffer mapped1 =
+					    channel1.map(FileChannel.MapMode.READ_ONLY,start,length);
+					MappedByteBuffer mapped2 =
+					    channel2.map(FileChannel.MapMode.READ_ONLY,start,length);
+					int mismatch = mapped1.mismatch(mapped2);
+					if ( mismatch >= 0 ) {
+						return "File mismatch, byte " + (start + mismatch + 1) + ": "
+						    + (mapped1.get(mismatch) & 0xFF) + " "
+						    + (mapped2.get(mismatch) & 0xFF) + "\n"
+						    + "Files are different" + "\n";
+					}
+				}
+				return "The files are the same" + "\n";
+			} finally {
+				channel2.close();
+			}
+		} finally {
+			channel1.close();
+		}
+	}
+
+	/**
+	 * Opens a file for writing, emptying it if it exists
+	 */
+	private static FileChannel openOutput ( String file ) throws IOException {
+		return FileChannel.open(Paths.get(file),StandardOpenOption.CREATE,
+		                        StandardOpenOption.WRITE,
+		                        StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * A file read through a mapped region that moves forward as needed
+	 */
+	private static class MappedFile {
+		private final FileChannel channel_; // the mapped file
+		private final long size_; // the file's size
+		private MappedByteBuffer mapped_; // the current region
+		private long start_; // where the current region starts in the file
+
+		MappedFile ( FileChannel channel ) throws IOException {
+			channel_ = channel;
+			size_ = channel.size();
+		}
+
+		/**
+		 * Gets a view of part of the file, mapping a new region if the current
+		 * one does not cover it
+		 *
+		 * @param position
+		 *          where the part starts in the file
+		 * @param length
+		 *          number of bytes in the part
+		 * @return a buffer whose position and limit surround the part
+		 * @throws IOException
+		 */
+		ByteBuffer slice ( long position, int length ) throws IOException {
+			if ( position + length > size_ ) {
+				throw new EOFException("Unexpected end of compressed file");
+			}
+			if ( mapped_ == null || position < start_
+			    || position + length > start_ + mapped_.capacity() ) {
+				start_ = position;
+				mapped_ = channel_.map(FileChannel.MapMode.READ_ONLY,position,
+				                       Math.min(size_ - position,
+				                                Math.max(MAP_WINDOW,length)));
+			}
+			int offset = (int) (position - start_);
+			return mapped_.duplicate().position(offset).limit(offset + length);
+		}
+	}
+}
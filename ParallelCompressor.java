@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Compresses a stream on several threads. The input is cut into blocks that
+ * are encoded independently on a fork/join pool and written out in their
+ * original order. Every block is encoded exactly as Huff.compress would encode
+ * it, so the output is the same whatever the number of threads.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class ParallelCompressor {
+	private final ForkJoinPool pool_; // the worker threads
+	private final int blockSize_; // number of input bytes in each block
+	private final int window_; // most blocks read but not yet written
+	private final ThreadLocal<BlockEncoder> encoders_; // one encoder per thread
+
+	/**
+	 * Uses one thread per processor and the default block size
+	 */
+	public ParallelCompressor () {
+		this(Runtime.getRuntime().availableProcessors(),
+		     HuffConstants.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param threads
+	 *          number of worker threads
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 */
+	public ParallelCompressor ( int threads, int blockSize ) {
+		this(threads,blockSize,HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+	}
+
+	/**
+	 * @param threads
+	 *          number of worker threads
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 */
+	public ParallelCompressor ( int threads, int blockSize, int maxCodeLength ) {
+		this(threads,blockSize,maxCodeLength,false);
+	}
+
+	/**
+	 * @param threads
+	 *          number of worker threads
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 * @param interleaved
+	 *          true to code blocks as interleaved streams, which decode faster
+	 */
+	public ParallelCompressor ( final int threads, int blockSize,
+	                            final int maxCodeLength,
+	                            final boolean interleaved ) {
+		BlockEncoder.checkMaxCodeLength(maxCodeLength);
+		if ( threads < 1 ) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		}
+		if ( blockSize < 1 || blockSize > HuffConstants.MAX_BLOCK_SIZE ) {
+			throw new IllegalArgumentException("Block size must be between 1 and "
+			    + HuffConstants.MAX_BLOCK_SIZE);
+		}
+		pool_ = new ForkJoinPool(threads);
+		blockSize_ = blockSize;
+		window_ = 2 * threads; // keeps every thread busy while the oldest block
+		                       // is written
+		encoders_ =
+		    ThreadLocal.withInitial(() -> new BlockEncoder(maxCodeLength,
+		                                                   interleaved));
+	}
+
+	/**
+	 * Compresses a stream. At most 2 * threads blocks are held in memory at a
+	 * time. Neither stream is closed.
+	 *
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @throws IOException
+	 */
+	public void compress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		BlockStreamWriter blockStream = new BlockStreamWriter(outputStream);
+		Deque<EncodeTask> pending = new ArrayDeque<EncodeTask>(); // blocks in
+		                                                          // input order
+		Deque<byte[]> free = new ArrayDeque<byte[]>(); // block buffers not in use
+		HuffMetrics metrics = HuffMetrics.current(); // also given to the workers
+
+		try {
+			while ( true ) {
+				if ( pending.size() == window_ ) { // waits for the oldest block
+					free.add(write(pending.poll(),blockStream,metrics));
+				}
+				byte[] block = free.isEmpty() ? new byte[blockSize_] : free.poll();
+				long time = metrics == null ? 0 : System.nanoTime();
+				int length = HuffCodec.readBlock(inputStream,block,block.length);
+				if ( metrics != null ) {
+					metrics.time(HuffMetrics.READ,time);
+				}
+				if ( length == 0 ) {
+					break;
+				}
+				EncodeTask task = new EncodeTask(encoders_,block,length,metrics);
+				pool_.execute(task);
+				pending.add(task);
+			}
+			while ( !pending.isEmpty() ) {
+				write(pending.poll(),blockStream,metrics);
+			}
+		} finally {
+			for ( EncodeTask task : pending ) { // stops work that is no longer
+			                                    // needed after a failure
+				task.cancel(false);
+			}
+		}
+		blockStream.finish();
+	}
+
+	/**
+	 * Waits for a block to be encoded and writes it
+	 *
+	 * @param task
+	 *          the block's task
+	 * @param blockStream
+	 *          the compressed stream
+	 * @param metrics
+	 *          where to add the time spent writing, or null
+	 * @return the block's input buffer, which can be reused
+	 * @throws IOException
+	 */
+	private static byte[] write ( EncodeTask task, BlockStreamWriter blockStream,
+	                              HuffMetrics metrics ) throws IOException {
+		byte[] payload;
+		try {
+			payload = task.join();
+		} catch ( UncheckedIOException e ) {
+			throw e.getCause();
+		}
+		long time = metrics == null ? 0 : System.nanoTime();
+		blockStream.writeBlock(task.type_,task.length_,
+		                       task.checksum_,payload,payload.length);
+		if ( metrics != null ) {
+			metrics.time(HuffMetrics.WRITE,time);
+		}
+		return task.block_;
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	public void shutdown () {
+		pool_.shutdown();
+	}
+
+	/**
+	 * Encodes one block on a worker thread
+	 */
+	private static class EncodeTask extends RecursiveTask<byte[]> {
+		private static final long serialVersionUID = 1L;
+		private final transient ThreadLocal<BlockEncoder> encoders_; // the
+		                                                             // compressor's
+		                                                             // encoders
+		private final byte[] block_; // the block's bytes
+		private final int length_; // number of bytes in the block
+		private final transient HuffMetrics metrics_; // the metrics of the
+		                                              // thread that made the
+		                                              // task, or null
+		private int checksum_; // the block's CRC-32C, set when it is encoded
+		private int type_; // the block's type, set when it is encoded
+
+		EncodeTask ( ThreadLocal<BlockEncoder> encoders, byte[] block, int length,
+		             HuffMetrics metrics ) {
+			encoders_ = encoders;
+			block_ = block;
+			length_ = length;
+			metrics_ = metrics;
+		}
+
+		@Override
+		protected byte[] compute () {
+			BlockEncoder encoder = encoders_.get();
+			HuffMetrics previous = metrics_ == null ? null
+			    : HuffMetrics.enter(metrics_); // counts the block for the caller
+			try {
+				int payloadLength = encoder.encode(block_,0,length_);
+				checksum_ = encoder.getChecksum(); // seen by join
+				type_ = encoder.getType();
+				return Arrays.copyOf(encoder.getPayload(),payloadLength);
+			} catch ( IOException e ) {
+				throw new UncheckedIOException(e);
+			} finally {
+				if ( metrics_ != null ) {
+					HuffMetrics.enter(previous);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Uncompresses or verifies a file on several threads. The block index at the
+ * end of the file, or the block headers of a file written without one, say
+ * where every block is, so blocks are read, decoded and checked
+ * independently and written straight to their place in the output file. The
+ * checksum of the whole stream is worked out from the blocks' checksums as
+ * the halves of the file are joined back together.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class ParallelDecompressor {
+	private final ForkJoinPool pool_; // the worker threads
+
+	/**
+	 * Uses one thread per processor
+	 */
+	public ParallelDecompressor () {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads
+	 *          number of worker threads
+	 */
+	public ParallelDecompressor ( int threads ) {
+		if ( threads < 1 ) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		}
+		pool_ = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Uncompresses a file. Files in the older formats, which have no blocks,
+	 * are uncompressed on the calling thread.
+	 *
+	 * @param file1
+	 *          the compressed file
+	 * @param file2
+	 *          the file to save the uncompressed data in
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if file1 is not a compressed file or is corrupt
+	 */
+	public void uncompress ( String file1, String file2 ) throws IOException {
+		FileChannel inputChannel =
+		    FileChannel.open(Paths.get(file1),StandardOpenOption.READ);
+		try {
+			BlockIndex index = BlockIndex.load(inputChannel);
+			if ( index == null ) { // not in the block format
+				Huff.uncompress(file1,file2);
+				return;
+			}
+
+			RandomAccessFile outputFile = new RandomAccessFile(file2,"rw");
+			try {
+				outputFile.setLength(index.getUncompressedLength()); // preallocates
+				                                                     // the output
+				FileChannel outputChannel = outputFile.getChannel();
+				decode(index,inputChannel,outputChannel);
+			} catch ( UncheckedIOException e ) {
+				throw e.getCause();
+			} finally {
+				outputFile.close();
+			}
+		} finally {
+			inputChannel.close();
+		}
+	}
+
+	/**
+	 * Checks a compressed file by decoding every block in memory and comparing
+	 * it with its checksum, without writing anything. Files in the older
+	 * formats are decoded on the calling thread, and files without checksums
+	 * are only checked for being decodable.
+	 *
+	 * @param file
+	 *          the compressed file
+	 * @return the number of uncompressed bytes in the file
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the file is not a compressed file or is corrupt
+	 */
+	public long verify ( String file ) throws IOException {
+		FileChannel inputChannel =
+		    FileChannel.open(Paths.get(file),StandardOpenOption.READ);
+		try {
+			BlockIndex index = BlockIndex.load(inputChannel);
+			if ( index == null ) {
+				InputStream inputStream = new FileInputStream(file);
+				try {
+					CountingOutputStream counter = new CountingOutputStream();
+					Huff.uncompress(inputStream,counter);
+					return counter.count_;
+				} finally {
+					inputStream.close();
+				}
+			}
+			decode(index,inputChannel,null);
+			return index.getUncompressedLength();
+		} catch ( UncheckedIOException e ) {
+			throw e.getCause();
+		} finally {
+			inputChannel.close();
+		}
+	}
+
+	/**
+	 * Decodes every block on the pool and checks the stream's checksum
+	 *
+	 * @param index
+	 *          the compressed file's block index
+	 * @param input
+	 *          the compressed file
+	 * @param output
+	 *          the uncompressed file, or null to only check the blocks
+	 * @throws IllegalArgumentException
+	 *           if the file is corrupt
+	 */
+	private void decode ( BlockIndex index, FileChannel input, FileChannel output ) {
+		int checksum;
+		try {
+			checksum =
+			    pool_.invoke(new DecodeTask(index,input,output,0,
+			                                index.getBlockCount(),
+			                                HuffMetrics.current()));
+		} catch ( IllegalArgumentException e ) {
+			// the pool wraps exceptions thrown on other threads
+			if ( e.getCause() instanceof IllegalArgumentException ) {
+				throw (IllegalArgumentException) e.getCause();
+			}
+			throw e;
+		}
+		if ( index.hasChecksums() && checksum != index.getChecksum() ) {
+			throw new IllegalArgumentException("Corrupt compressed data: stream checksum mismatch");
+		}
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	public void shutdown () {
+		pool_.shutdown();
+	}
+
+	/**
+	 * Decodes a range of blocks, splitting it among the worker threads. The
+	 * result is the checksum of the range, made from its blocks' checksums.
+	 */
+	private static class DecodeTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private static final ThreadLocal<Scratch> SCRATCH =
+		    ThreadLocal.withInitial(Scratch::new); // buffers reused by each thread
+
+		private final transient BlockIndex index_; // the compressed file's
+		                                           // block index
+		private final transient FileChannel input_; // the compressed file
+		private final transient FileChannel output_; // the uncompressed file,
+		                                             // or null
+		private final int first_; // first block of the range
+		private final int last_; // one past the last block of the range
+		private final transient HuffMetrics metrics_; // the metrics of the
+		                                              // thread that started the
+		                                              // decoding, or null
+
+		DecodeTask ( BlockIndex index, FileChannel input, FileChannel output,
+		             int first, int last, HuffMetrics metrics ) {
+			index_ = index;
+			input_ = input;
+			output_ = output;
+			first_ = first;
+			last_ = last;
+			metrics_ = metrics;
+		}
+
+		@Override
+		protected Integer compute () {
+			if ( last_ - first_ > 1 ) {
+				int middle = (first_ + last_) >>> 1;
+				DecodeTask second =
+				    new DecodeTask(index_,input_,output_,middle,last_,metrics_);
+				second.fork();
+				int checksum =
+				    new DecodeTask(index_,input_,output_,first_,middle,metrics_).compute();
+				return Crc32c.combine(checksum,second.join(),
+				                      index_.getPosition(last_)
+				                          - index_.getPosition(middle));
+			}
+			if ( last_ == first_ ) {
+				return 0;
+			}
+
+			Scratch scratch = SCRATCH.get();
+			int length = index_.getLength(first_);
+			if ( scratch.buffer_.length < length ) {
+				scratch.buffer_ = new byte[length];
+			}
+			HuffMetrics previous = metrics_ == null ? null
+			    : HuffMetrics.enter(metrics_); // counts the block for the caller
+			try {
+				scratch.payload_ = scratch.decoder_.read(index_,input_,first_,
+				                                         scratch.payload_,
+				                                         scratch.buffer_);
+				ByteBuffer decoded = ByteBuffer.wrap(scratch.buffer_,0,length);
+				long position = index_.getPosition(first_);
+				long time = metrics_ == null ? 0 : System.nanoTime();
+				while ( output_ != null && decoded.hasRemaining() ) { // writes the
+				                                                      // block in
+				                                                      // its place
+					position += output_.write(decoded,position);
+				}
+				if ( metrics_ != null ) {
+					metrics_.time(HuffMetrics.WRITE,time);
+				}
+			} catch ( IOException e ) {
+				throw new UncheckedIOException(e);
+			} finally {
+				if ( metrics_ != null ) {
+					HuffMetrics.enter(previous);
+				}
+			}
+			return scratch.decoder_.getChecksum();
+		}
+	}
+
+	/**
+	 * Buffers that a worker thread reuses from block to block
+	 */
+	private static class Scratch {
+		private final BlockDecoder decoder_ = new BlockDecoder();
+		private byte[] payload_ = new byte[0];
+		private byte[] buffer_ = new byte[0];
+	}
+
+	/**
+	 * Throws away what is written to it, counting the bytes
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private long count_; // bytes written so far
+
+		@Override
+		public void write ( int b ) {
+			count_++;
+		}
+
+		@Override
+		public void write ( byte[] b, int off, int len ) {
+			count_ += len;
+		}
+	}
+}
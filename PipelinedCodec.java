@@ -0,0 +1,489 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compresses and uncompresses streams in three stages that run at the same
+ * time: a reader thread fills blocks from the input, the calling thread codes
+ * them, and a writer thread writes the results, so the disk and the processor
+ * are both kept busy. The stages pass blocks along bounded queues in a fixed
+ * set of slots, each holding a block and its payload. Slots are handed back
+ * to the reader once written, so memory use stays within the budget however
+ * slow the output is: when every slot is waiting to be written, the reader
+ * stops until one comes back.
+ *
+ * The output is the same as HuffCodec writes. Streams in the older formats
+ * are uncompressed on the calling thread alone.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class PipelinedCodec {
+	/**
+	 * Memory budget used when none is given.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 16 << 20;
+
+	private static final int MIN_SLOTS = 3; // one for each stage
+	private static final int STREAM_BUFFER_SIZE = 1 << 16; // bytes buffered
+	                                                       // when reading a
+	                                                       // stream
+
+	private final int blockSize_; // number of input bytes in each block
+	private final int maxCodeLength_; // longest code allowed
+	private final boolean interleaved_; // codes blocks as interleaved streams
+	private final int slots_; // number of blocks in flight at once
+
+	/**
+	 * Uses the default block size, code length limit and memory budget
+	 */
+	public PipelinedCodec () {
+		this(HuffConstants.DEFAULT_BLOCK_SIZE,
+		     HuffConstants.DEFAULT_MAX_CODE_LENGTH,false,DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param blockSize
+	 *          number of input bytes in each block
+	 * @param maxCodeLength
+	 *          longest code allowed, from 8 to CanonicalCode.MAX_CODE_LENGTH
+	 * @param interleaved
+	 *          true to code blocks as interleaved streams, which decode faster
+	 * @param memoryBudget
+	 *          most bytes of blocks and payloads to hold at once, which must
+	 *          fit at least three blocks and their payloads. Blocks bigger than
+	 *          blockSize in a stream being uncompressed take more.
+	 * @throws IllegalArgumentException
+	 *           if a setting is out of range
+	 */
+	public PipelinedCodec ( int blockSize, int maxCodeLength, boolean interleaved,
+	                        long memoryBudget ) {
+		BlockEncoder.checkMaxCodeLength(maxCodeLength);
+		if ( blockSize < 1 || blockSize > HuffConstants.MAX_BLOCK_SIZE ) {
+			throw new IllegalArgumentException("Block size must be between 1 and "
+			    + HuffConstants.MAX_BLOCK_SIZE);
+		}
+		long slots = memoryBudget / (2L * blockSize); // a block and its payload
+		                                              // each
+		if ( slots < MIN_SLOTS ) {
+			throw new IllegalArgumentException("Memory budget must hold at least "
+			    + MIN_SLOTS + " blocks and their payloads");
+		}
+		blockSize_ = blockSize;
+		maxCodeLength_ = maxCodeLength;
+		interleaved_ = interleaved;
+		slots_ = (int) Math.min(slots,1 << 16);
+	}
+
+	/**
+	 * Gets the number of blocks that can be read, coded or written at once
+	 *
+	 * @return the number of slots
+	 */
+	public int getSlotCount () {
+		return slots_;
+	}
+
+	/**
+	 * Compresses a stream. Neither stream is closed.
+	 *
+	 * @param inputStream
+	 *          the stream to compress
+	 * @param outputStream
+	 *          the stream that the compressed data is written to
+	 * @throws IOException
+	 */
+	public void compress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		new CompressJob(inputStream,outputStream).run();
+	}
+
+	/**
+	 * Uncompresses a stream in any of the compressed formats. Neither stream is
+	 * closed.
+	 *
+	 * @param inputStream
+	 *          the compressed stream
+	 * @param outputStream
+	 *          the stream that the uncompressed data is written to
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the stream is not compressed or is corrupt
+	 */
+	public void uncompress ( InputStream inputStream, OutputStream outputStream )
+	    throws IOException {
+		if ( !inputStream.markSupported() ) {
+			inputStream = new BufferedInputStream(inputStream,STREAM_BUFFER_SIZE);
+		}
+		if ( HuffCodec.readVersion(inputStream) != HuffConstants.FORMAT_BLOCKS ) {
+			new HuffCodec(blockSize_,maxCodeLength_).uncompress(inputStream,
+			                                                    outputStream);
+			return;
+		}
+		new UncompressJob(new DataInputStream(inputStream),outputStream).run();
+	}
+
+	/**
+	 * A block on its way through the stages
+	 */
+	private static class Slot {
+		private byte[] input_ = new byte[0]; // what the reader read
+		private int inputLength_; // number of bytes of input_ in use
+		private byte[] output_ = new byte[0]; // what the writer writes
+		private int outputLength_; // number of bytes of output_ in use
+		private int type_; // the block type
+		private int checksum_; // the CRC-32C of the block's uncompressed bytes
+	}
+
+	/**
+	 * One compression or uncompression: its queues, its slots and the three
+	 * stages. The reader and the writer each get a thread of their own.
+	 */
+	private abstract class Job {
+		private final Slot end_ = new Slot(); // follows the last block
+		private final BlockingQueue<Slot> free_; // slots ready to be read into
+		private final BlockingQueue<Slot> read_; // slots waiting to be coded
+		private final BlockingQueue<Slot> coded_; // slots waiting to be written
+		private final AtomicReference<Throwable> failure_ =
+		    new AtomicReference<Throwable>(); // the first error in any stage
+		private final HuffMetrics metrics_ = HuffMetrics.current(); // also
+		                                                            // counts the
+		                                                            // other
+		                                                            // stages
+
+		Job () {
+			free_ = new ArrayBlockingQueue<Slot>(slots_);
+			for ( int i = 0 ; i < slots_ ; i++ ) {
+				free_.add(new Slot());
+			}
+			// with room for every slot and the end marker, only free_ can block
+			read_ = new ArrayBlockingQueue<Slot>(slots_ + 1);
+			coded_ = new ArrayBlockingQueue<Slot>(slots_ + 1);
+		}
+
+		/**
+		 * Reads the next block into a slot, on the reader thread
+		 *
+		 * @param slot
+		 *          the slot to fill
+		 * @return false if there are no more blocks
+		 * @throws IOException
+		 */
+		abstract boolean read ( Slot slot ) throws IOException;
+
+		/**
+		 * Codes a slot's block, on the calling thread
+		 *
+		 * @param slot
+		 *          the slot
+		 * @throws IOException
+		 */
+		abstract void code ( Slot slot ) throws IOException;
+
+		/**
+		 * Called on the calling thread after the last block has been coded
+		 */
+		abstract void endCoding ();
+
+		/**
+		 * Writes a slot's output, on the writer thread
+		 *
+		 * @param slot
+		 *          the slot
+		 * @throws IOException
+		 */
+		abstract void write ( Slot slot ) throws IOException;
+
+		/**
+		 * Ends the output after the last block has been written
+		 *
+		 * @throws IOException
+		 */
+		abstract void endWriting () throws IOException;
+
+		/**
+		 * Runs the stages until the input ends or one of them fails
+		 *
+		 * @throws IOException
+		 */
+		void run () throws IOException {
+			Thread reader = new Thread(this::readAll,"huff-reader");
+			Thread writer = new Thread(this::writeAll,"huff-writer");
+			reader.setDaemon(true);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+			try {
+				for ( Slot slot = read_.take() ; slot != end_ ; slot = read_.take() ) {
+					if ( failure_.get() == null ) {
+						try {
+							code(slot);
+						} catch ( Throwable e ) {
+							failure_.compareAndSet(null,e); // the other stages stop
+						}
+					}
+					coded_.add(slot); // given to the writer even after a failure,
+					                  // so it is recycled
+				}
+				if ( failure_.get() == null ) {
+					try {
+						endCoding();
+					} catch ( Throwable e ) {
+						failure_.compareAndSet(null,e);
+					}
+				}
+				coded_.add(end_);
+				reader.join();
+				writer.join();
+			} catch ( InterruptedException e ) {
+				failure_.compareAndSet(null,e);
+				stop(reader,writer); // the streams are still theirs until they end
+				Thread.currentThread().interrupt();
+			} catch ( Throwable e ) { // such as running out of memory between
+			                          // blocks
+				failure_.compareAndSet(null,e);
+				stop(reader,writer);
+			}
+
+			Throwable failure = failure_.get();
+			if ( failure instanceof IOException ) {
+				throw (IOException) failure;
+			} else if ( failure instanceof RuntimeException ) {
+				throw (RuntimeException) failure;
+			} else if ( failure instanceof Error ) {
+				throw (Error) failure;
+			} else if ( failure != null ) {
+				throw (IOException) new InterruptedIOException("Interrupted")
+				    .initCause(failure);
+			}
+		}
+
+		/**
+		 * Stops the reader and the writer after the calling thread has failed or
+		 * been interrupted, and waits for them to end, so that neither is left
+		 * blocked on a queue or still using a stream once run returns
+		 *
+		 * @param reader
+		 *          the reader thread
+		 * @param writer
+		 *          the writer thread
+		 */
+		private void stop ( Thread reader, Thread writer ) {
+			reader.interrupt();
+			writer.interrupt();
+			coded_.offer(end_); // stops the writer unless it has the marker
+			boolean interrupted = false;
+			for ( Thread thread : new Thread[] { reader, writer } ) {
+				while ( thread.isAlive() ) {
+					try {
+						thread.join();
+					} catch ( InterruptedException e ) {
+						interrupted = true; // still waited for, then passed on
+					}
+				}
+			}
+			if ( interrupted ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * The reader stage: fills free slots until the input ends or another
+		 * stage fails, waiting for a slot whenever all of them are in use
+		 */
+		private void readAll () {
+			HuffMetrics.enter(metrics_);
+			try {
+				while ( failure_.get() == null ) {
+					Slot slot = free_.take(); // blocks while the writer is behind
+					long time = metrics_ == null ? 0 : System.nanoTime();
+					boolean more = read(slot);
+					if ( metrics_ != null ) {
+						metrics_.time(HuffMetrics.READ,time);
+					}
+					if ( !more ) {
+						break;
+					}
+					read_.add(slot);
+				}
+			} catch ( Throwable e ) {
+				failure_.compareAndSet(null,e);
+			} finally {
+				read_.add(end_);
+			}
+		}
+
+		/**
+		 * The writer stage: writes coded slots in order and hands them back to
+		 * the reader
+		 */
+		private void writeAll () {
+			HuffMetrics.enter(metrics_);
+			try {
+				for ( Slot slot = coded_.take() ; slot != end_ ; slot = coded_.take() ) {
+					if ( failure_.get() == null ) {
+						long time = metrics_ == null ? 0 : System.nanoTime();
+						try {
+							write(slot);
+						} catch ( Throwable e ) {
+							failure_.compareAndSet(null,e); // keeps recycling slots
+						}                                 // so the reader can stop
+						if ( metrics_ != null ) {
+							metrics_.time(HuffMetrics.WRITE,time);
+						}
+					}
+					free_.add(slot);
+				}
+				if ( failure_.get() == null ) {
+					endWriting();
+				}
+			} catch ( Throwable e ) {
+				failure_.compareAndSet(null,e);
+			}
+		}
+	}
+
+	/**
+	 * Compresses a stream: the reader cuts it into blocks, and the writer writes
+	 * them in the block format
+	 */
+	private class CompressJob extends Job {
+		private final InputStream inputStream_; // the stream to compress
+		private final BlockStreamWriter blockStream_; // the compressed stream
+		private final BlockEncoder encoder_; // encodes the blocks
+
+		CompressJob ( InputStream inputStream, OutputStream outputStream )
+		    throws IOException {
+			inputStream_ = inputStream;
+			blockStream_ = new BlockStreamWriter(outputStream);
+			encoder_ = new BlockEncoder(maxCodeLength_,interleaved_);
+		}
+
+		@Override
+		boolean read ( Slot slot ) throws IOException {
+			if ( slot.input_.length < blockSize_ ) {
+				slot.input_ = new byte[blockSize_];
+			}
+			slot.inputLength_ = HuffCodec.readBlock(inputStream_,slot.input_,
+			                                        blockSize_);
+			return slot.inputLength_ > 0;
+		}
+
+		@Override
+		void code ( Slot slot ) throws IOException {
+			int payloadLength =
+			    encoder_.encode(ByteBuffer.wrap(slot.input_,0,slot.inputLength_),
+			                    (CodeTable) null);
+			if ( slot.output_.length < payloadLength ) {
+				slot.output_ = new byte[Math.max(payloadLength,blockSize_)];
+			}
+			System.arraycopy(encoder_.getPayload(),0,slot.output_,0,payloadLength);
+			slot.outputLength_ = payloadLength;
+			slot.type_ = encoder_.getType();
+			slot.checksum_ = encoder_.getChecksum();
+		}
+
+		@Override
+		void endCoding () {
+			// nothing is left to check
+		}
+
+		@Override
+		void write ( Slot slot ) throws IOException {
+			blockStream_.writeBlock(slot.type_,slot.inputLength_,slot.checksum_,
+			                        slot.output_,slot.outputLength_);
+		}
+
+		@Override
+		void endWriting () throws IOException {
+			blockStream_.finish();
+		}
+	}
+
+	/**
+	 * Uncompresses a stream in the block format: the reader reads each block's
+	 * payload, and the calling thread decodes it and checks its checksum
+	 */
+	private class UncompressJob extends Job {
+		private final DataInputStream inputStream_; // the compressed stream
+		private final OutputStream outputStream_; // the uncompressed stream
+		private final boolean checksums_; // true if the blocks have checksums
+		private final BlockDecoder decoder_; // decodes the blocks
+		private int storedChecksum_; // the stream checksum after the blocks, set
+		                             // by the reader before the end marker
+		private int checksum_; // the CRC-32C of the blocks decoded so far
+
+		UncompressJob ( DataInputStream inputStream, OutputStream outputStream )
+		    throws IOException {
+			inputStream_ = inputStream;
+			outputStream_ = outputStream;
+			inputStream.readInt(); // skips the magic number
+			inputStream.readUnsignedByte(); // skips the version
+			int flags = inputStream.readUnsignedByte(); // the index is not needed
+			HuffCodec.checkFlags(flags);
+			checksums_ = (flags & HuffConstants.FLAG_CHECKSUM) != 0;
+			decoder_ = new BlockDecoder();
+		}
+
+		@Override
+		boolean read ( Slot slot ) throws IOException {
+			slot.type_ = inputStream_.readUnsignedByte();
+			if ( slot.type_ == HuffConstants.BLOCK_END ) {
+				if ( checksums_ ) {
+					storedChecksum_ = inputStream_.readInt();
+				}
+				return false;
+			}
+			slot.outputLength_ = inputStream_.readInt();
+			slot.inputLength_ = inputStream_.readInt();
+			HuffCodec.checkBlockHeader(slot.outputLength_,slot.inputLength_);
+			if ( slot.input_.length < slot.inputLength_ ) {
+				slot.input_ = new byte[slot.inputLength_];
+			}
+			inputStream_.readFully(slot.input_,0,slot.inputLength_);
+			if ( checksums_ ) {
+				slot.checksum_ = inputStream_.readInt();
+			}
+			return true;
+		}
+
+		@Override
+		void code ( Slot slot ) throws IOException {
+			if ( slot.output_.length < slot.outputLength_ ) {
+				slot.output_ = new byte[slot.outputLength_];
+			}
+			decoder_.decode(slot.type_,slot.input_,0,slot.inputLength_,
+			                slot.output_,0,slot.outputLength_);
+			if ( checksums_ ) {
+				BlockDecoder.check(slot.checksum_,
+				                   ByteBuffer.wrap(slot.output_,0,slot.outputLength_));
+				checksum_ = Crc32c.combine(checksum_,slot.checksum_,
+				                           slot.outputLength_);
+			}
+		}
+
+		@Override
+		void endCoding () {
+			if ( checksums_ && checksum_ != storedChecksum_ ) {
+				// the blocks were all right, but some were lost or reordered
+				throw new IllegalArgumentException("Corrupt compressed data: stream checksum mismatch");
+			}
+		}
+
+		@Override
+		void write ( Slot slot ) throws IOException {
+			outputStream_.write(slot.output_,0,slot.outputLength_);
+		}
+
+		@Override
+		void endWriting () throws IOException {
+			outputStream_.flush();
+		}
+	}
+}
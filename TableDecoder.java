@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes a Huffman-coded bit stream by looking up several bits at a time in
+ * precomputed tables instead of walking the coding tree one bit at a time.
+ * Codes that fit in the primary table are decoded with a single lookup; longer
+ * codes follow a link into a secondary table indexed by the bits after the
+ * primary ones.
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class TableDecoder {
+	/**
+	 * Number of bits looked up at once in the primary table.
+	 */
+	public static final int PRIMARY_BITS = 10;
+
+	/**
+	 * Largest number of bits looked up at once in a secondary table.
+	 */
+	public static final int SECONDARY_BITS = 8;
+
+	private static final int LINK = 0x80000000; // marks an entry that points to
+	                                            // a secondary table
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16; // bytes written to
+	                                                       // the output at a
+	                                                       // time
+
+	// Each entry is either a symbol, stored as (symbol << 8) | bits, where bits
+	// is how many bits the code uses at that level, or a link, stored as
+	// LINK | (width << 24) | offset of the secondary table. An entry of 0 is not
+	// the prefix of any code.
+	private int[] table_;
+	private int size_; // number of entries of table_ in use
+	private final int eofSymbol_; // symbol that ends the stream
+
+	/**
+	 * Builds the decoding tables for a coding tree read from a compressed file
+	 *
+	 * @param codingTree
+	 *          the reconstructed coding tree
+	 */
+	public TableDecoder ( CodingTree codingTree ) {
+		long[] codes = new long[1 << HuffConstants.BITS_PER_CHARACTER];
+		int[] lengths = new int[codes.length];
+		codingTree.getEncodings(codes,lengths);
+		eofSymbol_ = HuffConstants.PSEUDO_EOF.charValue();
+		initialize(codes,lengths);
+	}
+
+	/**
+	 * @param codes
+	 *          the code for each symbol, right-aligned
+	 * @param lengths
+	 *          the length of each symbol's code, 0 if the symbol is not used
+	 * @param eofSymbol
+	 *          the symbol that ends the stream, or -1 if there is none
+	 */
+	public TableDecoder ( long[] codes, int[] lengths, int eofSymbol ) {
+		eofSymbol_ = eofSymbol;
+		initialize(codes,lengths);
+	}
+
+	/**
+	 * Builds the primary table and any secondary tables it links to
+	 *
+	 * @param codes
+	 *          the code for each symbol
+	 * @param lengths
+	 *          the length of each symbol's code
+	 */
+	private void initialize ( long[] codes, int[] lengths ) {
+		int count = 0;
+		for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+			if ( lengths[symbol] > 63 ) {
+				throw new IllegalArgumentException("Code for symbol " + symbol
+				    + " is longer than 63 bits");
+			}
+			if ( lengths[symbol] > 0 ) {
+				count++;
+			}
+		}
+		if ( count == 0 ) { // a tree with a single leaf has no bits to decode
+			table_ = new int[0];
+			return;
+		}
+
+		// sorts the symbols by their left-aligned codes so that codes sharing a
+		// prefix are next to each other (the signed order puts codes starting
+		// with 1 first, which keeps every such group contiguous)
+		long[] sorted = new long[count];
+		int next = 0;
+		for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+			if ( lengths[symbol] > 0 ) {
+				sorted[next++] = codes[symbol] << (64 - lengths[symbol]);
+			}
+		}
+		Arrays.sort(sorted);
+		int[] order = new int[count];
+		boolean[] placed = new boolean[count];
+		for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+			if ( lengths[symbol] > 0 ) {
+				int index =
+				    Arrays.binarySearch(sorted,codes[symbol] << (64 - lengths[symbol]));
+				if ( placed[index] ) {
+					throw new IllegalArgumentException("Codes are not prefix-free");
+				}
+				placed[index] = true;
+				order[index] = symbol;
+			}
+		}
+
+		table_ = new int[1 << PRIMARY_BITS];
+		size_ = table_.length;
+		build(order,0,count,codes,lengths,0,0,PRIMARY_BITS);
+	}
+
+	/**
+	 * Fills in a table for the codes order[first..last), which all share their
+	 * first consumed bits
+	 *
+	 * @param order
+	 *          symbols sorted by code
+	 * @param first
+	 *          first symbol to place
+	 * @param last
+	 *          one past the last symbol to place
+	 * @param codes
+	 *          the code for each symbol
+	 * @param lengths
+	 *          the length of each symbol's code
+	 * @param consumed
+	 *          number of bits used by the tables above this one
+	 * @param start
+	 *          offset of this table
+	 * @param width
+	 *          number of bits this table is indexed by
+	 */
+	private void build ( int[] order, int first, int last, long[] codes,
+	                     int[] lengths, int consumed, int start, int width ) {
+		int i = first;
+		while ( i < last ) {
+			int symbol = order[i];
+			int remaining = lengths[symbol] - consumed;
+			int index = index(codes[symbol],lengths[symbol],consumed,width);
+
+			if ( remaining <= width ) { // the code ends in this table
+				int entry = (symbol << 8) | remaining;
+				int span = 1 << (width - remaining);
+				if ( table_[start + index] != 0 ) {
+					throw new IllegalArgumentException("Codes are not prefix-free");
+				}
+				Arrays.fill(table_,start + index,start + index + span,entry);
+				i++;
+			} else { // the code continues in a secondary table
+				int j = i;
+				int longest = 0;
+				while ( j < last
+				    && index(codes[order[j]],lengths[order[j]],consumed,width) == index ) {
+					longest = Math.max(longest,lengths[order[j]]);
+					j++;
+				}
+				int subWidth = Math.min(longest - consumed - width,SECONDARY_BITS);
+				int subStart = allocate(1 << subWidth);
+				table_[start + index] = LINK | (subWidth << 24) | subStart;
+				build(order,i,j,codes,lengths,consumed + width,subStart,subWidth);
+				i = j;
+			}
+		}
+	}
+
+	/**
+	 * Gets the bits of a code that index the table at the given depth
+	 *
+	 * @return the width bits following the first consumed bits of the code
+	 */
+	private static int index ( long code, int length, int consumed, int width ) {
+		long aligned = code << (64 - length);
+		return (int) ((aligned << consumed) >>> (64 - width));
+	}
+
+	/**
+	 * Reserves space for a secondary table at the end of the table array
+	 *
+	 * @param entries
+	 *          size of the secondary table
+	 * @return offset of the secondary table
+	 */
+	private int allocate ( int entries ) {
+		if ( size_ + entries > table_.length ) {
+			table_ = Arrays.copyOf(table_,Math.max(table_.length * 2,size_ + entries));
+		}
+		int start = size_;
+		size_ += entries;
+		return start;
+	}
+
+	/**
+	 * Decodes symbols and writes them to an output stream, one byte each, until
+	 * the end-of-file symbol is read or the input runs out
+	 *
+	 * @param inputStream
+	 *          stream positioned at the first coded symbol
+	 * @param outputStream
+	 *          stream that the decoded characters are written to
+	 * @return the number of characters written
+	 * @throws IOException
+	 */
+	public long decode ( BitReader inputStream, OutputStream outputStream )
+	    throws IOException {
+		if ( table_.length == 0 ) { // nothing can be decoded without reading bits
+			return 0;
+		}
+
+		int[] table = table_;
+		byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+		int buffered = 0;
+		long written = 0;
+
+		for ( ;; ) {
+			int symbol = next(table,inputStream);
+			if ( symbol < 0 ) {
+				break; // the input ran out in the middle of a code
+			}
+			if ( symbol == eofSymbol_ ) {
+				break;
+			}
+			buffer[buffered++] = (byte) symbol;
+			if ( buffered == buffer.length ) {
+				outputStream.write(buffer,0,buffered);
+				written += buffered;
+				buffered = 0;
+			}
+		}
+
+		outputStream.write(buffer,0,buffered);
+		return written + buffered;
+	}
+
+	/**
+	 * Decodes an exact number of symbols into an array, one byte each
+	 *
+	 * @param inputStream
+	 *          bit reader positioned at the first coded symbol
+	 * @param buffer
+	 *          array that the decoded bytes are written to
+	 * @param offset
+	 *          index of the first decoded byte
+	 * @param length
+	 *          number of symbols to decode
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the input ends early or holds a code that is not in the table
+	 */
+	public void decode ( BitReader inputStream, byte[] buffer, int offset,
+	                     int length ) throws IOException {
+		decode(inputStream,ByteBuffer.wrap(buffer,offset,length),length);
+	}
+
+	/**
+	 * Decodes an exact number of symbols into a buffer, one byte each, starting
+	 * at the buffer's position. The position is moved past the decoded bytes.
+	 *
+	 * @param inputStream
+	 *          bit reader positioned at the first coded symbol
+	 * @param buffer
+	 *          buffer that the decoded bytes are written to, such as a region of
+	 *          a mapped file
+	 * @param length
+	 *          number of symbols to decode
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if the input ends early or holds a code that is not in the table
+	 */
+	public void decode ( BitReader inputStream, ByteBuffer buffer, int length )
+	    throws IOException {
+		int[] table = table_;
+		if ( table.length == 0 && length > 0 ) {
+			throw new IllegalArgumentException("Corrupt compressed data");
+		}
+
+		int start = buffer.position();
+		int end = start + length;
+		for ( int i = start ; i < end ; i++ ) {
+			int symbol = next(table,inputStream);
+			if ( symbol < 0 ) {
+				throw new IllegalArgumentException("Corrupt compressed data");
+			}
+			buffer.put(i,(byte) symbol);
+		}
+		buffer.position(end);
+	}
+
+	/**
+	 * Decodes an exact number of symbols that were dealt round-robin into four
+	 * bit streams, so symbol i comes from stream i % 4. Each pass of the loop
+	 * decodes one symbol from every stream; the four lookups do not depend on
+	 * each other, so the processor can work on them at the same time. The
+	 * buffer's position is moved past the decoded bytes.
+	 *
+	 * @param stream0
+	 *          bit reader for symbols 0, 4, 8, ...
+	 * @param stream1
+	 *          bit reader for symbols 1, 5, 9, ...
+	 * @param stream2
+	 *          bit reader for symbols 2, 6, 10, ...
+	 * @param stream3
+	 *          bit reader for symbols 3, 7, 11, ...
+	 * @param buffer
+	 *          buffer that the decoded bytes are written to, starting at its
+	 *          position
+	 * @param length
+	 *          number of symbols to decode
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *           if a stream ends early or holds a code that is not in the table
+	 */
+	public void decode ( BitReader stream0, BitReader stream1, BitReader stream2,
+	                     BitReader stream3, ByteBuffer buffer, int length )
+	    throws IOException {
+		int[] table = table_;
+		if ( table.length == 0 && length > 0 ) {
+			throw new IllegalArgumentException("Corrupt compressed data");
+		}
+
+		int start = buffer.position();
+		int end = start + length;
+		int i = start;
+		for ( ; i + 4 <= end ; i += 4 ) {
+			int symbol0 = next(table,stream0);
+			int symbol1 = next(table,stream1);
+			int symbol2 = next(table,stream2);
+			int symbol3 = next(table,stream3);
+			if ( (symbol0 | symbol1 | symbol2 | symbol3) < 0 ) {
+				throw new IllegalArgumentException("Corrupt compressed data");
+			}
+			buffer.put(i,(byte) symbol0);
+			buffer.put(i + 1,(byte) symbol1);
+			buffer.put(i + 2,(byte) symbol2);
+			buffer.put(i + 3,(byte) symbol3);
+		}
+		BitReader[] streams = { stream0, stream1, stream2 };
+		for ( int stream = 0 ; i < end ; i++, stream++ ) { // the last few symbols
+			int symbol = next(table,streams[stream]);
+			if ( symbol < 0 ) {
+				throw new IllegalArgumentException("Corrupt compressed data");
+			}
+			buffer.put(i,(byte) symbol);
+		}
+		buffer.position(end);
+	}
+
+	/**
+	 * Decodes one symbol. This is the only place that walks the tables; every
+	 * decode method goes through it.
+	 *
+	 * @param table
+	 *          the decoding tables
+	 * @param inputStream
+	 *          bit reader positioned at the symbol's code
+	 * @return the symbol, or -1 if the input ends in the middle of a code or
+	 *         holds a code that is not in the table
+	 * @throws IOException
+	 */
+	private static int next ( int[] table, BitReader inputStream )
+	    throws IOException {
+		int width = PRIMARY_BITS;
+		int entry = table[inputStream.peek(width)];
+		while ( entry < 0 ) { // follows links into secondary tables
+			if ( inputStream.available() < width ) {
+				return -1;
+			}
+			inputStream.skip(width);
+			width = (entry >>> 24) & 0x3F;
+			entry = table[(entry & 0xFFFFFF) + inputStream.peek(width)];
+		}
+		int bits = entry & 0xFF;
+		if ( bits == 0 || bits > inputStream.available() ) {
+			return -1;
+		}
+		inputStream.skip(bits);
+		return entry >>> 8;
+	}
+}
@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each of HuffBenchmark's benchmarks under JMH, one stage, corpus and
+ * size at a time. Build and run it with:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar -p stage=decode,nextChar -p corpus=skewed
+ * </pre>
+ *
+ * The megabytes counter is the throughput in MB/s. With -prof gc,
+ * gc.alloc.rate.norm is the bytes allocated per operation, which divided by
+ * the size of the corpus is the bytes allocated per input byte.
+ *
+ * JMH cannot generate code for a class in the unnamed package, and a class in
+ * a named package cannot refer to one in the unnamed package, so the
+ * benchmarks are set up through reflection. The work itself is timed through
+ * a plain LongSupplier.
+ *
+ * @author Kidus Asmare Ayele
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+	@Param({ "count", "lengths", "tree", "encodings", "encode", "decode",
+	         "encode4", "decode4", "codec", "nextChar", "compare", "compareNio" })
+	public String stage; // the benchmark to run
+
+	@Param({ "uniform", "zipf", "skewed", "english", "compressed" })
+	public String corpus; // the kind of data
+
+	@Param({ "small", "medium", "large" })
+	public String size; // how much data
+
+	private LongSupplier operation_; // the work being timed
+	private double megabytes_; // size of the data in MB
+	private File directory_; // holds the files the compare stages read
+
+	/**
+	 * Counts the data handled, so that JMH reports it per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public double megabytes; // MB of input handled
+	}
+
+	@Setup(Level.Trial)
+	public void setUp () throws IOException, ReflectiveOperationException {
+		Class<?> harness = Class.forName("HuffBenchmark");
+		Method corpusMethod =
+		    harness.getMethod("corpus",String.class,String.class);
+		Method benchmarkMethod =
+		    harness.getMethod("benchmark",String.class,byte[].class,File.class);
+		directory_ = Files.createTempDirectory("huffjmh").toFile();
+		try {
+			byte[] data = (byte[]) corpusMethod.invoke(null,corpus,size);
+			megabytes_ = data.length / 1e6;
+			operation_ =
+			    (LongSupplier) benchmarkMethod.invoke(null,stage,data,directory_);
+		} catch ( InvocationTargetException e ) {
+			if ( e.getCause() instanceof IOException ) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		for ( File file : directory_.listFiles() ) {
+			file.delete();
+		}
+		directory_.delete();
+	}
+
+	@Benchmark
+	public long run ( Counters counters ) {
+		counters.megabytes += megabytes_;
+		return operation_.getAsLong();
+	}
+}
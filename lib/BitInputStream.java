@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an input stream one bit at a time, most significant bit of each byte
+ * first.
+ * 
+ * A stand-in for the course library's BitInputStream, which is not in this
+ * repository. It is not the library's source: it was written from the calls
+ * this project makes, and has only those.
+ */
+public class BitInputStream implements Closeable {
+	private final InputStream inputStream_; // the bytes being read
+	private int current_; // the byte whose bits are being read, or -1 at the
+	                      // end of the stream
+	private int remaining_; // bits of current_ not read yet
+
+	/**
+	 * @param inputStream
+	 *          the stream to read bits from
+	 */
+	public BitInputStream ( InputStream inputStream ) {
+		inputStream_ = inputStream;
+	}
+
+	/**
+	 * @return true if every bit has been read
+	 * @throws IOException
+	 */
+	public boolean eof () throws IOException {
+		fill();
+		return current_ < 0;
+	}
+
+	/**
+	 * Reads bits, stopping early at the end of the stream
+	 * 
+	 * @param count
+	 *          number of bits to read
+	 * @return the bits read
+	 * @throws IOException
+	 */
+	public BitString readBits ( int count ) throws IOException {
+		StringBuilder bits = new StringBuilder(count);
+		for ( int i = 0 ; i < count && !eof() ; i++ ) {
+			remaining_--;
+			bits.append((current_ >> remaining_ & 1) == 1 ? '1' : '0');
+		}
+		return new BitString(bits.toString());
+	}
+
+	/**
+	 * Reads the next byte if every bit of the current one has been read
+	 * 
+	 * @throws IOException
+	 */
+	private void fill () throws IOException {
+		if ( remaining_ == 0 && current_ >= 0 ) {
+			current_ = inputStream_.read();
+			remaining_ = 8;
+		}
+	}
+
+	@Override
+	public void close () throws IOException {
+		inputStream_.close();
+	}
+}
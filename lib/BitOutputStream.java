@@ -0,0 +1,63 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes bits to an output stream, most significant bit of each byte first.
+ * 
+ * A stand-in for the course library's BitOutputStream, which is not in this
+ * repository. It is not the library's source: it was written from the calls
+ * this project makes, and has only those.
+ */
+public class BitOutputStream implements Closeable, Flushable {
+	private final OutputStream outputStream_; // where the bytes go
+	private int current_; // bits waiting to fill a byte
+	private int count_; // number of bits in current_
+
+	/**
+	 * @param outputStream
+	 *          the stream to write bits to
+	 */
+	public BitOutputStream ( OutputStream outputStream ) {
+		outputStream_ = outputStream;
+	}
+
+	/**
+	 * @param bits
+	 *          the bits to write
+	 * @throws IOException
+	 */
+	public void writeBits ( BitString bits ) throws IOException {
+		for ( int i = 0 ; i < bits.length() ; i++ ) {
+			current_ = current_ << 1 | (bits.charAt(i) - '0');
+			if ( ++count_ == 8 ) {
+				outputStream_.write(current_);
+				current_ = 0;
+				count_ = 0;
+			}
+		}
+	}
+
+	/**
+	 * Writes any bits waiting to fill a byte, padded with zeros, and flushes
+	 * the stream
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void flush () throws IOException {
+		if ( count_ > 0 ) {
+			outputStream_.write(current_ << (8 - count_));
+			current_ = 0;
+			count_ = 0;
+		}
+		outputStream_.flush();
+	}
+
+	@Override
+	public void close () throws IOException {
+		flush();
+		outputStream_.close();
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * An immutable string of bits.
+ * 
+ * A stand-in for the course library's BitString, which is not in this
+ * repository. It is not the library's source: it was written from the calls
+ * this project makes, and has only those.
+ */
+public class BitString {
+	public static final BitString ZERO = new BitString("0"); // the bit 0
+	public static final BitString ONE = new BitString("1"); // the bit 1
+
+	private final String bits_; // the bits as '0' and '1' characters
+
+	/**
+	 * Creates an empty bit string
+	 */
+	public BitString () {
+		bits_ = "";
+	}
+
+	/**
+	 * @param bits
+	 *          the bits as '0' and '1' characters
+	 * @throws IllegalArgumentException
+	 *           if bits contains any other character
+	 */
+	public BitString ( String bits ) {
+		for ( int i = 0 ; i < bits.length() ; i++ ) {
+			if ( bits.charAt(i) != '0' && bits.charAt(i) != '1' ) {
+				throw new IllegalArgumentException("Not a bit string: " + bits);
+			}
+		}
+		bits_ = bits;
+	}
+
+	/**
+	 * Creates the 8 bits of a character, most significant first
+	 * 
+	 * @param character
+	 *          the character, from 0 to 255
+	 */
+	public BitString ( Character character ) {
+		StringBuilder bits = new StringBuilder(HuffConstants.BITS_PER_CHARACTER);
+		for ( int i = HuffConstants.BITS_PER_CHARACTER - 1 ; i >= 0 ; i-- ) {
+			bits.append((character.charValue() >> i & 1) == 1 ? '1' : '0');
+		}
+		bits_ = bits.toString();
+	}
+
+	/**
+	 * Makes a longer bit string
+	 * 
+	 * @param bit
+	 *          0 or 1
+	 * @return this bit string followed by bit
+	 */
+	public BitString concat ( int bit ) {
+		return new BitString(bits_ + (bit == 0 ? '0' : '1'));
+	}
+
+	/**
+	 * @return the number of bits
+	 */
+	public int length () {
+		return bits_.length();
+	}
+
+	/**
+	 * @param index
+	 *          position of a bit, from 0
+	 * @return '0' or '1'
+	 */
+	public char charAt ( int index ) {
+		return bits_.charAt(index);
+	}
+
+	/**
+	 * Reads the bits as an unsigned number, most significant first
+	 * 
+	 * @return the number as a character
+	 */
+	public Character toCharacter () {
+		int value = 0;
+		for ( int i = 0 ; i < bits_.length() ; i++ ) {
+			value = value << 1 | (bits_.charAt(i) - '0');
+		}
+		return (char) value;
+	}
+
+	@Override
+	public boolean equals ( Object other ) {
+		return other instanceof BitString && ((BitString) other).bits_.equals(bits_);
+	}
+
+	@Override
+	public int hashCode () {
+		return bits_.hashCode();
+	}
+
+	@Override
+	public String toString () {
+		return bits_;
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ * A node of a binary Trie.
+ * 
+ * A stand-in for the course library's Node, which is not in this repository.
+ * It is not the library's source: it was written from the calls this project
+ * makes, and has only those.
+ * 
+ * @param <V>
+ *          type of the element the node holds
+ */
+public class Node<V> {
+	V element_; // the element, or null for an internal node
+	Node<V> zero_; // the child on the 0 side, or null
+	Node<V> one_; // the child on the 1 side, or null
+
+	/**
+	 * @param element
+	 *          the element the node holds
+	 */
+	Node ( V element ) {
+		element_ = element;
+	}
+
+	/**
+	 * @return the element the node holds
+	 */
+	public V getElement () {
+		return element_;
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * A binary trie whose children are keyed by a bit.
+ * 
+ * A stand-in for the course library's Trie, which is not in this repository.
+ * It is not the library's source: it was written from the calls this project
+ * makes, and has only those.
+ * 
+ * @param <K>
+ *          type of the keys, whose string form is "0" or "1"
+ * @param <V>
+ *          type of the elements
+ */
+public class Trie<K,V> {
+	private final Node<V> root_; // the root node
+
+	/**
+	 * Creates a trie whose root is an internal node
+	 */
+	public Trie () {
+		root_ = new Node<V>(null);
+	}
+
+	/**
+	 * Creates a trie that is a single leaf
+	 * 
+	 * @param element
+	 *          the leaf's element
+	 */
+	public Trie ( V element ) {
+		root_ = new Node<V>(element);
+	}
+
+	/**
+	 * @return the root node
+	 */
+	public Node<V> getRoot () {
+		return root_;
+	}
+
+	/**
+	 * @param node
+	 *          a node of this trie
+	 * @param key
+	 *          the side of the child
+	 * @return the child, or null if there is none
+	 */
+	public Node<V> getChild ( Node<V> node, K key ) {
+		return isZero(key) ? node.zero_ : node.one_;
+	}
+
+	/**
+	 * Makes another trie's root a child of a node
+	 * 
+	 * @param node
+	 *          a node of this trie
+	 * @param trie
+	 *          the trie to attach
+	 * @param key
+	 *          the side of the child
+	 */
+	public void attach ( Node<V> node, Trie<K,V> trie, K key ) {
+		if ( isZero(key) ) {
+			node.zero_ = trie.root_;
+		} else {
+			node.one_ = trie.root_;
+		}
+	}
+
+	/**
+	 * @param node
+	 *          a node of this trie
+	 * @return true if the node has no children
+	 */
+	public boolean isLeaf ( Node<V> node ) {
+		return node.zero_ == null && node.one_ == null;
+	}
+
+	/**
+	 * @param node
+	 *          a node of this trie
+	 * @return true if the node has a child
+	 */
+	public boolean isInternal ( Node<V> node ) {
+		return !isLeaf(node);
+	}
+
+	/**
+	 * @param key
+	 *          a key
+	 * @return true if the key means the 0 side
+	 */
+	private boolean isZero ( K key ) {
+		return key.toString().equals("0");
+	}
+}
@@ -0,0 +1,204 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that appending to a compressed file gives its old contents followed
+ * by the new data, whatever kind of block-format file it was, and that a
+ * failed append leaves the file as it was
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class AppendTest {
+	private static final int BLOCK_SIZE = 4096; // small enough that the data
+	                                            // takes several blocks
+
+	@TempDir
+	File directory_; // holds the compressed files
+
+	private final HuffCodec codec_ =
+	    new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH); // codes
+	                                                                    // the
+	                                                                    // data
+
+	@Test
+	public void appendsToAnIndexedFile () throws IOException {
+		byte[] old = data(3 * BLOCK_SIZE + 100,1);
+		checkAppend(codec_.compress(old),old); // several blocks and an index
+	}
+
+	@Test
+	public void appendsToAFileWithoutAnIndex () throws IOException {
+		byte[] old = data(BLOCK_SIZE / 2,2);
+		checkAppend(codec_.compress(old),old); // one block, so no index
+	}
+
+	@Test
+	public void appendsToAFileWithoutChecksums () throws IOException {
+		byte[] old = data(2 * BLOCK_SIZE + 7,3);
+		checkAppend(withoutChecksums(codec_.compress(old)),old);
+	}
+
+	@Test
+	public void appendsToAnEmptyFile () throws IOException {
+		checkAppend(new byte[0],new byte[0]);
+	}
+
+	@Test
+	public void leavesAnIndexedFileAloneIfAppendingFails () throws IOException {
+		checkFailedAppend(codec_.compress(data(3 * BLOCK_SIZE + 100,4)));
+	}
+
+	@Test
+	public void leavesAFileWithoutAnIndexAloneIfAppendingFails ()
+	    throws IOException {
+		checkFailedAppend(codec_.compress(data(BLOCK_SIZE / 2,5)));
+	}
+
+	/**
+	 * Appends twice to a compressed file and checks that it uncompresses and
+	 * verifies as everything that went into it
+	 *
+	 * @param compressed
+	 *          the file's contents
+	 * @param old
+	 *          what they uncompress to
+	 * @throws IOException
+	 */
+	private void checkAppend ( byte[] compressed, byte[] old ) throws IOException {
+		File file = new File(directory_,"file.huff");
+		Files.write(file.toPath(),compressed);
+		byte[] first = data(2 * BLOCK_SIZE + 33,6);
+		byte[] second = data(BLOCK_SIZE / 3,7);
+		assertEquals(first.length,append(file,new ByteArrayInputStream(first)));
+		assertEquals(second.length,append(file,new ByteArrayInputStream(second)));
+
+		byte[] expected = concat(concat(old,first),second);
+		File uncompressed = new File(directory_,"file");
+		Huff.uncompress(file.getPath(),uncompressed.getPath());
+		assertArrayEquals(expected,Files.readAllBytes(uncompressed.toPath()));
+		assertArrayEquals(expected,codec_.uncompress(Files.readAllBytes(file.toPath())));
+		assertEquals(expected.length,Huff.verify(file.getPath(),2));
+	}
+
+	/**
+	 * Appends data whose stream fails after several blocks, and checks that the
+	 * file is left exactly as it was
+	 *
+	 * @param compressed
+	 *          the file's contents
+	 * @throws IOException
+	 */
+	private void checkFailedAppend ( byte[] compressed ) throws IOException {
+		File file = new File(directory_,"file.huff");
+		Files.write(file.toPath(),compressed);
+		InputStream failing = new ByteArrayInputStream(data(60 * BLOCK_SIZE,8)) {
+			@Override
+			public synchronized int read ( byte[] b, int off, int len ) {
+				if ( pos > 40 * BLOCK_SIZE ) { // after more blocks have been
+				                               // written than are buffered
+					throw new IllegalStateException("read failed");
+				}
+				return super.read(b,off,len);
+			}
+		};
+		assertThrows(IllegalStateException.class,() -> append(file,failing));
+		assertArrayEquals(compressed,Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * @param file
+	 *          the compressed file
+	 * @param inputStream
+	 *          the data to append
+	 * @return the number of bytes appended
+	 * @throws IOException
+	 */
+	private long append ( File file, InputStream inputStream ) throws IOException {
+		try ( FileChannel channel =
+		    FileChannel.open(file.toPath(),StandardOpenOption.READ,
+		                     StandardOpenOption.WRITE) ) {
+			return codec_.append(channel,inputStream);
+		}
+	}
+
+	/**
+	 * Rewrites compressed data without block checksums, the stream checksum or
+	 * the index, as older writers left it
+	 *
+	 * @param compressed
+	 *          data in the block format, with checksums
+	 * @return the same blocks without them
+	 * @throws IOException
+	 */
+	private static byte[] withoutChecksums ( byte[] compressed )
+	    throws IOException {
+		DataInputStream inputStream =
+		    new DataInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream outputStream = new DataOutputStream(bytes);
+		outputStream.writeInt(inputStream.readInt()); // the magic number
+		outputStream.writeByte(inputStream.readUnsignedByte()); // the version
+		inputStream.readUnsignedByte(); // the flags, which become none
+		outputStream.writeByte(0);
+		int type = inputStream.readUnsignedByte();
+		while ( type != HuffConstants.BLOCK_END ) {
+			outputStream.writeByte(type);
+			outputStream.writeInt(inputStream.readInt()); // the length
+			byte[] payload = new byte[inputStream.readInt()];
+			outputStream.writeInt(payload.length);
+			inputStream.readFully(payload);
+			outputStream.write(payload);
+			inputStream.readInt(); // the block's checksum
+			type = inputStream.readUnsignedByte();
+		}
+		outputStream.writeByte(HuffConstants.BLOCK_END);
+		outputStream.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param length
+	 *          number of bytes
+	 * @param seed
+	 *          chooses the bytes
+	 * @return text-like bytes that compress
+	 */
+	private static byte[] data ( int length, long seed ) {
+		byte[] data = new byte[length];
+		Random random = new Random(seed);
+		for ( int i = 0 ; i < length ; i++ ) {
+			data[i] = (byte) ('a' + Math.min(random.nextInt(40),25));
+		}
+		return data;
+	}
+
+	/**
+	 * @param a
+	 *          some bytes
+	 * @param b
+	 *          more bytes
+	 * @return a followed by b
+	 */
+	private static byte[] concat ( byte[] a, byte[] b ) {
+		byte[] both = Arrays.copyOf(a,a.length + b.length);
+		System.arraycopy(b,0,both,a.length,b.length);
+		return both;
+	}
+}
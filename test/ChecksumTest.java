@@ -0,0 +1,167 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a change to a payload, a block checksum or the stream checksum
+ * is caught by every way of uncompressing and by verify
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class ChecksumTest {
+	private static final int BLOCK_SIZE = 4096; // small enough that the data
+	                                            // takes several blocks
+	private static final int BLOCK = 1; // the block that is damaged, which is
+	                                    // neither the first nor the last
+
+	@TempDir
+	File directory_; // holds the compressed files
+
+	private final HuffCodec codec_ =
+	    new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH); // codes
+	                                                                    // the
+	                                                                    // data
+
+	@Test
+	public void passesUndamagedData () throws IOException {
+		byte[] data = text();
+		File file = write(codec_.compress(data));
+		File output = new File(directory_,"output");
+		Huff.uncompress(file.getPath(),output.getPath());
+		assertArrayEquals(data,Files.readAllBytes(output.toPath()));
+		assertEquals(data.length,Huff.verify(file.getPath(),2));
+	}
+
+	@Test
+	public void catchesAChangedPayloadByte () throws IOException {
+		byte[] compressed = codec_.compress(text());
+		int payload = blockOffset(compressed,BLOCK) + HuffConstants.BLOCK_HEADER_SIZE;
+		compressed[payload + payloadLength(compressed,BLOCK) / 2] ^= 0x10;
+		checkRejected(compressed);
+	}
+
+	@Test
+	public void catchesAChangedStoredByte () throws IOException {
+		byte[] data = new byte[3 * BLOCK_SIZE];
+		new Random(1).nextBytes(data); // stored, so only the checksum can tell
+		byte[] compressed = codec_.compress(data);
+		int payload = blockOffset(compressed,BLOCK) + HuffConstants.BLOCK_HEADER_SIZE;
+		assertEquals(HuffConstants.BLOCK_STORED,
+		             compressed[blockOffset(compressed,BLOCK)]);
+		compressed[payload + 100] ^= 0x01;
+		checkRejected(compressed);
+	}
+
+	@Test
+	public void catchesAChangedBlockChecksum () throws IOException {
+		byte[] compressed = codec_.compress(text());
+		int checksum = blockOffset(compressed,BLOCK)
+		    + HuffConstants.BLOCK_HEADER_SIZE + payloadLength(compressed,BLOCK);
+		compressed[checksum + 3] ^= 0x01;
+		checkRejected(compressed);
+	}
+
+	@Test
+	public void catchesAChangedStreamChecksum () throws IOException {
+		byte[] compressed = codec_.compress(text());
+		int end = blockOffset(compressed,blockCount(compressed)); // the end marker
+		assertEquals(HuffConstants.BLOCK_END,compressed[end]);
+		compressed[end + 1] ^= (byte) 0x80;
+		checkRejected(compressed);
+	}
+
+	/**
+	 * Checks that damaged data is rejected by HuffCodec, by the pipelined and
+	 * parallel file paths, and by verify
+	 *
+	 * @param compressed
+	 *          the damaged data
+	 * @throws IOException
+	 */
+	private void checkRejected ( byte[] compressed ) throws IOException {
+		File file = write(compressed);
+		String output = new File(directory_,"output").getPath();
+		assertThrows(IllegalArgumentException.class,
+		             () -> codec_.uncompress(compressed));
+		assertThrows(IllegalArgumentException.class,
+		             () -> Huff.uncompress(file.getPath(),output));
+		assertThrows(IllegalArgumentException.class,
+		             () -> Huff.uncompress(file.getPath(),output,2));
+		assertThrows(IllegalArgumentException.class,
+		             () -> Huff.verify(file.getPath(),2));
+	}
+
+	/**
+	 * @param compressed
+	 *          data in the block format
+	 * @param block
+	 *          the number of a block, or the block count for the end marker
+	 * @return where the block's header starts
+	 */
+	private static int blockOffset ( byte[] compressed, int block ) {
+		ByteBuffer buffer = ByteBuffer.wrap(compressed);
+		int offset = HuffConstants.STREAM_HEADER_SIZE;
+		for ( int i = 0 ; i < block ; i++ ) {
+			offset += HuffConstants.BLOCK_HEADER_SIZE + buffer.getInt(offset + 5)
+			    + HuffConstants.CHECKSUM_SIZE;
+		}
+		return offset;
+	}
+
+	/**
+	 * @param compressed
+	 *          data in the block format
+	 * @param block
+	 *          the number of a block
+	 * @return the length of the block's payload
+	 */
+	private static int payloadLength ( byte[] compressed, int block ) {
+		return ByteBuffer.wrap(compressed).getInt(blockOffset(compressed,block) + 5);
+	}
+
+	/**
+	 * @param compressed
+	 *          data in the block format
+	 * @return the number of blocks
+	 */
+	private static int blockCount ( byte[] compressed ) {
+		int count = 0;
+		while ( compressed[blockOffset(compressed,count)] != HuffConstants.BLOCK_END ) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param compressed
+	 *          the file's contents
+	 * @return the file, in the test's directory
+	 * @throws IOException
+	 */
+	private File write ( byte[] compressed ) throws IOException {
+		File file = new File(directory_,"file.huff");
+		Files.write(file.toPath(),compressed);
+		return file;
+	}
+
+	/**
+	 * @return three and a half blocks of text-like bytes, which are coded
+	 */
+	private static byte[] text () {
+		byte[] data = new byte[3 * BLOCK_SIZE + BLOCK_SIZE / 2];
+		Random random = new Random(2);
+		for ( int i = 0 ; i < data.length ; i++ ) {
+			data[i] = (byte) ('a' + Math.min(random.nextInt(40),25));
+		}
+		return data;
+	}
+}
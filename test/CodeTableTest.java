@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that trained code tables round-trip small messages, survive being
+ * saved and loaded, make small messages smaller than blocks with their own
+ * code do, and that data naming an unknown table is rejected
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class CodeTableTest {
+	private static final String[] NAMES = { "Abebe", "Tigist", "Dawit", "Hana",
+	                                        "Yonas", "Meron" }; // fill the
+	                                                            // messages
+	private static final CodeTable TABLE =
+	    CodeTable.train(messages(500,1),HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+
+	@Test
+	public void roundTripsWithATrainedTable () throws IOException {
+		HuffCodec codec = new HuffCodec(TABLE);
+		for ( byte[] message : messages(50,2) ) {
+			byte[] compressed = codec.compress(message);
+			assertEquals(HuffConstants.BLOCK_TABLE,
+			             compressed[HuffConstants.STREAM_HEADER_SIZE]);
+			assertArrayEquals(message,codec.uncompress(compressed));
+			assertArrayEquals(message,new HuffCodec().uncompress(compressed),
+			                  "any codec can read a registered table");
+		}
+	}
+
+	@Test
+	public void shrinksSmallMessages () throws IOException {
+		HuffCodec trained = new HuffCodec(TABLE);
+		HuffCodec untrained = new HuffCodec();
+		for ( byte[] message : messages(50,3) ) {
+			int trainedSize = trained.compress(message).length;
+			int untrainedSize = untrained.compress(message).length;
+			assertTrue(trainedSize < untrainedSize,"trained " + trainedSize
+			    + " bytes, untrained " + untrainedSize);
+		}
+	}
+
+	@Test
+	public void readsWhatItWrites () throws IOException {
+		ByteArrayOutputStream saved = new ByteArrayOutputStream();
+		TABLE.write(saved);
+		CodeTable loaded = CodeTable.read(new ByteArrayInputStream(saved.toByteArray()));
+		assertEquals(TABLE.getId(),loaded.getId());
+		assertArrayEquals(TABLE.getCode().getLengths(),loaded.getCode().getLengths());
+	}
+
+	@Test
+	public void rejectsCorruptTables () throws IOException {
+		ByteArrayOutputStream saved = new ByteArrayOutputStream();
+		TABLE.write(saved);
+		byte[] bytes = saved.toByteArray();
+		byte[] changed = bytes.clone();
+		changed[changed.length - 1]++; // a code length no longer matches the ID
+		assertThrows(IllegalArgumentException.class,
+		             () -> CodeTable.read(new ByteArrayInputStream(changed)));
+		assertThrows(IllegalArgumentException.class,
+		             () -> CodeTable.read(new ByteArrayInputStream(bytes,0,
+		                                                           bytes.length - 1)));
+	}
+
+	@Test
+	public void rejectsUnknownTables () throws IOException {
+		byte[] compressed = new HuffCodec(TABLE).compress(messages(1,4).get(0));
+		ByteBuffer buffer = ByteBuffer.wrap(compressed);
+		int idOffset = HuffConstants.STREAM_HEADER_SIZE
+		    + HuffConstants.BLOCK_HEADER_SIZE;
+		int id = TABLE.getId();
+		while ( isRegistered(id) ) {
+			id++;
+		}
+		buffer.putInt(idOffset,id);
+		IllegalArgumentException e =
+		    assertThrows(IllegalArgumentException.class,
+		                 () -> new HuffCodec().uncompress(compressed));
+		assertEquals("Unknown code table " + String.format("%08x",id),
+		             e.getMessage());
+	}
+
+	/**
+	 * @param id
+	 *          a table ID
+	 * @return true if a table with the ID is registered
+	 */
+	private static boolean isRegistered ( int id ) {
+		try {
+			CodeTable.get(id);
+			return true;
+		} catch ( IllegalArgumentException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param count
+	 *          number of messages
+	 * @param seed
+	 *          chooses the messages
+	 * @return small JSON messages that look alike
+	 */
+	private static List<byte[]> messages ( int count, long seed ) {
+		Random random = new Random(seed);
+		List<byte[]> messages = new ArrayList<byte[]>();
+		for ( int i = 0 ; i < count ; i++ ) {
+			String message = "{\"id\":" + random.nextInt(100000) + ",\"name\":\""
+			    + NAMES[random.nextInt(NAMES.length)] + "\",\"status\":\""
+			    + (random.nextBoolean() ? "active" : "pending")
+			    + "\",\"score\":" + random.nextInt(1000) + "}";
+			messages.add(message.getBytes(StandardCharsets.US_ASCII));
+		}
+		return messages;
+	}
+}
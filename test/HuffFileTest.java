@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks random access and parallel decoding on files with and without a
+ * block index
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffFileTest {
+	@TempDir
+	File directory_; // holds the compressed files
+
+	@Test
+	public void readsSingleBlockFilesWithoutAnIndex () throws IOException {
+		HuffCodec codec = new HuffCodec();
+		Random random = new Random(1);
+		for ( int length = 1 ; length <= 100 ; length++ ) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			File file = new File(directory_,"small.huff");
+			Files.write(file.toPath(),codec.compress(data)); // one block, no index
+			checkReads(file,data);
+		}
+	}
+
+	@Test
+	public void readsIndexedFiles () throws IOException {
+		HuffCodec codec = new HuffCodec(1000,HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+		byte[] data = HuffBenchmark.corpus("english","small");
+		File file = new File(directory_,"indexed.huff");
+		Files.write(file.toPath(),codec.compress(data));
+		checkReads(file,data);
+	}
+
+	/**
+	 * Reads a compressed file back through HuffFile and ParallelDecompressor
+	 *
+	 * @param file
+	 *          the compressed file
+	 * @param data
+	 *          what it holds
+	 * @throws IOException
+	 */
+	private void checkReads ( File file, byte[] data ) throws IOException {
+		HuffFile huffFile = HuffFile.open(file.getPath());
+		try {
+			assertEquals(data.length,huffFile.length());
+			assertArrayEquals(data,huffFile.read(0,data.length));
+			int middle = data.length / 2;
+			assertArrayEquals(Arrays.copyOfRange(data,middle,data.length),
+			                  huffFile.read(middle,data.length - middle));
+		} finally {
+			huffFile.close();
+		}
+
+		ParallelDecompressor decompressor = new ParallelDecompressor(2);
+		try {
+			File output = new File(directory_,"out");
+			decompressor.uncompress(file.getPath(),output.getPath());
+			assertArrayEquals(data,Files.readAllBytes(output.toPath()));
+			assertEquals(data.length,decompressor.verify(file.getPath()));
+		} finally {
+			decompressor.shutdown();
+		}
+	}
+}
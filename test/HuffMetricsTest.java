@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compresses a known input with metrics on and checks the counts, their
+ * scopes, the JMX bean and the JSON form
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffMetricsTest {
+	private static final int BLOCK_SIZE = 4096; // size of each block
+	private static final int CODED_BLOCKS = 3; // blocks of text-like data
+	private static final int STORED_BLOCKS = 2; // blocks of random data
+	private static final int LAST_BLOCK = BLOCK_SIZE / 2; // bytes in the
+	                                                      // last, text-like
+	                                                      // block
+	private static final int BLOCKS = CODED_BLOCKS + STORED_BLOCKS + 1;
+	private static final int LENGTH =
+	    (CODED_BLOCKS + STORED_BLOCKS) * BLOCK_SIZE + LAST_BLOCK;
+
+	@Test
+	public void countsAKnownInput () throws IOException {
+		HuffMetrics global = HuffMetrics.enable();
+		try {
+			global.reset();
+			HuffMetrics scope = HuffMetrics.open();
+			try {
+				assertSame(scope,HuffMetrics.current());
+				new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH)
+				    .compress(data());
+			} finally {
+				HuffMetrics.close();
+			}
+			assertSame(global,HuffMetrics.current());
+
+			checkEncoded(scope);
+			checkEncoded(global); // the scope's counts are in the totals too
+			assertTrue(scope.getCompressedBytes() < LENGTH);
+			assertTrue(scope.toJson().startsWith("{\"blocksEncoded\":" + BLOCKS
+			    + ",\"blocksDecoded\":0,\"storedBlocks\":" + STORED_BLOCKS
+			    + ",\"tableBlocks\":0,\"uncompressedBytes\":" + LENGTH + ","),
+			           scope.toJson());
+		} finally {
+			HuffMetrics.close();
+			HuffMetrics.disable();
+		}
+		assertNull(HuffMetrics.current());
+	}
+
+	@Test
+	public void countsWorkOnForkJoinThreadsInTheirScope () throws IOException {
+		HuffMetrics global = HuffMetrics.enable();
+		ParallelCompressor compressor =
+		    new ParallelCompressor(3,BLOCK_SIZE,
+		                           HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+		try {
+			global.reset();
+			HuffMetrics scope = HuffMetrics.open();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try {
+				compressor.compress(new ByteArrayInputStream(data()),compressed);
+			} finally {
+				HuffMetrics.close();
+			}
+			checkEncoded(scope);
+			checkEncoded(global);
+
+			HuffMetrics decoding = HuffMetrics.open();
+			try {
+				new HuffCodec().uncompress(compressed.toByteArray());
+			} finally {
+				HuffMetrics.close();
+			}
+			assertEquals(BLOCKS,decoding.getBlocksDecoded());
+			assertEquals(0,decoding.getBlocksEncoded());
+			assertEquals(BLOCKS,global.getBlocksDecoded());
+		} finally {
+			compressor.shutdown();
+			HuffMetrics.close();
+			HuffMetrics.disable();
+		}
+	}
+
+	@Test
+	public void publishesTheTotalsThroughJmx () throws IOException, JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("huff:type=Metrics");
+		HuffMetrics global = HuffMetrics.enable();
+		try {
+			global.reset();
+			new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH)
+			    .compress(data());
+			assertTrue(server.isRegistered(name));
+			assertEquals((long) BLOCKS,server.getAttribute(name,"BlocksEncoded"));
+			assertEquals((long) LENGTH,
+			             server.getAttribute(name,"UncompressedBytes"));
+		} finally {
+			HuffMetrics.disable();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+
+	/**
+	 * Checks the counts of compressing data()
+	 *
+	 * @param metrics
+	 *          the metrics that should hold them
+	 */
+	private static void checkEncoded ( HuffMetrics metrics ) {
+		assertEquals(BLOCKS,metrics.getBlocksEncoded());
+		assertEquals(STORED_BLOCKS,metrics.getStoredBlocks());
+		assertEquals(0,metrics.getTableBlocks());
+		assertEquals(LENGTH,metrics.getUncompressedBytes());
+		assertTrue(metrics.getCodeNanos() > 0);
+	}
+
+	/**
+	 * @return text-like blocks, random blocks that are stored, and half a
+	 *         block of text-like bytes
+	 */
+	private static byte[] data () {
+		byte[] data = new byte[LENGTH];
+		Random random = new Random(1);
+		for ( int i = 0 ; i < data.length ; i++ ) {
+			data[i] = (byte) ('a' + Math.min(random.nextInt(40),25));
+		}
+		byte[] noise = new byte[STORED_BLOCKS * BLOCK_SIZE];
+		random.nextBytes(noise);
+		System.arraycopy(noise,0,data,CODED_BLOCKS * BLOCK_SIZE,noise.length);
+		return data;
+	}
+}
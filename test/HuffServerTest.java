@@ -0,0 +1,175 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Sends requests through HuffClient to a HuffServer listening on a temporary
+ * Unix-domain socket or a free loopback port
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class HuffServerTest {
+	private static final int BLOCK_SIZE = 4096; // small enough that the data
+	                                            // takes several blocks
+
+	@TempDir
+	File directory_; // holds the socket and the files
+
+	private HuffServer server_; // the service being tested
+
+	@AfterEach
+	public void close () {
+		if ( server_ != null ) {
+			server_.close();
+		}
+	}
+
+	@Test
+	public void handlesFilesOnTheSocket () throws IOException {
+		HuffClient client = startOnSocket();
+		byte[] data = data(50000);
+		File original = new File(directory_,"original");
+		File compressed = new File(directory_,"original.huff");
+		File uncompressed = new File(directory_,"uncompressed");
+		Files.write(original.toPath(),data);
+
+		long length = client.compress(original.getPath(),compressed.getPath(),false);
+		assertEquals(compressed.length(),length);
+		assertEquals(data.length,
+		             client.uncompress(compressed.getPath(),uncompressed.getPath(),
+		                               false));
+		assertArrayEquals(data,Files.readAllBytes(uncompressed.toPath()));
+		assertEquals(data.length,client.verify(compressed.getPath()));
+		assertThrows(IOException.class,
+		             () -> client.compress(original.getPath(),compressed.getPath(),
+		                                   false)); // exists and is not forced
+	}
+
+	@Test
+	public void handlesStreamsOnTheSocket () throws IOException {
+		checkStreams(startOnSocket());
+	}
+
+	@Test
+	public void makesTheSocketPrivate () throws IOException {
+		startOnSocket();
+		Path socket = ((UnixDomainSocketAddress) server_.getAddress()).getPath();
+		if ( socket.getFileSystem().supportedFileAttributeViews().contains("posix") ) {
+			assertEquals(PosixFilePermissions.fromString("rw-------"),
+			             Files.getPosixFilePermissions(socket));
+		}
+	}
+
+	@Test
+	public void handlesOnlyStreamsOnTcp () throws IOException {
+		server_ =
+		    new HuffServer(new InetSocketAddress(InetAddress.getLoopbackAddress(),0),
+		                   codec(),HuffServer.DEFAULT_MEMORY_BUDGET);
+		server_.start();
+		HuffClient client = new HuffClient(server_.getAddress());
+		checkStreams(client);
+
+		File original = new File(directory_,"original");
+		File compressed = new File(directory_,"original.huff");
+		Files.write(original.toPath(),data(1000));
+		assertThrows(IOException.class,
+		             () -> client.compress(original.getPath(),compressed.getPath(),
+		                                   false));
+		assertFalse(compressed.exists());
+	}
+
+	@Test
+	public void refusesBlocksLongerThanItsOwn () throws IOException {
+		HuffClient client = startOnSocket();
+		HuffCodec codec = new HuffCodec(4 * BLOCK_SIZE,
+		                                HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+		byte[] compressed = codec.compress(data(4 * BLOCK_SIZE));
+		assertThrows(IllegalArgumentException.class,
+		             () -> client.uncompress(new ByteArrayInputStream(compressed),
+		                                     new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void keepsItsRequestLimit () throws IOException {
+		HuffClient client = startOnSocket();
+		int maxRequests = server_.getMaxRequests();
+		checkStreams(client);
+		assertEquals(maxRequests,server_.getMaxRequests());
+	}
+
+	/**
+	 * Round-trips data through the stream operations, and checks that corrupt
+	 * data is reported as invalid
+	 *
+	 * @param client
+	 *          a client of the running service
+	 * @throws IOException
+	 */
+	private static void checkStreams ( HuffClient client ) throws IOException {
+		byte[] data = data(50000);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		client.compress(new ByteArrayInputStream(data),compressed);
+		ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+		client.uncompress(new ByteArrayInputStream(compressed.toByteArray()),
+		                  uncompressed);
+		assertArrayEquals(data,uncompressed.toByteArray());
+
+		byte[] corrupt = compressed.toByteArray();
+		corrupt[corrupt.length / 2] ^= 0x55;
+		assertThrows(IllegalArgumentException.class,
+		             () -> client.uncompress(new ByteArrayInputStream(corrupt),
+		                                     new ByteArrayOutputStream()));
+	}
+
+	/**
+	 * Starts the service on a socket in the test's directory
+	 *
+	 * @return a client of the service
+	 * @throws IOException
+	 */
+	private HuffClient startOnSocket () throws IOException {
+		server_ =
+		    new HuffServer(UnixDomainSocketAddress.of(new File(directory_,"huff.sock")
+		        .toPath()),codec(),HuffServer.DEFAULT_MEMORY_BUDGET);
+		server_.start();
+		return new HuffClient(server_.getAddress());
+	}
+
+	/**
+	 * @return the codec whose settings the service uses
+	 */
+	private static HuffCodec codec () {
+		return new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+	}
+
+	/**
+	 * @param length
+	 *          number of bytes
+	 * @return text-like bytes that compress
+	 */
+	private static byte[] data ( int length ) {
+		byte[] data = new byte[length];
+		Random random = new Random(1);
+		for ( int i = 0 ; i < length ; i++ ) {
+			data[i] = (byte) ('a' + Math.min(random.nextInt(40),25));
+		}
+		return data;
+	}
+}
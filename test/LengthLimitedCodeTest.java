@@ -0,0 +1,192 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that length-limited codes keep to their limit, are complete prefix
+ * codes, round-trip, and cost little compared with unlimited Huffman codes
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class LengthLimitedCodeTest {
+	private static final int[] LIMITS = { 8, 10, 12, 15 }; // limits checked
+	private static final double MAX_LOSS_AT_12 = 0.01; // most that limiting to
+	                                                   // 12 bits may cost, as a
+	                                                   // fraction of the
+	                                                   // unlimited size
+
+	@Test
+	public void keepsToTheLimit () {
+		for ( int[] frequencies : frequencies() ) {
+			for ( int limit : LIMITS ) {
+				int[] lengths = LengthLimitedCode.lengths(frequencies,limit);
+				for ( int symbol = 0 ; symbol < lengths.length ; symbol++ ) {
+					assertTrue(lengths[symbol] <= limit,"code of " + lengths[symbol]
+					    + " bits with a limit of " + limit);
+					assertEquals(frequencies[symbol] > 0,lengths[symbol] > 0,
+					             "symbol " + symbol);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void satisfiesKraft () {
+		for ( int[] frequencies : frequencies() ) {
+			for ( int limit : LIMITS ) {
+				int[] lengths = LengthLimitedCode.lengths(frequencies,limit);
+				double sum = 0;
+				for ( int length : lengths ) {
+					if ( length > 0 ) {
+						sum += Math.pow(2,-length);
+					}
+				}
+				assertTrue(sum <= 1,"Kraft sum " + sum);
+			}
+		}
+	}
+
+	@Test
+	public void costsLittleMoreThanUnlimitedCodes () {
+		for ( int[] frequencies : frequencies() ) {
+			int[] unlimited = HuffmanCode.lengths(frequencies);
+			long unlimitedSize = size(frequencies,unlimited);
+			int longest = 0;
+			for ( int length : unlimited ) {
+				longest = Math.max(longest,length);
+			}
+			for ( int limit : LIMITS ) {
+				long limitedSize =
+				    size(frequencies,LengthLimitedCode.lengths(frequencies,limit));
+				assertTrue(limitedSize >= unlimitedSize,"beat Huffman at " + limit);
+				if ( limit >= longest ) { // nothing had to be shortened
+					assertEquals(unlimitedSize,limitedSize);
+				}
+				if ( limit >= 12 ) {
+					double loss = (double) (limitedSize - unlimitedSize) / unlimitedSize;
+					assertTrue(loss <= MAX_LOSS_AT_12,"limiting to " + limit
+					    + " bits cost " + loss * 100 + "%");
+				}
+			}
+		}
+	}
+
+	@Test
+	public void roundTripsSkewedData () throws IOException {
+		checkRoundTrip(HuffBenchmark.corpus("skewed","medium"));
+	}
+
+	@Test
+	public void roundTripsFibonacciData () throws IOException {
+		int[] frequencies = fibonacciFrequencies(24);
+		int total = 0;
+		for ( int frequency : frequencies ) {
+			total += frequency;
+		}
+		byte[] data = new byte[total];
+		int next = 0;
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			for ( int i = 0 ; i < frequencies[symbol] ; i++ ) {
+				data[next++] = (byte) symbol;
+			}
+		}
+		Random random = new Random(1);
+		for ( int i = data.length - 1 ; i > 0 ; i-- ) {
+			int j = random.nextInt(i + 1);
+			byte swap = data[i];
+			data[i] = data[j];
+			data[j] = swap;
+		}
+		checkRoundTrip(data);
+	}
+
+	@Test
+	public void rejectsLimitsTooShortForTheSymbols () {
+		int[] frequencies = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		Arrays.fill(frequencies,1);
+		assertThrows(IllegalArgumentException.class,
+		             () -> LengthLimitedCode.lengths(frequencies,7));
+	}
+
+	/**
+	 * Compresses and uncompresses data with each limit
+	 *
+	 * @param data
+	 *          the data
+	 * @throws IOException
+	 */
+	private static void checkRoundTrip ( byte[] data ) throws IOException {
+		for ( int limit : LIMITS ) {
+			HuffCodec codec = new HuffCodec(HuffConstants.DEFAULT_BLOCK_SIZE,limit);
+			assertArrayEquals(data,codec.uncompress(codec.compress(data)),
+			                  "limit " + limit);
+		}
+	}
+
+	/**
+	 * @return byte frequencies that give deep Huffman trees, and some that do
+	 *         not
+	 */
+	private static int[][] frequencies () {
+		return new int[][] { count(HuffBenchmark.corpus("skewed","medium")),
+		                     count(HuffBenchmark.corpus("zipf","medium")),
+		                     count(HuffBenchmark.corpus("english","medium")),
+		                     count(HuffBenchmark.corpus("uniform","small")),
+		                     fibonacciFrequencies(30), fibonacciFrequencies(2),
+		                     fibonacciFrequencies(1) };
+	}
+
+	/**
+	 * @param data
+	 *          some bytes
+	 * @return how often each byte value occurs
+	 */
+	private static int[] count ( byte[] data ) {
+		int[] frequencies = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		for ( byte b : data ) {
+			frequencies[b & 0xFF]++;
+		}
+		return frequencies;
+	}
+
+	/**
+	 * @param symbols
+	 *          number of symbols
+	 * @return frequencies that follow the Fibonacci numbers, which give the
+	 *         deepest possible Huffman tree
+	 */
+	private static int[] fibonacciFrequencies ( int symbols ) {
+		int[] frequencies = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		int previous = 0;
+		int current = 1;
+		for ( int symbol = 0 ; symbol < symbols ; symbol++ ) {
+			frequencies[symbol] = current;
+			int next = previous + current;
+			previous = current;
+			current = next;
+		}
+		return frequencies;
+	}
+
+	/**
+	 * @param frequencies
+	 *          how often each symbol occurs
+	 * @param lengths
+	 *          the code length of each symbol
+	 * @return the number of bits the symbols take
+	 */
+	private static long size ( int[] frequencies, int[] lengths ) {
+		long bits = 0;
+		for ( int symbol = 0 ; symbol < frequencies.length ; symbol++ ) {
+			bits += (long) frequencies[symbol] * lengths[symbol];
+		}
+		return bits;
+	}
+}
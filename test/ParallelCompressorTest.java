@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that compressing a file gives the same bytes on any number of
+ * threads
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class ParallelCompressorTest {
+	private static final int[] THREADS = { 2, 3, 4, 8 }; // thread counts
+	                                                     // compared with one
+
+	@TempDir
+	File directory_; // holds the files
+
+	@Test
+	public void givesTheSameOutputOnAnyNumberOfThreads () throws IOException {
+		File original = new File(directory_,"original");
+		Files.write(original.toPath(),data());
+
+		File single = new File(directory_,"single.huff");
+		Huff.compress(original.getPath(),single.getPath(),1);
+		byte[] expected = Files.readAllBytes(single.toPath());
+
+		File pipelined = new File(directory_,"pipelined.huff");
+		Huff.compress(original.getPath(),pipelined.getPath());
+		assertArrayEquals(expected,Files.readAllBytes(pipelined.toPath()));
+
+		for ( int threads : THREADS ) {
+			File parallel = new File(directory_,threads + ".huff");
+			Huff.compress(original.getPath(),parallel.getPath(),threads);
+			assertArrayEquals(expected,Files.readAllBytes(parallel.toPath()),
+			                  threads + " threads");
+		}
+	}
+
+	/**
+	 * @return several blocks of data and a partial one, some of it text-like
+	 *         and some random, so that both coded and stored blocks are written
+	 */
+	private static byte[] data () {
+		int blockSize = HuffConstants.DEFAULT_BLOCK_SIZE;
+		byte[] data = new byte[5 * blockSize + blockSize / 3];
+		Random random = new Random(4);
+		for ( int i = 0 ; i < data.length ; i++ ) {
+			data[i] = (byte) ('a' + Math.min(random.nextInt(40),25));
+		}
+		byte[] noise = new byte[blockSize];
+		random.nextBytes(noise);
+		System.arraycopy(noise,0,data,2 * blockSize,blockSize);
+		return data;
+	}
+}
@@ -0,0 +1,238 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Checks that an error in any stage of a pipeline reaches the caller instead
+ * of leaving the stages blocked, that an interrupted pipeline stops both of
+ * its threads, and that a slow output holds the reader back
+ *
+ * @author Kidus Asmare Ayele
+ */
+@Timeout(value = 30, unit = TimeUnit.SECONDS)
+public class PipelinedCodecTest {
+	private static final int BLOCK_SIZE = 4096; // small enough for many blocks
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16; // most bytes the
+	                                                       // compressed stream
+	                                                       // buffers before
+	                                                       // writing
+
+	@Test
+	public void passesOnErrorsInTheWriter () {
+		byte[] data = new byte[100 * BLOCK_SIZE];
+		new Random(1).nextBytes(data);
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write ( int b ) {
+				throw new StackOverflowError("write failed");
+			}
+
+			@Override
+			public void write ( byte[] b, int off, int len ) {
+				throw new StackOverflowError("write failed");
+			}
+		};
+		assertThrows(StackOverflowError.class,
+		             () -> codec().compress(new ByteArrayInputStream(data),failing));
+		assertTrue(stageThreads().isEmpty());
+	}
+
+	@Test
+	public void passesOnErrorsInTheReader () {
+		InputStream failing = new RandomInputStream(Long.MAX_VALUE) {
+			@Override
+			public int read ( byte[] b, int off, int len ) throws IOException {
+				if ( count() > 10 * BLOCK_SIZE ) {
+					throw new IOException("read failed");
+				}
+				return super.read(b,off,len);
+			}
+		};
+		IOException e =
+		    assertThrows(IOException.class,
+		                 () -> codec().compress(failing,new ByteArrayOutputStream()));
+		assertEquals("read failed",e.getMessage());
+		assertTrue(stageThreads().isEmpty());
+	}
+
+	@Test
+	public void stopsBothStagesWhenInterrupted () throws InterruptedException {
+		CountDownLatch writing = new CountDownLatch(1);
+		OutputStream stuck = new OutputStream() {
+			@Override
+			public void write ( int b ) throws IOException {
+				write(new byte[] { (byte) b },0,1);
+			}
+
+			@Override
+			public void write ( byte[] b, int off, int len ) throws IOException {
+				writing.countDown();
+				try {
+					Thread.sleep(Long.MAX_VALUE);
+				} catch ( InterruptedException e ) {
+					try {
+						Thread.sleep(500); // takes a while to give up, as a real
+						                   // stream might
+					} catch ( InterruptedException f ) {
+						// gives up at once
+					}
+					throw new InterruptedIOException("write interrupted");
+				}
+			}
+		};
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		AtomicBoolean interrupted = new AtomicBoolean();
+		Thread caller = new Thread(() -> {
+			try {
+				codec().compress(new RandomInputStream(Long.MAX_VALUE),stuck);
+			} catch ( Throwable e ) {
+				failure.set(e);
+			}
+			interrupted.set(Thread.currentThread().isInterrupted());
+		});
+		caller.start();
+		assertTrue(writing.await(10,TimeUnit.SECONDS));
+		caller.interrupt();
+		caller.join(10000);
+
+		assertFalse(caller.isAlive());
+		assertInstanceOf(InterruptedIOException.class,failure.get());
+		assertTrue(interrupted.get(),"the interrupt was not passed on");
+		assertTrue(stageThreads().isEmpty(),"stages left running: "
+		    + stageThreads());
+	}
+
+	@Test
+	public void holdsTheReaderBackWhileTheOutputIsStuck ()
+	    throws InterruptedException {
+		PipelinedCodec codec = codec();
+		RandomInputStream input = new RandomInputStream(8 << 20);
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write ( byte[] b, int off, int len ) {
+				writing.countDown();
+				try {
+					release.await();
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+				super.write(b,off,len);
+			}
+		};
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread caller = new Thread(() -> {
+			try {
+				codec.compress(input,compressed);
+			} catch ( Throwable e ) {
+				failure.set(e);
+			}
+		});
+		caller.start();
+		assertTrue(writing.await(10,TimeUnit.SECONDS));
+		long read = input.count();
+		do { // waits for the reader to run out of slots
+			Thread.sleep(200);
+		} while ( read != (read = input.count()) );
+
+		// the blocks in the slots, the one the writer holds, and those
+		// already buffered by the compressed stream
+		long limit = (codec.getSlotCount() + 1L) * BLOCK_SIZE + OUTPUT_BUFFER_SIZE
+		    + BLOCK_SIZE;
+		assertTrue(read <= limit,"read " + read + " bytes ahead of the output, "
+		    + "more than " + limit);
+
+		release.countDown();
+		caller.join(20000);
+		assertFalse(caller.isAlive());
+		assertEquals(null,failure.get());
+		assertEquals(8 << 20,input.count());
+	}
+
+	/**
+	 * @return a codec whose memory budget holds only three blocks at once
+	 */
+	private static PipelinedCodec codec () {
+		return new PipelinedCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH,
+		                          false,6 * BLOCK_SIZE);
+	}
+
+	/**
+	 * @return the pipeline's reader and writer threads that are still alive
+	 */
+	private static List<Thread> stageThreads () {
+		List<Thread> threads = new ArrayList<Thread>();
+		for ( Thread thread : Thread.getAllStackTraces().keySet() ) {
+			if ( thread.isAlive() && (thread.getName().equals("huff-reader")
+			    || thread.getName().equals("huff-writer")) ) {
+				threads.add(thread);
+			}
+		}
+		return threads;
+	}
+
+	/**
+	 * Random bytes, as many as asked for, counting how many have been read
+	 */
+	private static class RandomInputStream extends InputStream {
+		private final Random random_ = new Random(3); // makes the bytes
+		private final AtomicLong count_ = new AtomicLong(); // bytes read so far
+		private final long length_; // bytes in the stream
+
+		/**
+		 * @param length
+		 *          number of bytes in the stream
+		 */
+		RandomInputStream ( long length ) {
+			length_ = length;
+		}
+
+		/**
+		 * @return the number of bytes read so far
+		 */
+		long count () {
+			return count_.get();
+		}
+
+		@Override
+		public int read () throws IOException {
+			byte[] b = new byte[1];
+			return read(b,0,1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read ( byte[] b, int off, int len ) throws IOException {
+			long left = length_ - count_.get();
+			if ( left == 0 ) {
+				return -1;
+			}
+			int n = (int) Math.min(len,left);
+			for ( int i = 0 ; i < n ; i++ ) {
+				b[off + i] = (byte) random_.nextInt();
+			}
+			count_.addAndGet(n);
+			return n;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Checks that every way of compressing and uncompressing gives back exactly
+ * the bytes it was given, for every byte value, binary data, UTF-8 text, a
+ * single repeated byte and no bytes at all
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class RoundTripTest {
+	private static final int BLOCK_SIZE = 4096; // small enough that most inputs
+	                                            // take several blocks
+
+	@TempDir
+	File directory_; // holds the files being compressed
+
+	/**
+	 * @return the inputs, each with a name
+	 */
+	static Stream<Arguments> inputs () {
+		byte[] everyByte = new byte[256 * 40];
+		for ( int i = 0 ; i < everyByte.length ; i++ ) {
+			everyByte[i] = (byte) i;
+		}
+		shuffle(everyByte,new Random(1));
+
+		byte[] binary = new byte[50000];
+		new Random(2).nextBytes(binary);
+
+		StringBuilder text = new StringBuilder();
+		for ( int i = 0 ; i < 300 ; i++ ) {
+			text.append("Grüße aus Addis Ababa — ሰላም, 你好, привет, café. ");
+		}
+
+		byte[] oneSymbol = new byte[10000];
+		Arrays.fill(oneSymbol,(byte) 0xFF);
+
+		return Stream.of(Arguments.of("every byte value",everyByte),
+		                 Arguments.of("binary",binary),
+		                 Arguments.of("UTF-8",
+		                              text.toString().getBytes(StandardCharsets.UTF_8)),
+		                 Arguments.of("one symbol",oneSymbol),
+		                 Arguments.of("one byte",new byte[] { 0 }),
+		                 Arguments.of("empty",new byte[0]));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void files ( String name, byte[] data ) throws IOException {
+		String original = write("original",data);
+		String compressed = path("compressed");
+		String uncompressed = path("uncompressed");
+		Huff.compress(original,compressed);
+		Huff.uncompress(compressed,uncompressed);
+		assertArrayEquals(data,read(uncompressed));
+		assertEquals("The files are the same\n",Huff.compare(original,uncompressed));
+		assertEquals(data.length,Huff.verify(compressed,2));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void filesOnThreads ( String name, byte[] data ) throws IOException {
+		String original = write("original",data);
+		String compressed = path("compressed");
+		String uncompressed = path("uncompressed");
+		Huff.compress(original,compressed,3);
+		Huff.uncompress(compressed,uncompressed,3);
+		assertArrayEquals(data,read(uncompressed));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void mappedFiles ( String name, byte[] data ) throws IOException {
+		String original = write("original",data);
+		String compressed = path("compressed");
+		String uncompressed = path("uncompressed");
+		NioHuff.compress(original,compressed,BLOCK_SIZE);
+		NioHuff.uncompress(compressed,uncompressed);
+		assertArrayEquals(data,read(uncompressed));
+		assertEquals("The files are the same\n",
+		             NioHuff.compare(original,uncompressed));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void streams ( String name, byte[] data ) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		Huff.compress(new ByteArrayInputStream(data),compressed,BLOCK_SIZE,12);
+		ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+		Huff.uncompress(new ByteArrayInputStream(compressed.toByteArray()),
+		                uncompressed);
+		assertArrayEquals(data,uncompressed.toByteArray());
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void pipelinedStreams ( String name, byte[] data ) throws IOException {
+		PipelinedCodec codec =
+		    new PipelinedCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH,
+		                       true,16 * BLOCK_SIZE);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		codec.compress(new ByteArrayInputStream(data),compressed);
+		ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+		codec.uncompress(new ByteArrayInputStream(compressed.toByteArray()),
+		                 uncompressed);
+		assertArrayEquals(data,uncompressed.toByteArray());
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void arrays ( String name, byte[] data ) throws IOException {
+		HuffCodec codec = new HuffCodec();
+		assertArrayEquals(data,codec.uncompress(codec.compress(data)));
+		HuffCodec interleaved =
+		    new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH,null,
+		                  true);
+		assertArrayEquals(data,interleaved.uncompress(interleaved.compress(data)));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void directBuffers ( String name, byte[] data ) throws IOException {
+		HuffCodec codec =
+		    new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+		ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+		src.put(data).flip();
+		ByteBuffer compressed =
+		    ByteBuffer.allocateDirect(codec.maxCompressedLength(data.length));
+		codec.compress(src,compressed);
+		compressed.flip();
+		ByteBuffer uncompressed = ByteBuffer.allocateDirect(data.length);
+		assertEquals(data.length,codec.uncompress(compressed,uncompressed));
+		byte[] result = new byte[data.length];
+		uncompressed.flip();
+		uncompressed.get(result);
+		assertArrayEquals(data,result);
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("inputs")
+	public void arraysAndStreamsOnOneThread ( String name, byte[] data )
+	    throws IOException {
+		// compressing a whole array grows the thread's scratch past one block,
+		// and the calls after it must work with whatever is left of it
+		HuffCodec codec =
+		    new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+		for ( int i = 0 ; i < 2 ; i++ ) {
+			assertArrayEquals(data,codec.uncompress(codec.compress(data)));
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			codec.compress(new ByteArrayInputStream(data),compressed);
+			ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+			codec.uncompress(new ByteArrayInputStream(compressed.toByteArray()),
+			                 uncompressed);
+			assertArrayEquals(data,uncompressed.toByteArray());
+		}
+	}
+
+	/**
+	 * @param name
+	 *          a file name
+	 * @return the path of the file in the test's directory
+	 */
+	private String path ( String name ) {
+		return new File(directory_,name).getPath();
+	}
+
+	/**
+	 * @param name
+	 *          a file name
+	 * @param data
+	 *          the file's contents
+	 * @return the path of the file written in the test's directory
+	 * @throws IOException
+	 */
+	private String write ( String name, byte[] data ) throws IOException {
+		String path = path(name);
+		Files.write(new File(path).toPath(),data);
+		return path;
+	}
+
+	/**
+	 * @param path
+	 *          a file
+	 * @return the file's contents
+	 * @throws IOException
+	 */
+	private static byte[] read ( String path ) throws IOException {
+		return Files.readAllBytes(new File(path).toPath());
+	}
+
+	/**
+	 * @param data
+	 *          the bytes to shuffle in place
+	 * @param random
+	 *          the source of randomness
+	 */
+	private static void shuffle ( byte[] data, Random random ) {
+		for ( int i = data.length - 1 ; i > 0 ; i-- ) {
+			int j = random.nextInt(i + 1);
+			byte swap = data[i];
+			data[i] = data[j];
+			data[j] = swap;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that data which does not compress is stored as it is, so that no
+ * block grows past its own length plus its header and checksum
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class StoredBlockTest {
+	private static final int BLOCK_SIZE = 4096; // small enough that the data
+	                                            // takes several blocks
+
+	@TempDir
+	File directory_; // holds the files being compressed
+
+	@Test
+	public void storesRandomArrays () throws IOException {
+		byte[] data = random(5 * BLOCK_SIZE + 123);
+		checkStored(new HuffCodec(BLOCK_SIZE,
+		                          HuffConstants.DEFAULT_MAX_CODE_LENGTH),data);
+		checkStored(new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH,
+		                          null,true),data);
+		checkStored(new HuffCodec(BLOCK_SIZE,9),data);
+	}
+
+	@Test
+	public void storesRandomStreams () throws IOException {
+		byte[] data = random(5 * BLOCK_SIZE + 123);
+		HuffCodec codec =
+		    new HuffCodec(BLOCK_SIZE,HuffConstants.DEFAULT_MAX_CODE_LENGTH);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		codec.compress(new ByteArrayInputStream(data),compressed);
+		checkBlocks(codec,data,compressed.toByteArray());
+	}
+
+	@Test
+	public void storesRandomFiles () throws IOException {
+		byte[] data = random(3 * HuffConstants.DEFAULT_BLOCK_SIZE + 123);
+		File file = new File(directory_,"random");
+		Files.write(file.toPath(),data);
+		File output = new File(directory_,"random.huff");
+		for ( int threads : new int[] { 1, 4 } ) {
+			Huff.compress(file.getPath(),output.getPath(),threads);
+			checkBlocks(new HuffCodec(),data,Files.readAllBytes(output.toPath()));
+		}
+	}
+
+	@Test
+	public void storesEveryByteValueOnce () throws IOException {
+		// a code for 256 equally likely symbols takes 8 bits each, so the code
+		// lengths in the header are pure overhead
+		byte[] data = new byte[256];
+		for ( int i = 0 ; i < data.length ; i++ ) {
+			data[i] = (byte) i;
+		}
+		checkStored(new HuffCodec(BLOCK_SIZE,
+		                          HuffConstants.DEFAULT_MAX_CODE_LENGTH),data);
+	}
+
+	/**
+	 * Compresses data as an array and checks its blocks
+	 *
+	 * @param codec
+	 *          the codec to compress with
+	 * @param data
+	 *          data that does not compress
+	 * @throws IOException
+	 */
+	private static void checkStored ( HuffCodec codec, byte[] data )
+	    throws IOException {
+		checkBlocks(codec,data,codec.compress(data));
+	}
+
+	/**
+	 * Checks that compressed data is no longer than its input plus headers,
+	 * that every block is stored with a payload as long as its input, and that
+	 * it uncompresses to the input
+	 *
+	 * @param codec
+	 *          the codec the data was compressed with
+	 * @param data
+	 *          the input
+	 * @param compressed
+	 *          the compressed data
+	 * @throws IOException
+	 */
+	private static void checkBlocks ( HuffCodec codec, byte[] data,
+	                                  byte[] compressed ) throws IOException {
+		assertTrue(compressed.length <= codec.maxCompressedLength(data.length),
+		           compressed.length + " bytes for " + data.length);
+
+		ByteBuffer buffer = ByteBuffer.wrap(compressed);
+		int offset = HuffConstants.STREAM_HEADER_SIZE;
+		long total = 0;
+		while ( compressed[offset] != HuffConstants.BLOCK_END ) {
+			int rawLength = buffer.getInt(offset + 1);
+			int payloadLength = buffer.getInt(offset + 5);
+			assertEquals(HuffConstants.BLOCK_STORED,compressed[offset],
+			             "block at " + offset);
+			assertEquals(rawLength,payloadLength,"block at " + offset);
+			total += rawLength;
+			offset += HuffConstants.BLOCK_HEADER_SIZE + payloadLength
+			    + HuffConstants.CHECKSUM_SIZE;
+		}
+		assertEquals(data.length,total);
+		assertArrayEquals(data,codec.uncompress(compressed));
+	}
+
+	/**
+	 * @param length
+	 *          number of bytes
+	 * @return random bytes, which do not compress
+	 */
+	private static byte[] random ( int length ) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
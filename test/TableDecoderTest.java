@@ -0,0 +1,239 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that the table-driven decoder gives the same bytes as the reference
+ * decoder that walks the coding tree, and that it rejects truncated input
+ *
+ * @author Kidus Asmare Ayele
+ */
+public class TableDecoderTest {
+	// A code whose long codes start with zeros (1, 01, 001, ... 0000000000000001,
+	// 0000000000000000), so that the zeros that pad the end of a truncated
+	// input lead into a secondary table
+	private static final int SYMBOLS = 16;
+	private static final long[] CODES = new long[SYMBOLS];
+	private static final int[] LENGTHS = new int[SYMBOLS];
+	static {
+		for ( int symbol = 0 ; symbol < SYMBOLS ; symbol++ ) {
+			LENGTHS[symbol] = Math.min(symbol + 1,SYMBOLS - 1);
+			CODES[symbol] = symbol < SYMBOLS - 1 ? 1 : 0;
+		}
+	}
+	private static final byte[] TRUNCATED_DATA = { 15, 14, 3, 15, 0, 12, 15, 15 };
+
+	@TempDir
+	File directory_; // holds the files being decoded
+
+	@Test
+	public void matchesReferenceOnText () throws IOException {
+		String text = "It was the best of times, it was the worst of times, "
+		    + "it was the age of wisdom, it was the age of foolishness.\n";
+		StringBuilder repeated = new StringBuilder();
+		for ( int i = 0 ; i < 200 ; i++ ) {
+			repeated.append(text);
+		}
+		checkSameOutput(repeated.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void matchesReferenceOnEveryByteValue () throws IOException {
+		byte[] data = new byte[20000];
+		Random random = new Random(1);
+		for ( int i = 0 ; i < data.length ; i++ ) {
+			data[i] = (byte) (1 + random.nextInt(255)); // 0 is the end marker in
+			                                            // the tree format
+		}
+		checkSameOutput(data);
+	}
+
+	@Test
+	public void matchesReferenceOnLongCodes () throws IOException {
+		checkSameOutput(fibonacci(24)); // codes of up to 23 bits, which need
+		                                // secondary tables
+	}
+
+	@Test
+	public void matchesReferenceOnOneSymbol () throws IOException {
+		byte[] data = new byte[1000];
+		Arrays.fill(data,(byte) 'x');
+		checkSameOutput(data);
+	}
+
+	@Test
+	public void matchesReferenceOnEmptyInput () throws IOException {
+		checkSameOutput(new byte[0]);
+	}
+
+	@Test
+	public void rejectsTruncatedInput () throws IOException {
+		TableDecoder decoder = new TableDecoder(CODES,LENGTHS,-1);
+		byte[] coded = code(TRUNCATED_DATA);
+		for ( int length = 0 ; length < coded.length ; length++ ) {
+			BitReader inputStream = new BitReader(coded,0,length);
+			assertThrows(IllegalArgumentException.class,
+			             () -> decoder.decode(inputStream,new byte[TRUNCATED_DATA.length],
+			                                  0,TRUNCATED_DATA.length));
+			assertTrue(inputStream.available() >= 0,"skipped past the end at "
+			    + length + " bytes");
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedStreams () throws IOException {
+		TableDecoder decoder = new TableDecoder(CODES,LENGTHS,-1);
+		byte[] coded = code(TRUNCATED_DATA);
+		int length = TRUNCATED_DATA.length * 4;
+		for ( int truncate = 0 ; truncate < coded.length ; truncate++ ) {
+			BitReader truncated = new BitReader(coded,0,truncate);
+			BitReader whole1 = new BitReader(coded,0,coded.length);
+			BitReader whole2 = new BitReader(coded,0,coded.length);
+			BitReader whole3 = new BitReader(coded,0,coded.length);
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			assertThrows(IllegalArgumentException.class,
+			             () -> decoder.decode(truncated,whole1,whole2,whole3,buffer,
+			                                  length));
+			assertTrue(truncated.available() >= 0,"skipped past the end at "
+			    + truncate + " bytes");
+		}
+	}
+
+	/**
+	 * Writes data in the tree format and decodes it with both decoders
+	 *
+	 * @param data
+	 *          bytes from 1 to 255
+	 * @throws IOException
+	 */
+	private void checkSameOutput ( byte[] data ) throws IOException {
+		File compressed = new File(directory_,"tree.huff");
+		Files.write(compressed.toPath(),code(codingTree(data),data,true));
+
+		File table = new File(directory_,"table.out");
+		File reference = new File(directory_,"reference.out");
+		Huff.uncompress(compressed.getPath(),table.getPath());
+		Huff.uncompressReference(compressed.getPath(),reference.getPath());
+
+		byte[] tableBytes = Files.readAllBytes(table.toPath());
+		assertArrayEquals(Files.readAllBytes(reference.toPath()),tableBytes);
+		assertArrayEquals(data,tableBytes);
+	}
+
+	/**
+	 * Builds the coding tree for some data and the end marker
+	 *
+	 * @param data
+	 *          bytes from 1 to 255
+	 * @return the coding tree
+	 */
+	private static CodingTree codingTree ( byte[] data ) {
+		if ( data.length == 0 ) { // the end marker alone is a single leaf
+			return new CodingTree(new Trie<BitString,Character>(HuffConstants.PSEUDO_EOF));
+		}
+		int[] frequencies = new int[HuffConstants.BLOCK_ALPHABET_SIZE];
+		for ( byte b : data ) {
+			frequencies[b & 0xFF]++;
+		}
+		frequencies[HuffConstants.PSEUDO_EOF.charValue()] = 1;
+		return BlockEncoder.buildCodingTree(frequencies);
+	}
+
+	/**
+	 * Codes data with a coding tree's bit strings
+	 *
+	 * @param tree
+	 *          the coding tree
+	 * @param data
+	 *          the data to code
+	 * @param file
+	 *          true for a whole file in the tree format, with the magic number,
+	 *          the tree and the end marker; false for the codes alone
+	 * @return the coded bytes
+	 * @throws IOException
+	 */
+	private static byte[] code ( CodingTree tree, byte[] data, boolean file )
+	    throws IOException {
+		Map<Character,BitString> encodings = tree.getEncodings();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitOutputStream outputStream = new BitOutputStream(bytes);
+		if ( file ) {
+			outputStream.writeBits(HuffConstants.MAGIC_NUMBER);
+			tree.write(outputStream);
+		}
+		for ( byte b : data ) {
+			outputStream.writeBits(encodings.get((char) (b & 0xFF)));
+		}
+		if ( file ) {
+			outputStream.writeBits(encodings.get(HuffConstants.PSEUDO_EOF));
+		}
+		outputStream.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Codes data with CODES
+	 *
+	 * @param data
+	 *          symbols below SYMBOLS
+	 * @return the coded bytes
+	 * @throws IOException
+	 */
+	private static byte[] code ( byte[] data ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitOutputStream outputStream = new BitOutputStream(bytes);
+		for ( byte symbol : data ) {
+			StringBuilder bits = new StringBuilder();
+			for ( int i = LENGTHS[symbol] - 1 ; i >= 0 ; i-- ) {
+				bits.append(CODES[symbol] >> i & 1);
+			}
+			outputStream.writeBits(new BitString(bits.toString()));
+		}
+		outputStream.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Makes data whose byte frequencies follow the Fibonacci numbers, which
+	 * gives the deepest possible tree
+	 *
+	 * @param symbols
+	 *          number of different bytes
+	 * @return the data, in a shuffled order
+	 */
+	private static byte[] fibonacci ( int symbols ) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int previous = 1;
+		int current = 1;
+		for ( int symbol = 1 ; symbol <= symbols ; symbol++ ) {
+			for ( int i = 0 ; i < current ; i++ ) {
+				bytes.write(symbol);
+			}
+			int next = previous + current;
+			previous = current;
+			current = next;
+		}
+		byte[] data = bytes.toByteArray();
+		Random random = new Random(2);
+		for ( int i = data.length - 1 ; i > 0 ; i-- ) {
+			int j = random.nextInt(i + 1);
+			byte swap = data[i];
+			data[i] = data[j];
+			data[j] = swap;
+		}
+		return data;
+	}
+}